@@ -1,5 +1,7 @@
 package hu.cartographia.inventory;
 
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.event.ActionEvent;
@@ -12,10 +14,8 @@ import javafx.scene.control.TextField;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.KeyCode;
 
-import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.stream.Collectors;
 import java.util.Date;
 
 /**
@@ -27,15 +27,16 @@ public class AutoCompleteTextField extends TextField {
 
 	final int maxSearchResults = 15;
 
-	/** The existing autocomplete entries. */
-	private final List<DatabaseEntry> entries;
+	/** The database searched for autocomplete entries. */
+	private Database database = null;
 	/** The popup used to select an entry. */
 	private ContextMenu entriesPopup;
+	/** While true (eg. during a scanner burst), the entries are not searched. */
+	private final BooleanProperty searchSuspended = new SimpleBooleanProperty(false);
 
 	/** Construct a new AutoCompleteTextField. */
 	public AutoCompleteTextField() {
 		super();
-		entries = new ArrayList<DatabaseEntry>();
 		entriesPopup = new ContextMenu();
 		entriesPopup.setId("autoCompleteMenu");
 		textProperty().addListener(new ChangeListener<String>() {
@@ -43,26 +44,16 @@ public class AutoCompleteTextField extends TextField {
 			public void changed(ObservableValue<? extends String> observableValue, String s, String s2) {
 				if (getText().length() == 0) {
 					entriesPopup.hide();
-				} else {
-					
-					if (entries.size() > 0 && !getText().matches("[-_ö\\d]+")) {
-						String[] patterns = getText().toLowerCase().split(" ");
-						
-						populatePopup(entries.stream().filter(p-> {
-								for (String pattern : patterns) {
-									if (!p.getName().toLowerCase().contains(pattern)) {
-										return false;
-									}
-								}
-								return true;
-						}).collect(Collectors.toList()));
-						
-						if (!entriesPopup.isShowing()) {
-							entriesPopup.show(AutoCompleteTextField.this, Side.BOTTOM, 5, 0);
-						}
-					} else {
-						entriesPopup.hide();
-					}
+				} else if (!searchSuspended.get()) {
+					search();
+				}
+			}
+		});
+		searchSuspended.addListener(new ChangeListener<Boolean>() {
+			@Override
+			public void changed(ObservableValue<? extends Boolean> observableValue, Boolean aBoolean, Boolean aBoolean2) {
+				if (!aBoolean2 && getText().length() > 0 && isFocused()) {
+					search();
 				}
 			}
 		});
@@ -77,11 +68,35 @@ public class AutoCompleteTextField extends TextField {
 	}
 
 	/**
-	 * Get the existing set of autocomplete entries.
-	 * @return The existing autocomplete entries.
+	 * While true, the entries are not searched on text changes. When it turns false, the current text is searched.
+	 */
+	public BooleanProperty searchSuspendedProperty() {
+		return searchSuspended;
+	}
+
+	/**
+	 * Search the database for the current text, and show or hide the popup.
+	 */
+	private void search() {
+		if (database != null && database.size() > 0 && !getText().matches("[-_ö\\d]+") && !getText().startsWith("#")) {
+			String[] patterns = getText().toLowerCase().split(" ");
+			
+			populatePopup(database.searchByName(patterns, maxSearchResults));
+			
+			if (!entriesPopup.isShowing()) {
+				entriesPopup.show(AutoCompleteTextField.this, Side.BOTTOM, 5, 0);
+			}
+		} else {
+			entriesPopup.hide();
+		}
+	}
+
+	/**
+	 * Set the database, which is searched for autocomplete entries.
+	 * @param database The database
 	 */
-	public List<DatabaseEntry> getEntries() {
-		return entries;
+	public void setDatabase(Database database) {
+		this.database = database;
 	}
 
 	/**
@@ -0,0 +1,200 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers which product the operator chose for a barcode shared by several products
+ *
+ * The choices of a location are kept in a file (one line per choice: normalized barcode, barcode and id of the chosen
+ * product, and the number of times it was chosen in a row), so they survive between sessions. The last chosen product
+ * is preselected when the barcode is scanned again, and it is applied without asking after autoApplyStreak
+ * choices in a row (0 disables it).
+ *
+ * @since 2026-10-19
+ */
+class BarcodePreferences {
+	/**
+	 * The last choice for a barcode
+	 */
+	private static class Choice {
+		final String barcode;
+		final String id;
+		final int streak;
+
+		Choice(String barcode, String id, int streak) {
+			this.barcode = barcode;
+			this.id = id;
+			this.streak = streak;
+		}
+
+		boolean matches(DatabaseEntry dbEntry) {
+			return dbEntry.getBarcode().equals(barcode) && dbEntry.getId().equals(id);
+		}
+	}
+
+	private final File file;
+	private final int autoApplyStreak;
+	private final Map<String, Choice> choices = new HashMap<String, Choice>();
+	private Writer writer = null;
+
+	/**
+	 * @param fileName        Name of the file storing the choices (created if it does not exist)
+	 * @param autoApplyStreak Number of identical choices in a row, after which the choice is applied automatically
+	 */
+	public BarcodePreferences(String fileName, int autoApplyStreak) {
+		this.file = new File(fileName);
+		this.autoApplyStreak = autoApplyStreak;
+		final int lines = read();
+		if (lines > choices.size() * 2 + 1000) {
+			compact();
+		}
+	}
+
+	/**
+	 * Returns the product chosen last time for the barcode
+	 * @param normalizedBarcode The scanned barcode
+	 * @param candidates        The products of the barcode
+	 * @return The candidate chosen last time, or null
+	 */
+	public DatabaseEntry getPreferred(String normalizedBarcode, List<DatabaseEntry> candidates) {
+		final Choice choice = choices.get(normalizedBarcode);
+		if (choice == null) {
+			return null;
+		}
+		for (DatabaseEntry candidate : candidates) {
+			if (choice.matches(candidate)) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the product which can be applied without asking the operator
+	 * @param normalizedBarcode The scanned barcode
+	 * @param candidates        The products of the barcode
+	 * @return The candidate chosen autoApplyStreak times in a row, or null
+	 */
+	public DatabaseEntry getAutoChoice(String normalizedBarcode, List<DatabaseEntry> candidates) {
+		final Choice choice = choices.get(normalizedBarcode);
+		if (autoApplyStreak <= 0 || choice == null || choice.streak < autoApplyStreak) {
+			return null;
+		}
+		return getPreferred(normalizedBarcode, candidates);
+	}
+
+	/**
+	 * Records a choice of the operator
+	 * @param normalizedBarcode The scanned barcode
+	 * @param dbEntry           The chosen product, or null if none of them
+	 */
+	public void chosen(String normalizedBarcode, DatabaseEntry dbEntry) {
+		final Choice last = choices.get(normalizedBarcode);
+		final Choice choice;
+		if (dbEntry == null) {
+			choice = new Choice("", "", 0);
+		} else if (last != null && last.matches(dbEntry)) {
+			choice = new Choice(last.barcode, last.id, last.streak + 1);
+		} else {
+			choice = new Choice(dbEntry.getBarcode(), dbEntry.getId(), 1);
+		}
+		choices.put(normalizedBarcode, choice);
+		try {
+			if (writer == null) {
+				writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+			}
+			writeChoice(writer, normalizedBarcode, choice);
+			writer.flush();
+		} catch (IOException e) {
+			System.err.println("A választás mentése sikertelen: " + e.getMessage());
+		}
+	}
+
+	public void close() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {}
+			writer = null;
+		}
+	}
+
+	/**
+	 * Reads the choices file. Later lines override the earlier ones.
+	 * @return Number of lines read
+	 */
+	private int read() {
+		int lines = 0;
+		if (!file.exists()) {
+			return lines;
+		}
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					final String[] values = line.split("\t", -1);
+					lines++;
+					if (values.length != 4) {
+						continue;
+					}
+					try {
+						final Choice choice = new Choice(values[1], values[2], Integer.parseInt(values[3]));
+						if (choice.streak > 0) {
+							choices.put(values[0], choice);
+						} else {
+							choices.remove(values[0]);
+						}
+					} catch (NumberFormatException e) {}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			System.err.println("\"" + file + "\" olvasása sikertelen: " + e.getMessage());
+		}
+		return lines;
+	}
+
+	/**
+	 * Rewrites the choices file with the last choice of every barcode
+	 */
+	private void compact() {
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		try {
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+			try {
+				for (Map.Entry<String, Choice> entry : choices.entrySet()) {
+					writeChoice(out, entry.getKey(), entry.getValue());
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmpFile.renameTo(file)) {
+				file.delete();
+				if (!tmpFile.renameTo(file)) {
+					throw new IOException(file.getAbsolutePath());
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("\"" + file + "\" tömörítése sikertelen: " + e.getMessage());
+		}
+	}
+
+	private static void writeChoice(Writer out, String normalizedBarcode, Choice choice) throws IOException {
+		out.write(normalizedBarcode + "\t" + choice.barcode + "\t" + choice.id + "\t" + choice.streak + "\n");
+	}
+}
@@ -1,46 +1,462 @@
+// License: GPL. For details, see LICENSE file
+
 package hu.cartographia.inventory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Checks the products of a database file, and lists the suspicious ones
+ *
+ * Checks: check digit of the GTIN/ISBN barcodes, barcodes with non-digit characters, barcodes which become equal
+ * after normalization (eg. the "-01" suffixes of special packagings), duplicate product ids (cikkszám),
+ * and negative or missing stock counts.
+ *
+ * The products are processed in chunks by several threads. Findings are written to the output file by a separate
+ * thread as the chunks are finished, in the order of the database. Duplicate product ids are found by sorting
+ * packed (id hash, index) keys, so no map of all the ids is needed. A summary is printed and written next to
+ * the output file.
+ *
+ * Usage: BarcodeValidator <database file> <output file> [threads]
+ *
+ * @since 2016-11-14
+ */
 class BarcodeValidator {
-	private static String inputFileName, outputFileName;
-	private static final Database db = new Database();
-	private static BufferedWriter fileWriter = null;
+	/**
+	 * Kinds of findings
+	 */
+	enum Check {
+		INVALID_CHECK_DIGIT("ÉRVÉNYTELEN"),
+		SUSPICIOUS("GYANÚS"),
+		DUPLICATE_BARCODE("DUPLIKÁLT VONALKÓD"),
+		BARCODE_COLLISION("ÜTKÖZŐ VONALKÓD"),
+		DUPLICATE_ID("DUPLIKÁLT CIKKSZÁM"),
+		NEGATIVE_STOCK("NEGATÍV KÉSZLET"),
+		MISSING_STOCK("HIÁNYZÓ KÉSZLET");
+
+		final String label;
+
+		Check(String label) {
+			this.label = label;
+		}
+	}
+
+	private static final int CHUNK_SIZE = 65536;
+	/** Maximal number of related barcodes listed in the details of a finding */
+	private static final int MAX_LISTED = 10;
+	/** Key of the products without id */
+	private static final long NO_ID = -1L;
+
+	private final Database db;
+	private final List<DatabaseEntry> items;
+	private final int threadCount;
+	private final LongAdder[] counts = new LongAdder[Check.values().length];
+	/** Hash of the product id in the high bits, index of the product in the low bits (see indexBits) */
+	private final long[] idKeys;
+	private final int indexBits;
 
 	public static void main(String[] args) {
-		if (args.length >= 2) {
-			inputFileName = args[0];
-			outputFileName = args[1];
-		} else {
+		if (args.length < 2) {
 			System.err.println("Bemeneti és kimeneti fájlnév paraméter megadása kötelező");
 			System.exit(1);
 		}
-		
+		final String inputFileName = args[0];
+		final String outputFileName = args[1];
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (args.length >= 3) {
+			try {
+				threads = Integer.parseInt(args[2]);
+			} catch (NumberFormatException e) {
+				System.err.println("Érvénytelen szálszám: " + args[2]);
+				System.exit(1);
+			}
+		}
+
+		final Database db = new Database();
 		try {
 			db.readFromFile(inputFileName);
-			fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFileName), "UTF-8"));
 		} catch (Exception e) {
 			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+
+		final long start = System.nanoTime();
+		final BarcodeValidator validator = new BarcodeValidator(db, threads);
+		try {
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFileName), "UTF-8"), 1 << 16);
+			try {
+				validator.validate(out);
+			} finally {
+				out.close();
+			}
+		} catch (Exception e) {
+			System.err.println("Hiba történt az ellenőrzés közben: " + e.getMessage());
+			System.exit(1);
+		}
+		final String summary = validator.getSummary(System.nanoTime() - start);
+		System.out.print(summary);
+
+		final String summaryFileName = outputFileName.replaceFirst("(\\.[^.\\\\/]*)?$", "_összesítés.txt");
+		try {
+			Writer out = new OutputStreamWriter(new FileOutputStream(summaryFileName), "UTF-8");
+			try {
+				out.write(summary.replace("\n", "\r\n"));
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Az összesítés mentése sikertelen: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @param db          The database to check
+	 * @param threadCount Number of worker threads
+	 */
+	public BarcodeValidator(Database db, int threadCount) {
+		this.db = db;
+		this.items = db.getList();
+		this.threadCount = Math.max(1, threadCount);
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = new LongAdder();
 		}
-		/*
+		idKeys = new long[items.size()];
+		indexBits = Math.max(1, 64 - Long.numberOfLeadingZeros(items.size()));
+	}
+
+	/**
+	 * Checks every product and writes the findings
+	 * @param out Receives the findings (tab separated, with a header line)
+	 * @throws Exception If a check or writing fails
+	 */
+	public void validate(Writer out) throws Exception {
+		final int chunkCount = (items.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		final BlockingQueue<Chunk> results = new ArrayBlockingQueue<Chunk>(threadCount * 4);
+		final ChunkWriter writer = new ChunkWriter(out, results);
+		out.write("Vonalkód\tNormalizált\tHiba\tRészletek\tNév\tKiadó\tDB\tCikkszám\r\n");
+		writer.start();
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
 		try {
-			fileWriter.write("Vonalkód\tNormalizált\tGyanús?\tOK?\tNév\tKiadó\tDB\tId\r\n");
-			for (Map.Entry<String,DatabaseEntry> entry : db) {
-				DatabaseEntry item = entry.getValue();
-			
-				fileWriter.write(String.format("\"%1$s\"\t\"%2$s\"\t\"%3$s\"\t\"%4$s\"\t\"%5$s\"\t\"%6$s\"\t%7$s\t\"%8$s\"\r\n",
-					item.getBarcode(),
-					item.getBarcode().replaceAll("[^\\d]", ""),
-					!item.getBarcode().matches("[\\d]+") ? "GYANÚS" : "",
-					InventoryApp.isValidGTIN(item.getBarcode()) ? "OK" : "ÉRVÉNYTELEN",
-					item.getName(),
-					item.getPublisher(),
-					item.getStockCount(),
-					item.getId()
-				));
-				fileWriter.flush();
-			}
-		} catch (IOException e) {}*/
+			final AtomicInteger nextChunk = new AtomicInteger();
+			final List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+			for (int i = 0; i < threadCount; i++) {
+				workers.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						int chunk;
+						while ((chunk = nextChunk.getAndIncrement()) < chunkCount) {
+							final int from = chunk * CHUNK_SIZE;
+							results.put(new Chunk(chunk, checkRange(from, Math.min(from + CHUNK_SIZE, items.size()))));
+						}
+						return null;
+					}
+				});
+			}
+			for (Future<Void> result : executor.invokeAll(workers)) {
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		results.put(new Chunk(chunkCount, findDuplicateIds()));
+		results.put(new Chunk(-1, null));
+		writer.join();
+		if (writer.error != null) {
+			throw writer.error;
+		}
+	}
+
+	/**
+	 * Returns the number of findings of a kind
+	 */
+	public long getCount(Check check) {
+		return counts[check.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the summary of the findings
+	 * @param elapsedNanos Duration of the check, for the summary
+	 */
+	public String getSummary(long elapsedNanos) {
+		final StringBuilder summary = new StringBuilder();
+		summary.append("Ellenőrzött termékek: ").append(items.size()).append('\n');
+		for (Check check : Check.values()) {
+			summary.append(check.label).append(": ").append(getCount(check)).append('\n');
+		}
+		summary.append(String.format("Időtartam: %.2f mp (%d szál)%n", elapsedNanos / 1e9, threadCount));
+		return summary.toString();
+	}
+
+	/**
+	 * Checks a range of products. Also fills the id keys of the range.
+	 * @return The findings of the range, as lines of the output file
+	 */
+	private StringBuilder checkRange(int from, int to) {
+		final StringBuilder findings = new StringBuilder();
+		for (int i = from; i < to; i++) {
+			final DatabaseEntry item = items.get(i);
+			final String barcode = item.getBarcode();
+
+			if (!hasValidCheckDigit(barcode)) {
+				addFinding(findings, Check.INVALID_CHECK_DIGIT, item, "");
+			}
+			if (!isDigits(barcode)) {
+				addFinding(findings, Check.SUSPICIOUS, item, "");
+			}
+			if (db.isAmbiguous(item.getNormalizedBarcode())) {
+				checkCollision(findings, item);
+			}
+			final Integer stockCount = item.getStockCount();
+			if (stockCount == null) {
+				addFinding(findings, Check.MISSING_STOCK, item, "");
+			} else if (stockCount < 0) {
+				addFinding(findings, Check.NEGATIVE_STOCK, item, "");
+			}
+
+			final String id = item.getId();
+			idKeys[i] = id.isEmpty() ? NO_ID : (hash(id) >>> indexBits << indexBits) | i;
+		}
+		return findings;
+	}
+
+	/**
+	 * Reports a product, whose normalized barcode is shared by other products
+	 */
+	private void checkCollision(StringBuilder findings, DatabaseEntry item) {
+		final List<DatabaseEntry> group = db.getByBarcode(item.getNormalizedBarcode());
+		if (group == null) {
+			return;
+		}
+		boolean sameBarcode = false;
+		final List<String> others = new ArrayList<String>();
+		for (DatabaseEntry other : group) {
+			if (other.equals(item)) {
+				continue;
+			}
+			if (other.getBarcode().equals(item.getBarcode())) {
+				sameBarcode = true;
+			}
+			others.add(other.getBarcode());
+		}
+		if (!others.isEmpty()) {
+			addFinding(findings, sameBarcode ? Check.DUPLICATE_BARCODE : Check.BARCODE_COLLISION, item, list(others));
+		}
+	}
+
+	/**
+	 * Finds the products with the same id: sorts the id keys, and compares the ids of the products
+	 * with equal hashes.
+	 * @return The findings, as lines of the output file
+	 */
+	private StringBuilder findDuplicateIds() {
+		final StringBuilder findings = new StringBuilder();
+		final long[] keys = idKeys.clone();
+		Arrays.parallelSort(keys);
+		final long indexMask = (1L << indexBits) - 1;
+
+		int runStart = 0;
+		for (int i = 1; i <= keys.length; i++) {
+			if (i < keys.length && keys[i] >>> indexBits == keys[runStart] >>> indexBits) {
+				continue;
+			}
+			if (i - runStart > 1) {
+				/* Equal hashes, the ids have to be compared */
+				final Map<String, List<Integer>> byId = new LinkedHashMap<String, List<Integer>>();
+				for (int j = runStart; j < i; j++) {
+					if (keys[j] == NO_ID) {
+						continue;
+					}
+					final int index = (int) (keys[j] & indexMask);
+					List<Integer> indexes = byId.get(items.get(index).getId());
+					if (indexes == null) {
+						indexes = new ArrayList<Integer>();
+						byId.put(items.get(index).getId(), indexes);
+					}
+					indexes.add(index);
+				}
+				for (List<Integer> indexes : byId.values()) {
+					if (indexes.size() < 2) {
+						continue;
+					}
+					Collections.sort(indexes);
+					for (int index : indexes) {
+						final List<String> others = new ArrayList<String>();
+						for (int other : indexes) {
+							if (other != index) {
+								others.add(items.get(other).getBarcode());
+							}
+						}
+						addFinding(findings, Check.DUPLICATE_ID, items.get(index), list(others));
+					}
+				}
+			}
+			runStart = i;
+		}
+		return findings;
+	}
+
+	private void addFinding(StringBuilder findings, Check check, DatabaseEntry item, String details) {
+		counts[check.ordinal()].increment();
+		findings.append('"').append(item.getBarcode()).append("\"\t\"")
+			.append(item.getNormalizedBarcode()).append("\"\t")
+			.append(check.label).append("\t\"")
+			.append(details).append("\"\t\"")
+			.append(item.getName().replace("\"", "\"\"")).append("\"\t\"")
+			.append(item.getPublisher()).append("\"\t")
+			.append(item.getStockCount() != null ? item.getStockCount().toString() : "").append("\t\"")
+			.append(item.getId()).append("\"\r\n");
+	}
+
+	/**
+	 * Lists the related barcodes in the details of a finding
+	 */
+	private static String list(List<String> barcodes) {
+		final StringBuilder details = new StringBuilder();
+		details.append(barcodes.size() + 1).append(" termék, további: ");
+		for (int i = 0; i < barcodes.size() && i < MAX_LISTED; i++) {
+			details.append(i > 0 ? ", " : "").append(barcodes.get(i));
+		}
+		if (barcodes.size() > MAX_LISTED) {
+			details.append(", ...");
+		}
+		return details.toString();
+	}
+
+	/**
+	 * Checks the check digit of a GTIN (EAN-8, EAN-13, GTIN-14...) or ISBN-10 barcode, like InventoryApp.isValidGTIN(),
+	 * but without creating temporary strings and arrays. Non-digit characters are skipped.
+	 * @param barcode The barcode
+	 * @return True if it has 8-14 digits and the last digit is a valid check digit
+	 */
+	static boolean hasValidCheckDigit(String barcode) {
+		int length = 0;
+		for (int i = 0; i < barcode.length(); i++) {
+			final char c = barcode.charAt(i);
+			if (c >= '0' && c <= '9') {
+				length++;
+			}
+		}
+		if (length < 8 || length > 14) {
+			return false;
+		}
+
+		int sum = 0;
+		int position = 0;	// Position of the digit among the digits
+		int checkDigit = -1;
+		for (int i = 0; i < barcode.length(); i++) {
+			final char c = barcode.charAt(i);
+			if (c < '0' || c > '9') {
+				continue;
+			}
+			final int digit = c - '0';
+			if (position == length - 1) {
+				checkDigit = digit;
+			} else if (length == 10) {
+				sum += digit * (10 - position);	// ISBN-10: weights 10..2
+			} else {
+				sum += ((length - 1 - position) % 2 == 1) ? digit * 3 : digit;	// GTIN: 3 next to the check digit
+			}
+			position++;
+		}
+		if (length == 10) {
+			return (11 - sum % 11) % 11 == checkDigit;
+		}
+		return (10 - sum % 10) % 10 == checkDigit;
+	}
+
+	private static boolean isDigits(String barcode) {
+		if (barcode.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < barcode.length(); i++) {
+			final char c = barcode.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of a string
+	 */
+	private static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Findings of a chunk of products
+	 */
+	private static class Chunk {
+		final int index;
+		final StringBuilder findings;
+
+		Chunk(int index, StringBuilder findings) {
+			this.index = index;
+			this.findings = findings;
+		}
+	}
+
+	/**
+	 * Writes the findings of the chunks in chunk order, as they arrive. A chunk with -1 index ends the writing.
+	 */
+	private static class ChunkWriter extends Thread {
+		private final Writer out;
+		private final BlockingQueue<Chunk> results;
+		private final Map<Integer, Chunk> waiting = new HashMap<Integer, Chunk>();
+		volatile Exception error = null;
+
+		ChunkWriter(Writer out, BlockingQueue<Chunk> results) {
+			super("Validation writer");
+			setDaemon(true);
+			this.out = out;
+			this.results = results;
+		}
+
+		@Override
+		public void run() {
+			int next = 0;
+			try {
+				Chunk chunk;
+				while ((chunk = results.take()).index >= 0) {
+					waiting.put(chunk.index, chunk);
+					while ((chunk = waiting.remove(next)) != null) {
+						out.append(chunk.findings);
+						next++;
+					}
+				}
+				out.flush();
+			} catch (IOException e) {
+				error = e;
+				drain();
+			} catch (InterruptedException e) {
+				error = e;
+			}
+		}
+
+		/**
+		 * Takes the remaining chunks after an error, so the workers are not blocked
+		 */
+		private void drain() {
+			try {
+				while (results.take().index >= 0) {
+				}
+			} catch (InterruptedException e) {}
+		}
 	}
 }
@@ -0,0 +1,632 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary log format, written next to the CSV log (log.compact=true setting)
+ *
+ * The file starts with a header: magic, format version, location and operator name (the session constants).
+ * It is followed by blocks of up to BLOCK_ROWS rows. A block is stored column by column and deflate compressed:
+ *    new dictionary products (product id, name, publisher, barcode, normalized barcode)
+ *    timestamp column   seconds, delta encoded to the previous row
+ *    product column     dictionary index + 1, 0 if the product is not in the database
+ *    barcode column     0 = the barcode of the product, 1..18 = number of digits followed by the barcode as a long,
+ *                       BARCODE_STRING = the barcode as a string
+ *    count column
+ *    publication date and comment columns (0 = empty, 1 = string follows)
+ *    catalogue generation column, delta encoded to the previous row (since version 2)
+ * Every block has a header with its row count, lengths and the CRC32 checksum of the uncompressed data.
+ * A closed file ends with a trailer (row count -1, the number of rows of the whole file, and since version 3 the size
+ * of the CSV log lines of the rows in bytes, so a reader can tell without reading the CSV log whether the compact
+ * logs cover it, see readCsvBytes()).
+ *
+ * One file belongs to one logger session, named as the CSV log with a ".<session start>.lbin" postfix.
+ *
+ * Usage (export to the CSV log format): CompactLog <input.lbin> [output.csv]
+ *
+ * @since 2026-10-19
+ */
+class CompactLog {
+	static final int MAGIC = 0x4C4C4F47;	// "LLOG"
+	static final int VERSION = 3;
+	/** Size of the trailer of a version 3 file */
+	static final int TRAILER_SIZE = 20;
+	static final int BLOCK_ROWS = 4096;
+	static final int BARCODE_STRING = 31;
+	static final String EXTENSION = ".lbin";
+
+	/**
+	 * A product of the dictionary
+	 */
+	static class Product {
+		final String id;
+		final String name;
+		final String publisher;
+		final String barcode;
+		final String normalizedBarcode;
+
+		Product(String id, String name, String publisher, String barcode, String normalizedBarcode) {
+			this.id = id;
+			this.name = name;
+			this.publisher = publisher;
+			this.barcode = barcode;
+			this.normalizedBarcode = normalizedBarcode;
+		}
+	}
+
+	/**
+	 * Lists the compact log files which belong to a CSV log file
+	 * @param csvFile The CSV log file
+	 * @return The compact files in session order (may be empty)
+	 */
+	public static File[] listFor(File csvFile) {
+		final String base = csvFile.getName().substring(0, csvFile.getName().length() - ".csv".length()) + ".";
+		File[] files = csvFile.getAbsoluteFile().getParentFile().listFiles(
+				(dir, name) -> name.startsWith(base) && name.endsWith(EXTENSION));
+		if (files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * Converts a compact log file to the CSV log format
+	 * @param file The compact log file
+	 * @param out  The output
+	 * @return Number of rows written
+	 * @throws IOException If reading or writing fails, or the file is corrupt
+	 */
+	public static long exportCsv(File file, final Writer out) throws IOException {
+		final CompactLogReader reader = new CompactLogReader(file);
+		try {
+			return reader.read(new CompactLogReader.RowVisitor() {
+				@Override
+				public void row(long timestamp, String barcode, int product, int count, String comment, String publicationDate,
+						int catalogueGeneration) throws IOException {
+					final Product p = product >= 0 ? reader.getProduct(product) : null;
+					out.write(Logger.formatLine(new Date(timestamp), barcode, count, comment, publicationDate,
+							reader.getLocation(), reader.getOperatorName(),
+							p != null ? p.id : "", p != null ? p.name : "", p != null ? p.publisher : "",
+							p != null ? p.normalizedBarcode : "", catalogueGeneration));
+					out.write("\r\n");
+				}
+			});
+		} finally {
+			reader.close();
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Használat: CompactLog <bemeneti .lbin fájl> [kimeneti .csv fájl]");
+			System.exit(1);
+		}
+		try {
+			final Writer out = new BufferedWriter(args.length >= 2
+					? new OutputStreamWriter(new FileOutputStream(args[1]), "UTF-8")
+					: new OutputStreamWriter(System.out, "UTF-8"));
+			try {
+				exportCsv(new File(args[0]), out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Exportálás sikertelen: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Hibás szám a tömörített naplóban");
+	}
+
+	static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Encodes a barcode as a long if it has only digits (at most 18), otherwise returns -1
+	 */
+	static long barcodeToLong(String barcode) {
+		final int length = barcode.length();
+		if (length == 0 || length > 18) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = barcode.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Decodes a barcode encoded by barcodeToLong, restoring the leading zeros
+	 */
+	static String longToBarcode(long value, int length) {
+		final char[] chars = new char[length];
+		for (int i = length - 1; i >= 0; i--) {
+			chars[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return new String(chars);
+	}
+}
+
+/**
+ * Writes committed log entries into a compact log file. Registered as a commit listener of the Logger.
+ * @since 2026-10-19
+ */
+class CompactLogWriter implements Logger.CommitListener {
+	private final DataOutputStream out;
+	private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+	private final List<CompactLog.Product> newProducts = new ArrayList<CompactLog.Product>();
+
+	private final long[] timestamps = new long[CompactLog.BLOCK_ROWS];
+	private final int[] products = new int[CompactLog.BLOCK_ROWS];
+	private final String[] barcodes = new String[CompactLog.BLOCK_ROWS];
+	private final int[] counts = new int[CompactLog.BLOCK_ROWS];
+	private final String[] publicationDates = new String[CompactLog.BLOCK_ROWS];
+	private final String[] comments = new String[CompactLog.BLOCK_ROWS];
+	private final int[] generations = new int[CompactLog.BLOCK_ROWS];
+	private int rows = 0;
+	private long totalRows = 0;
+	private long lastTimestamp = 0;
+	private int lastGeneration = 0;
+	/** Size of the CSV log lines of the rows (with line terminators) */
+	private long csvBytes = 0;
+	private boolean closed = false;
+
+	/**
+	 * Creates a new compact log file next to the CSV log of the logger
+	 * @param logger The logger
+	 * @throws Exception If the file can not be created
+	 */
+	public CompactLogWriter(Logger logger) throws Exception {
+		this(new File(logger.getFileName().substring(0, logger.getFileName().length() - ".csv".length())
+				+ "." + new SimpleDateFormat("HHmmssSSS").format(new Date()) + CompactLog.EXTENSION),
+				logger.getLocation(), logger.getOperatorName());
+	}
+
+	public CompactLogWriter(File file, String location, String operatorName) throws Exception {
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			out.writeInt(CompactLog.MAGIC);
+			out.writeByte(CompactLog.VERSION);
+			out.writeUTF(location);
+			out.writeUTF(operatorName);
+			out.flush();
+		} catch (IOException e) {
+			throw new Exception("A tömörített naplófájlt nem sikerült létrehozni:\n" + file + "\n" + e.getMessage());
+		}
+	}
+
+	@Override
+	public void committed(LogEntry entry, String line) throws Exception {
+		add(entry.getTimestamp().getTime(), entry.getBarcode(), entry.getCount(), entry.getComment(), entry.getPublicationDate(),
+				entry.isInDb() ? new CompactLog.Product(entry.getProductId(), entry.getName(), entry.getPublisher(),
+						entry.getBarcode(), entry.getNormalizedBarcode()) : null, entry.getCatalogueGeneration());
+		/* Counted only when the row is added, so a failed row leaves the CSV uncovered (the report parses it) */
+		csvBytes += line.getBytes(StandardCharsets.UTF_8).length + 2;	// Logger terminates the lines with \r\n
+	}
+
+	/**
+	 * Adds a row to the current block. The block is written when it is full.
+	 * @param product             The product or null, if it is not in the database
+	 * @param catalogueGeneration The catalogue generation the product was matched against
+	 * @throws Exception If writing fails
+	 */
+	public void add(long timestamp, String barcode, int count, String comment, String publicationDate, CompactLog.Product product,
+			int catalogueGeneration) throws Exception {
+		int productIndex = -1;
+		if (product != null) {
+			final String key = product.barcode + "#" + product.id;
+			Integer index = dictionary.get(key);
+			if (index == null) {
+				index = dictionary.size();
+				dictionary.put(key, index);
+				newProducts.add(product);
+			}
+			productIndex = index;
+		}
+		timestamps[rows] = timestamp / 1000;
+		products[rows] = productIndex;
+		barcodes[rows] = product != null && product.barcode.equals(barcode) ? null : barcode;
+		counts[rows] = count;
+		publicationDates[rows] = publicationDate;
+		comments[rows] = comment;
+		generations[rows] = catalogueGeneration;
+		rows++;
+		if (rows == CompactLog.BLOCK_ROWS) {
+			writeBlock();
+		}
+	}
+
+	private void writeBlock() throws Exception {
+		if (rows == 0) {
+			return;
+		}
+		try {
+			final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			final DataOutputStream block = new DataOutputStream(buffer);
+
+			CompactLog.writeVarLong(block, newProducts.size());
+			for (CompactLog.Product product : newProducts) {
+				block.writeUTF(product.id);
+				block.writeUTF(product.name);
+				block.writeUTF(product.publisher);
+				block.writeUTF(product.barcode);
+				block.writeUTF(product.normalizedBarcode);
+			}
+			for (int i = 0; i < rows; i++) {
+				CompactLog.writeVarLong(block, CompactLog.zigZag(timestamps[i] - lastTimestamp));
+				lastTimestamp = timestamps[i];
+			}
+			for (int i = 0; i < rows; i++) {
+				CompactLog.writeVarLong(block, products[i] + 1);
+			}
+			for (int i = 0; i < rows; i++) {
+				if (barcodes[i] == null) {
+					block.writeByte(0);
+				} else {
+					final long value = CompactLog.barcodeToLong(barcodes[i]);
+					if (value >= 0) {
+						block.writeByte(barcodes[i].length());
+						CompactLog.writeVarLong(block, value);
+					} else {
+						block.writeByte(CompactLog.BARCODE_STRING);
+						block.writeUTF(barcodes[i]);
+					}
+				}
+			}
+			for (int i = 0; i < rows; i++) {
+				CompactLog.writeVarLong(block, CompactLog.zigZag(counts[i]));
+			}
+			for (int i = 0; i < rows; i++) {
+				writeOptionalString(block, publicationDates[i]);
+			}
+			for (int i = 0; i < rows; i++) {
+				writeOptionalString(block, comments[i]);
+			}
+			for (int i = 0; i < rows; i++) {
+				CompactLog.writeVarLong(block, CompactLog.zigZag(generations[i] - lastGeneration));
+				lastGeneration = generations[i];
+			}
+			block.flush();
+
+			final byte[] data = buffer.toByteArray();
+			final CRC32 crc = new CRC32();
+			crc.update(data, 0, data.length);
+			final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			deflater.setInput(data);
+			deflater.finish();
+			final ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+			final byte[] chunk = new byte[8192];
+			while (!deflater.finished()) {
+				compressed.write(chunk, 0, deflater.deflate(chunk));
+			}
+			deflater.end();
+
+			out.writeInt(rows);
+			out.writeInt(data.length);
+			out.writeInt(compressed.size());
+			out.writeLong(crc.getValue());
+			compressed.writeTo(out);
+			out.flush();
+
+			totalRows += rows;
+			rows = 0;
+			newProducts.clear();
+		} catch (IOException e) {
+			throw new Exception("Tömörített naplófájl írása sikertelen: " + e.getMessage());
+		}
+	}
+
+	private static void writeOptionalString(DataOutputStream block, String value) throws IOException {
+		if (value == null || value.isEmpty()) {
+			block.writeByte(0);
+		} else {
+			block.writeByte(1);
+			block.writeUTF(value);
+		}
+	}
+
+	/**
+	 * Writes the last block and the trailer, and closes the file
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			writeBlock();
+			out.writeInt(-1);
+			out.writeLong(totalRows);
+			out.writeLong(csvBytes);
+			out.close();
+		} catch (Exception e) {
+			System.err.println("Tömörített naplófájl bezárása sikertelen: " + e.getMessage());
+		}
+	}
+}
+
+/**
+ * Reads a compact log file block by block
+ * @since 2026-10-19
+ */
+class CompactLogReader {
+	/**
+	 * Receives the rows of the file
+	 */
+	public interface RowVisitor {
+		/**
+		 * @param timestamp       Time of the scan in milliseconds
+		 * @param barcode         The scanned barcode
+		 * @param product         Dictionary index of the product (see getProduct), -1 if it is not in the database
+		 * @param count           The counted pieces
+		 * @param comment         The comment, empty if none
+		 * @param publicationDate The publication date or null
+		 * @param catalogueGeneration The catalogue generation the product was matched against (0 in version 1 files)
+		 */
+		void row(long timestamp, String barcode, int product, int count, String comment, String publicationDate,
+				int catalogueGeneration) throws IOException;
+	}
+
+	private final File file;
+	private final DataInputStream in;
+	private final String location;
+	private final String operatorName;
+	private final int version;
+	private int lastGeneration = 0;
+	private final List<CompactLog.Product> dictionary = new ArrayList<CompactLog.Product>();
+	private boolean closed = false;
+
+	public CompactLogReader(File file) throws IOException {
+		this.file = file;
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+		try {
+			if (in.readInt() != CompactLog.MAGIC) {
+				throw new IOException("Ismeretlen fájlformátum: " + file);
+			}
+			version = in.readUnsignedByte();
+			if (version < 1 || version > CompactLog.VERSION) {
+				throw new IOException("Ismeretlen fájlformátum: " + file);
+			}
+			location = StringPool.SHARED.intern(in.readUTF());
+			operatorName = StringPool.SHARED.intern(in.readUTF());
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	public String getOperatorName() {
+		return operatorName;
+	}
+
+	/**
+	 * Reads the size of the CSV log lines from the trailer of a closed file, without reading the blocks
+	 * @return The size in bytes, or -1 if the file is not closed or it is older than version 3
+	 */
+	static long readCsvBytes(File file) {
+		try {
+			final RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				if (in.length() < 5 + CompactLog.TRAILER_SIZE) {
+					return -1;
+				}
+				in.seek(4);
+				if (in.readUnsignedByte() < 3) {
+					return -1;
+				}
+				in.seek(in.length() - CompactLog.TRAILER_SIZE);
+				if (in.readInt() != -1) {
+					return -1;
+				}
+				in.readLong();
+				return in.readLong();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns true if the whole file has been read and it has been closed properly by the writer
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Returns a product of the dictionary. Products are available after reading the row which refers to it.
+	 */
+	public CompactLog.Product getProduct(int index) {
+		return dictionary.get(index);
+	}
+
+	/**
+	 * Number of products in the dictionary read so far
+	 */
+	public int getProductCount() {
+		return dictionary.size();
+	}
+
+	/**
+	 * Reads every row of the file
+	 * @param visitor Receives the rows
+	 * @return Number of rows read
+	 * @throws IOException If reading fails or a block is corrupt. An unfinished last block is ignored.
+	 */
+	public long read(RowVisitor visitor) throws IOException {
+		long totalRows = 0;
+		long lastTimestamp = 0;
+		byte[] compressed = new byte[0];
+		byte[] data = new byte[0];
+		final Inflater inflater = new Inflater();
+		try {
+			while (true) {
+				final int rows;
+				try {
+					rows = in.readInt();
+				} catch (EOFException e) {
+					return totalRows;	// Not closed properly
+				}
+				if (rows < 0) {
+					closed = in.readLong() == totalRows;
+					if (version >= 3) {
+						in.readLong();	// Size of the CSV lines, see readCsvBytes()
+					}
+					return totalRows;
+				}
+				final int length;
+				final int compressedLength;
+				final long checksum;
+				try {
+					length = in.readInt();
+					compressedLength = in.readInt();
+					checksum = in.readLong();
+					if (compressed.length < compressedLength) {
+						compressed = new byte[compressedLength];
+					}
+					in.readFully(compressed, 0, compressedLength);
+				} catch (EOFException e) {
+					return totalRows;	// Last block is not written completely
+				}
+				if (data.length < length) {
+					data = new byte[length];
+				}
+				inflater.reset();
+				inflater.setInput(compressed, 0, compressedLength);
+				try {
+					if (inflater.inflate(data, 0, length) != length) {
+						throw new IOException("Sérült blokk: " + file);
+					}
+				} catch (DataFormatException e) {
+					throw new IOException("Sérült blokk: " + file);
+				}
+				final CRC32 crc = new CRC32();
+				crc.update(data, 0, length);
+				if (crc.getValue() != checksum) {
+					throw new IOException("Hibás ellenőrzőösszeg: " + file);
+				}
+				lastTimestamp = readBlock(new DataInputStream(new ByteArrayInputStream(data, 0, length)), rows, lastTimestamp, visitor);
+				totalRows += rows;
+			}
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private long readBlock(DataInputStream block, int rows, long lastTimestamp, RowVisitor visitor) throws IOException {
+		final int newProducts = (int) CompactLog.readVarLong(block);
+		for (int i = 0; i < newProducts; i++) {
+			final String id = block.readUTF();
+			final String name = block.readUTF();
+			final String publisher = StringPool.SHARED.intern(block.readUTF());
+			dictionary.add(new CompactLog.Product(id, name, publisher, block.readUTF(), block.readUTF()));
+		}
+		final long[] timestamps = new long[rows];
+		for (int i = 0; i < rows; i++) {
+			lastTimestamp += CompactLog.unZigZag(CompactLog.readVarLong(block));
+			timestamps[i] = lastTimestamp * 1000;
+		}
+		final int[] products = new int[rows];
+		for (int i = 0; i < rows; i++) {
+			products[i] = (int) CompactLog.readVarLong(block) - 1;
+		}
+		final String[] barcodes = new String[rows];
+		for (int i = 0; i < rows; i++) {
+			final int code = block.readUnsignedByte();
+			if (code == 0) {
+				barcodes[i] = products[i] >= 0 ? dictionary.get(products[i]).barcode : "";
+			} else if (code == CompactLog.BARCODE_STRING) {
+				barcodes[i] = block.readUTF();
+			} else {
+				barcodes[i] = CompactLog.longToBarcode(CompactLog.readVarLong(block), code);
+			}
+		}
+		final int[] counts = new int[rows];
+		for (int i = 0; i < rows; i++) {
+			counts[i] = (int) CompactLog.unZigZag(CompactLog.readVarLong(block));
+		}
+		final String[] publicationDates = new String[rows];
+		for (int i = 0; i < rows; i++) {
+			publicationDates[i] = block.readUnsignedByte() != 0 ? StringPool.SHARED.intern(block.readUTF()) : null;
+		}
+		final String[] comments = new String[rows];
+		for (int i = 0; i < rows; i++) {
+			comments[i] = block.readUnsignedByte() != 0 ? block.readUTF() : "";
+		}
+		for (int i = 0; i < rows; i++) {
+			if (version >= 2) {
+				lastGeneration += (int) CompactLog.unZigZag(CompactLog.readVarLong(block));
+			}
+			visitor.row(timestamps[i], barcodes[i], products[i], counts[i], comments[i], publicationDates[i], lastGeneration);
+		}
+		return lastTimestamp;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
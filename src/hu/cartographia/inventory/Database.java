@@ -6,14 +6,20 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.Set;
 
 /**
  * A DatabaseEntry stores known properites of a product
@@ -30,16 +36,57 @@ class DatabaseEntry {
     
     public DatabaseEntry(String name, String publisher, Integer stockCount, String id, String barcode) {
         this.name = name;
-        this.publisher = publisher;
+        this.publisher = StringPool.SHARED.intern(publisher);	// A few hundred publishers for the whole database
         this.stockCount = stockCount;
         this.id = id;
         this.originalBarcode = barcode;
-        if (barcode.matches(".*-[0-9]{2}$") || barcode.matches(".*-[0-9]{5}$")) {
-        	this.normalizedBarcode = barcode.replaceAll("-[0-9]+", "").replaceAll("[^0-9]", "");
-        } else {
-	        this.normalizedBarcode = barcode.replaceAll("[^0-9]", "");
-        }
+        this.normalizedBarcode = normalizeBarcode(barcode);
     };
+
+    /**
+     * Removes the non-digit characters of a barcode. If it ends with a "-NN" or "-NNNNN" suffix
+     * (special packagings), every "-digits" group is removed too.
+     * Same as the regular expressions ".*-[0-9]{2}$", ".*-[0-9]{5}$", "-[0-9]+" and "[^0-9]",
+     * without creating temporary objects (called for every row of the database file).
+     */
+    static String normalizeBarcode(String barcode) {
+        final int length = barcode.length();
+        final boolean suffix = hasSuffix(barcode, 2) || hasSuffix(barcode, 5);
+        final StringBuilder normalized = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            final char c = barcode.charAt(i);
+            if (suffix && c == '-' && i + 1 < length && isDigit(barcode.charAt(i + 1))) {
+                while (i + 1 < length && isDigit(barcode.charAt(i + 1))) {
+                    i++;
+                }
+            } else if (isDigit(c)) {
+                normalized.append(c);
+            }
+        }
+        return normalized.length() == length ? barcode : normalized.toString();
+    }
+
+    /** Returns true if the barcode ends with a dash and the given number of digits */
+    private static boolean hasSuffix(String barcode, int digits) {
+        final int dash = barcode.length() - digits - 1;
+        if (dash < 0 || barcode.charAt(dash) != '-') {
+            return false;
+        }
+        for (int i = dash + 1; i < barcode.length(); i++) {
+            if (!isDigit(barcode.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** Constructor of views, which override every getter (see MappedDatabaseEntry) */
+    protected DatabaseEntry() {
+    }
     
     public String getName() {
     	return this.name;
@@ -69,14 +116,133 @@ class DatabaseEntry {
 /**
  * Product database. Stores products in a hash map where the primary key is the barcode (as string)
  * Can load products from CSV file
+ *
+ * With the "database.mapped" setting the products are not loaded into the heap, but served from a
+ * memory-mapped product store file (see ProductStore), built from the CSV file when it changes.
+ * Items added by addItem are stored in the hash map in both cases.
+ *
+ * Changed rows exported by the ERP can be applied in place by applyDelta, without reloading the whole file.
+ * Every applied delta increments the catalogue generation, which is written to the log with the scans.
+ *
+ * Secondary indexes: product id (hash), publisher (grouped), and original barcode. The original barcode needs
+ * no index of its own, its normalized form is the primary key (see getByOriginalBarcode()).
  * @since 2016-11-14
  */
-class Database implements Iterable<Map.Entry<String, List<DatabaseEntry>>> {
-	private final Map<String, List<DatabaseEntry>> entries = new HashMap<String, List<DatabaseEntry>>();
+class Database implements Iterable<DatabaseEntry> {
+	/**
+	 * Receives the rows of a database CSV file
+	 */
+	interface RowHandler {
+		void row(String barcode, String name, String publisher, String stockCount, String id) throws IOException;
+	}
+
+	/**
+	 * Receives the progress of reading the database file
+	 */
+	interface ProgressListener {
+		/**
+		 * @param done  Number of bytes read
+		 * @param total Size of the file
+		 */
+		void progress(long done, long total);
+	}
+
+	/**
+	 * Receives the products changed by applyDelta()
+	 */
+	interface ChangeListener {
+		/**
+		 * @param removed The replaced or deleted product, or null
+		 * @param added   The new product, or null
+		 */
+		void changed(DatabaseEntry removed, DatabaseEntry added);
+	}
+
+	/**
+	 * Receives the fields of the lines of a CSV file
+	 */
+	private interface LineHandler {
+		void line(List<String> fields) throws IOException;
+	}
+
+	/**
+	 * Changes of the catalogue read from a delta file, see readDelta()
+	 */
+	static class Delta {
+		final String name;
+		/** Rows of the file in order: products to add or replace, or (barcode, id) pairs to delete */
+		final List<DatabaseEntry> rows = new ArrayList<DatabaseEntry>();
+		/** Indexes of the delete rows */
+		final BitSet deletes = new BitSet();
+
+		Delta(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * A packaging (eg. a carton or a pallet with a GTIN-14 code): the unit product and the number of units in it
+	 */
+	static class Packaging {
+		/** Normalized barcode of the unit */
+		final String unitBarcode;
+		final int quantity;
+
+		Packaging(String unitBarcode, int quantity) {
+			this.unitBarcode = unitBarcode;
+			this.quantity = quantity;
+		}
+	}
+
+	private Map<String, List<DatabaseEntry>> entries = new HashMap<String, List<DatabaseEntry>>();
+	/** Number of entries in the hash map */
+	private int entryCount = 0;
+	/** Barcodes of the hash map shared by more products */
+	private Set<String> ambiguousBarcodes = new HashSet<String>();
+	/** Products of the hash map by product id */
+	private ProductIndex idIndex = new ProductIndex();
+	/** Products of the hash map by publisher */
+	private ProductIndex publisherIndex = new ProductIndex();
+	/** Memory-mapped products, or null */
+	private ProductStore store = null;
+	/** Products of the store which are deleted or replaced by a delta */
+	private Set<DatabaseEntry> removedFromStore = new HashSet<DatabaseEntry>();
+	/** Number of applied deltas */
+	private int generation = 0;
+	/** Products named by the operators, used for the barcodes which are not in the database, or null */
+	private OverlayCatalogue overlay = null;
+	/** Packagings by normalized barcode, resolved to the units (see readPackagingFile()) */
+	private Map<String, Packaging> packagings = new HashMap<String, Packaging>();
 
 	@Override
-	public Iterator<Map.Entry<String, List<DatabaseEntry>>> iterator() {
-		return entries.entrySet().iterator();
+	public Iterator<DatabaseEntry> iterator() {
+		return getList().iterator();
+	}
+
+	/**
+	 * Returns the number of products in the database
+	 */
+	public int size() {
+		return (store != null ? store.size() - removedFromStore.size() : 0) + entryCount;
+	}
+
+	/**
+	 * Returns the catalogue generation: the number of deltas applied since the database file was loaded
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Sets the products named by the operators. They are returned by getByBarcode() if the barcode is not in the database.
+	 * @param overlay The overlay, or null
+	 */
+	public void setOverlay(OverlayCatalogue overlay) {
+		this.overlay = overlay;
+	}
+
+	public OverlayCatalogue getOverlay() {
+		return overlay;
 	}
 
 	/**
@@ -85,7 +251,163 @@ class Database implements Iterable<Map.Entry<String, List<DatabaseEntry>>> {
 	 * @return A database entry or null
 	 */
 	public List<DatabaseEntry> getByBarcode(String barcode) {
-		return entries.get(barcode);
+		final List<DatabaseEntry> items = getFromCatalogue(barcode);
+		return items != null || overlay == null ? items : overlay.getByBarcode(barcode);
+	}
+
+	/**
+	 * Searches the products of the database file and the deltas with a given barcode
+	 */
+	private List<DatabaseEntry> getFromCatalogue(String barcode) {
+		if (store == null) {
+			return entries.get(barcode);
+		}
+		final List<DatabaseEntry> stored = withoutRemoved(store.getByBarcode(barcode));
+		final List<DatabaseEntry> added = entries.get(barcode);
+		if (stored == null || added == null) {
+			return stored != null ? stored : added;
+		}
+		final List<DatabaseEntry> items = new ArrayList<DatabaseEntry>(stored);
+		items.addAll(added);
+		return items;
+	}
+	
+	/**
+	 * Returns the packaging of a barcode
+	 * @param barcode A normalized barcode
+	 * @return The unit and the number of units, or null if the barcode is not a packaging
+	 */
+	public Packaging getPackaging(String barcode) {
+		return packagings.get(barcode);
+	}
+
+	/**
+	 * Reads the packaging relations. Every line contains the barcode of a packaging (eg. the GTIN-14 code of a
+	 * carton), the barcode of its content and the number of contained items, in any CSV format of the database
+	 * file. The content may be a packaging too (eg. pallet - carton - unit), these are resolved to the units,
+	 * so a scan is resolved by one lookup. Invalid and circular lines are skipped.
+	 * @param csvFile Name of the packaging file
+	 * @return Number of the packagings
+	 * @throws Exception If reading fails
+	 */
+	public int readPackagingFile(String csvFile) throws Exception {
+		final Map<String, Packaging> relations = new HashMap<String, Packaging>();
+		try {
+			parseLines(csvFile, new LineHandler() {
+				@Override
+				public void line(List<String> fields) {
+					if (fields.size() < 3) {
+						return;
+					}
+					final String packaging = DatabaseEntry.normalizeBarcode(fields.get(0).trim());
+					final String content = DatabaseEntry.normalizeBarcode(fields.get(1).trim());
+					final String quantity = fields.get(2).trim();
+					if (packaging.isEmpty() || content.isEmpty() || packaging.equals(content) || !quantity.matches("\\d{1,6}")
+							|| Integer.parseInt(quantity) < 1) {
+						System.err.println("Hibás csomagolás: " + String.join(" ", fields));
+						return;
+					}
+					relations.put(packaging, new Packaging(content, Integer.parseInt(quantity)));
+				}
+			}, null);
+		} catch (IOException e) {
+			throw new Exception("\"" + csvFile + "\" csomagolásfájl olvasása sikertelen: " + e.getMessage());
+		}
+		final Map<String, Packaging> resolved = new HashMap<String, Packaging>(relations.size() * 2);
+		for (Map.Entry<String, Packaging> relation : relations.entrySet()) {
+			Packaging packaging = relation.getValue();
+			long quantity = packaging.quantity;
+			int depth = 0;
+			while (relations.containsKey(packaging.unitBarcode) && depth++ < relations.size()) {
+				packaging = relations.get(packaging.unitBarcode);
+				quantity *= packaging.quantity;
+				if (quantity > Integer.MAX_VALUE) {
+					break;
+				}
+			}
+			if (relations.containsKey(packaging.unitBarcode) || quantity > Integer.MAX_VALUE) {
+				System.err.println("Körkörös vagy túl nagy csomagolás: " + relation.getKey());
+				continue;
+			}
+			resolved.put(relation.getKey(), new Packaging(packaging.unitBarcode, (int) quantity));
+		}
+		packagings = resolved;
+		return resolved.size();
+	}
+
+	/**
+	 * Searches the products with the given product id (cikkszám)
+	 * @param id The product id
+	 * @return The found products, or null (always for an empty id)
+	 */
+	public List<DatabaseEntry> getById(String id) {
+		if (id == null || id.isEmpty()) {
+			return null;
+		}
+		return merge(store != null ? withoutRemoved(store.getById(id)) : null, idIndex.get(id));
+	}
+
+	/**
+	 * Searches the products with the given original (not normalized) barcode
+	 * @param barcode The barcode as it is in the database file
+	 * @return The found products or null
+	 */
+	public List<DatabaseEntry> getByOriginalBarcode(String barcode) {
+		final List<DatabaseEntry> items = getByBarcode(DatabaseEntry.normalizeBarcode(barcode));
+		if (items == null) {
+			return null;
+		}
+		List<DatabaseEntry> found = null;
+		for (DatabaseEntry item : items) {
+			if (barcode.equals(item.getBarcode())) {
+				if (found == null) {
+					found = new ArrayList<DatabaseEntry>(1);
+				}
+				found.add(item);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the products of the store and of the hash map in one list
+	 */
+	private static List<DatabaseEntry> merge(List<DatabaseEntry> stored, List<DatabaseEntry> added) {
+		if (stored == null || added == null) {
+			return stored != null ? stored : added != null ? new ArrayList<DatabaseEntry>(added) : null;
+		}
+		final List<DatabaseEntry> items = new ArrayList<DatabaseEntry>(stored);
+		items.addAll(added);
+		return items;
+	}
+
+	/**
+	 * Returns true if more products have the given barcode (the operator has to choose from them)
+	 * @param barcode The normalized barcode
+	 */
+	public boolean isAmbiguous(String barcode) {
+		if (ambiguousBarcodes.contains(barcode)) {
+			return true;
+		}
+		if (store == null) {
+			return false;
+		}
+		final List<DatabaseEntry> added = entries.get(barcode);
+		if (store.countByBarcode(barcode) + (added != null ? added.size() : 0) < 2) {
+			return false;
+		}
+		if (removedFromStore.isEmpty()) {
+			return true;
+		}
+		final List<DatabaseEntry> items = getByBarcode(barcode);
+		return items != null && items.size() > 1;
+	}
+
+	/**
+	 * Returns the number of barcodes shared by more products (only the ones loaded into the hash map)
+	 */
+	public int getAmbiguousCount() {
+		return ambiguousBarcodes.size();
 	}
 	
 	/**
@@ -93,26 +415,88 @@ class Database implements Iterable<Map.Entry<String, List<DatabaseEntry>>> {
 	 * @return The list of database entries
 	 */
 	public List<DatabaseEntry> getList() {
+		if (store != null && entries.isEmpty() && removedFromStore.isEmpty()) {
+			return store.asList();	// Views are created on access
+		}
 		List<DatabaseEntry> items = new ArrayList<DatabaseEntry>();
 		
+		if (store != null) {
+			for (DatabaseEntry item : store.asList()) {
+				if (!removedFromStore.contains(item)) {
+					items.add(item);
+				}
+			}
+		}
 		for (List<DatabaseEntry> entry : entries.values()) {
 			items.addAll(entry);
 		}
 		return items;
 	}
 
+	/**
+	 * Returns the products of a publisher
+	 * @param publisher Name of the publisher
+	 * @return The products of the publisher (an empty list if none)
+	 */
+	public List<DatabaseEntry> getByPublisher(String publisher) {
+		final List<DatabaseEntry> items = merge(store != null ? withoutRemoved(store.getByPublisher(publisher)) : null,
+				publisherIndex.get(publisher));
+		return items != null ? items : new ArrayList<DatabaseEntry>();
+	}
+
+	/**
+	 * Searches products by name. Every pattern must be contained by the name of a result.
+	 * @param patterns Lower case name fragments
+	 * @param limit    Maximal number of results
+	 * @return The found products
+	 */
+	public List<DatabaseEntry> searchByName(String[] patterns, int limit) {
+		List<DatabaseEntry> results = new ArrayList<DatabaseEntry>();
+		if (store != null) {
+			for (DatabaseEntry item : store.searchByName(patterns, limit + removedFromStore.size())) {
+				if (results.size() < limit && !removedFromStore.contains(item)) {
+					results.add(item);
+				}
+			}
+		}
+		
+		for (List<DatabaseEntry> entry : entries.values()) {
+			for (DatabaseEntry item : entry) {
+				if (results.size() >= limit) {
+					return results;
+				}
+				final String name = item.getName().toLowerCase();
+				boolean matches = true;
+				for (String pattern : patterns) {
+					if (!name.contains(pattern)) {
+						matches = false;
+						break;
+					}
+				}
+				if (matches) {
+					results.add(item);
+				}
+			}
+		}
+		return results;
+	}
+
 	/**
 	 * Adds a DatabaseEntry to the database
 	 * @param item The database entry to add
 	 */
 	public void addItem(DatabaseEntry item) {
-		if (getByBarcode(item.getNormalizedBarcode()) == null) {
+		if (entries.get(item.getNormalizedBarcode()) == null) {
 			List<DatabaseEntry> newEntry = new ArrayList<DatabaseEntry>();
 			newEntry.add(item);
 			entries.put(item.getNormalizedBarcode(), newEntry);
 		} else {
-			getByBarcode(item.getNormalizedBarcode()).add(item);
+			entries.get(item.getNormalizedBarcode()).add(item);
+			ambiguousBarcodes.add(item.getNormalizedBarcode());
 		}
+		idIndex.add(item.getId(), item);
+		publisherIndex.add(item.getPublisher(), item);
+		entryCount++;
 	}
 
 	/**
@@ -129,13 +513,199 @@ class Database implements Iterable<Map.Entry<String, List<DatabaseEntry>>> {
 	
 	/** @see Database#addItem(String, String, String, Integer, String) */
 	public void addItem(String barcode, String name, String publisher, String stockCount, String id) {
-		Integer count;
+		addItem(new DatabaseEntry(name, publisher, parseStockCount(stockCount), id, barcode));
+	}
+
+	/**
+	 * Removes the products with the barcode and id of the given item
+	 * @param item A product (only its barcode and id are used)
+	 * @return True if a product has been removed
+	 */
+	private boolean removeItem(DatabaseEntry item) {
+		return removeItem(item, null);
+	}
+
+	/**
+	 * Removes the products with the barcode and id of the item
+	 * @param removedItems Receives the removed products, may be null
+	 */
+	private boolean removeItem(DatabaseEntry item, List<DatabaseEntry> removedItems) {
+		boolean removed = false;
+		final String key = item.getNormalizedBarcode();
+		final List<DatabaseEntry> list = entries.get(key);
+		if (list != null) {
+			for (Iterator<DatabaseEntry> it = list.iterator(); it.hasNext(); ) {
+				final DatabaseEntry listed = it.next();
+				if (isSameProduct(listed, item)) {
+					it.remove();
+					idIndex.remove(listed.getId(), listed);
+					publisherIndex.remove(listed.getPublisher(), listed);
+					entryCount--;
+					removed = true;
+					if (removedItems != null) {
+						removedItems.add(listed);
+					}
+				}
+			}
+			if (list.isEmpty()) {
+				entries.remove(key);
+			}
+			if (list.size() < 2) {
+				ambiguousBarcodes.remove(key);
+			}
+		}
+		if (store != null) {
+			final List<DatabaseEntry> stored = store.getByBarcode(key);
+			if (stored != null) {
+				for (DatabaseEntry storedItem : stored) {
+					if (isSameProduct(storedItem, item) && removedFromStore.add(storedItem)) {
+						removed = true;
+						if (removedItems != null) {
+							removedItems.add(storedItem);
+						}
+					}
+				}
+			}
+		}
+		return removed;
+	}
+
+	private static boolean isSameProduct(DatabaseEntry a, DatabaseEntry b) {
+		return a.getBarcode().equals(b.getBarcode()) && a.getId().equals(b.getId());
+	}
+
+	private List<DatabaseEntry> withoutRemoved(List<DatabaseEntry> items) {
+		if (items == null || removedFromStore.isEmpty()) {
+			return items;
+		}
+		final List<DatabaseEntry> remaining = new ArrayList<DatabaseEntry>(items.size());
+		for (DatabaseEntry item : items) {
+			if (!removedFromStore.contains(item)) {
+				remaining.add(item);
+			}
+		}
+		return remaining.isEmpty() ? null : remaining;
+	}
+
+	/**
+	 * Reads a delta file exported by the ERP. It has the same format as the database file, with an optional
+	 * sixth field: "D" marks the rows to delete (only the barcode and the product id of these rows are used).
+	 * Other rows add a new product, or replace the product with the same barcode and id.
+	 * @param csvFile Name of the delta file
+	 * @return The changes, to be passed to applyDelta
+	 * @throws Exception If reading fails
+	 */
+	static Delta readDelta(String csvFile) throws Exception {
+		final Delta delta = new Delta(new File(csvFile).getName());
 		try {
-			count = Integer.parseInt(stockCount);
+			parseLines(csvFile, new LineHandler() {
+				@Override
+				public void line(List<String> fields) {
+					if (fields.size() < 2 || fields.get(0).isEmpty()) {
+						return;
+					}
+					final String[] values = Arrays.copyOf(fields.toArray(new String[0]), Math.max(fields.size(), 6));
+					for (int i = 0; i < values.length; i++) {
+						if (values[i] == null) {
+							values[i] = "";
+						}
+					}
+					if (values[5].trim().equalsIgnoreCase("D")) {
+						delta.deletes.set(delta.rows.size());
+					}
+					delta.rows.add(new DatabaseEntry(values[1], values[2], parseStockCount(values[3]), values[4], values[0]));
+				}
+			}, null);
+		} catch (IOException e) {
+			throw new Exception("\"" + csvFile + "\" változásfájl olvasása sikertelen: " + e.getMessage());
+		}
+		return delta;
+	}
+
+	/**
+	 * Applies the changes of a delta file in place, and increments the catalogue generation
+	 * @param delta The changes
+	 * @return The new catalogue generation
+	 */
+	public int applyDelta(Delta delta) {
+		return applyDelta(delta, null);
+	}
+
+	/**
+	 * Applies the changes of a delta file in place, and increments the catalogue generation
+	 * @param delta    The changes
+	 * @param listener Receives the removed and added products, may be null
+	 * @return The new catalogue generation
+	 */
+	public int applyDelta(Delta delta, ChangeListener listener) {
+		final List<DatabaseEntry> removedItems = listener != null ? new ArrayList<DatabaseEntry>(2) : null;
+		for (int i = 0; i < delta.rows.size(); i++) {
+			final DatabaseEntry item = delta.rows.get(i);
+			removeItem(item, removedItems);
+			if (!delta.deletes.get(i)) {
+				addItem(item);
+			}
+			if (listener != null) {
+				for (DatabaseEntry removed : removedItems) {
+					listener.changed(removed, null);
+				}
+				removedItems.clear();
+				if (!delta.deletes.get(i)) {
+					listener.changed(null, item);
+				}
+			}
+		}
+		return ++generation;
+	}
+
+	/**
+	 * Lists the delta files of a directory, which are newer than the database file
+	 * @param dir       The directory of the delta files
+	 * @param newerThan Modification time of the database file
+	 * @return The delta files in name order
+	 */
+	static File[] listDeltaFiles(File dir, long newerThan) {
+		final File[] files = dir.listFiles((file) -> file.isFile()
+				&& file.getName().toLowerCase().endsWith(".csv") && file.lastModified() > newerThan);
+		if (files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * Parses a stock count value of the database file
+	 * @return The stock count or null, if it is not a number
+	 */
+	static Integer parseStockCount(String stockCount) {
+		try {
+			return Integer.parseInt(stockCount);
 		} catch (NumberFormatException e) {
-			count = null;
+			return null;
 		}
-		addItem(new DatabaseEntry(name, publisher, count, id, barcode));
+	}
+
+	/**
+	 * Replaces the content of this database with the content of another one.
+	 * Used to publish a database loaded in the background.
+	 * @param other The database to take over. Should not be used after this call.
+	 */
+	public void replaceWith(Database other) {
+		entries = other.entries;
+		entryCount = other.entryCount;
+		ambiguousBarcodes = other.ambiguousBarcodes;
+		idIndex = other.idIndex;
+		publisherIndex = other.publisherIndex;
+		store = other.store;
+		removedFromStore = other.removedFromStore;
+		generation = other.generation;
+		packagings = other.packagings;
+	}
+
+	/** @see Database#readFromFile(String, ProgressListener) */
+	public void readFromFile(String csvFile) throws Exception {
+		readFromFile(csvFile, null);
 	}
 
 	/**
@@ -145,13 +715,87 @@ class Database implements Iterable<Map.Entry<String, List<DatabaseEntry>>> {
 	 * The file should be UTF-8 encoded. Each line shuld contain the following field in this order:
 	 *    barcode, name, publisher, stock count, product id
 	 *
-	 * @param csvFile Name of the CSV file to read
+	 * @param csvFile  Name of the CSV file to read
+	 * @param progress Receives the reading progress, may be null
 	 * @throws Exception If fails reading
 	 */
-	public void readFromFile(String csvFile) throws Exception {
+	public void readFromFile(String csvFile, ProgressListener progress) throws Exception {
+		try {
+			if (Settings.getBoolean("database.mapped", false)) {
+				store = ProductStore.open(csvFile, progress);
+				store.buildIndexes();
+			} else {
+				parseFile(csvFile, new RowHandler() {
+					@Override
+					public void row(String barcode, String name, String publisher, String stockCount, String id) {
+						if (entries.get(barcode) != null) {
+							System.err.println("Duplikált vonalkód: " + barcode);
+						}
+						addItem(barcode, name, publisher, stockCount, id);
+					}
+				}, progress);
+			}
+				
+			if (size() == 0) {
+				throw new Exception("\"" + csvFile + "\" adatbázisfájl nem taratalmazott érvényes bejegyzést.");
+			}
+		} catch (IOException e) {
+			throw new Exception("\"" + csvFile + "\" adatbázisfájl nem található az alábbi útvonalon:\n"
+					 + new File(csvFile).getAbsoluteFile() + "\n\n" + e.getMessage());
+		} catch (Exception e) {
+		e.printStackTrace();
+			throw new Exception("Hiba történt \"" + csvFile + "\" adatbázisfájl olvasása közben\n\n" + e.getMessage());
+		}
+	}
+
+	/**
+	 * Parses a database CSV file and passes its rows to the handler
+	 * Can read every CSV format: comma, semicolon or tab separated; quoted or unqouted values
+	 *
+	 * @param csvFile  Name of the CSV file to read
+	 * @param handler  Receives the rows with at least three fields (missing fields are empty)
+	 * @param progress Receives the reading progress, may be null
+	 * @throws IOException If fails reading
+	 */
+	static void parseFile(String csvFile, RowHandler handler, ProgressListener progress) throws IOException {
+		parseLines(csvFile, new LineHandler() {
+			@Override
+			public void line(List<String> list) throws IOException {
+				if (list.size() > 0) {
+					final String barcode = list.get(0);
+				
+					if (list.size() >= 5) {
+						handler.row(barcode, list.get(1), list.get(2), list.get(3), list.get(4));
+					} else if (list.size() == 4)  {
+						handler.row(barcode, list.get(1), list.get(2), list.get(3), "");
+					} else if (list.size() == 3) {
+						handler.row(barcode, list.get(1), list.get(2), "", "");
+					}
+				}
+			}
+		}, progress);
+	}
+
+	/**
+	 * Parses a CSV file with automatic separator detection, and passes the fields of its lines to the handler
+	 */
+	private static void parseLines(String csvFile, LineHandler handler, ProgressListener progress) throws IOException {
 		Scanner scanner = null;
 		try {
-			scanner = new Scanner(new File(csvFile), "UTF-8");
+			final File file = new File(csvFile);
+			final long total = file.length();
+			final long[] done = new long[] { 0 };
+			scanner = new Scanner(new FilterInputStream(new FileInputStream(file)) {
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					final int length = super.read(b, off, len);
+					if (length > 0 && progress != null) {
+						done[0] += length;
+						progress.progress(done[0], total);
+					}
+					return length;
+				}
+			}, "UTF-8");
 			List<String> list;
 			char separator = '\t';
 			boolean separatorFound = false;
@@ -179,33 +823,8 @@ class Database implements Iterable<Map.Entry<String, List<DatabaseEntry>>> {
 					list = CSVUtils.parseLine(line, separator);
 				}
 				
-				if (list.size() > 0) {
-					final String barcode = list.get(0);
-					if (getByBarcode(barcode) != null) {
-						System.err.println("Duplikált vonalkód: " + barcode);
-					}
-				
-					if (list.size() >= 5) {
-						addItem(barcode, list.get(1), list.get(2), list.get(3), list.get(4));
-					} else if (list.size() == 4)  {
-						addItem(barcode, list.get(1), list.get(2), list.get(3), "");
-					} else if (list.size() == 3) {
-						addItem(barcode, list.get(1), list.get(2), "", "");
-					}
-				}
-			}
-				
-			if (entries.size() == 0) {
-				throw new Exception("\"" + csvFile + "\" adatbázisfájl nem taratalmazott érvényes bejegyzést.");
+				handler.line(list);
 			}
-			
-			scanner.close();
-		} catch (IOException e) {
-			throw new Exception("\"" + csvFile + "\" adatbázisfájl nem található az alábbi útvonalon:\n"
-					 + new File(csvFile).getAbsoluteFile() + "\n\n" + e.getMessage());
-		} catch (Exception e) {
-		e.printStackTrace();
-			throw new Exception("Hiba történt \"" + csvFile + "\" adatbázisfájl olvasása közben\n\n" + e.getMessage());
 		} finally {
 			if (scanner != null) {
 				scanner.close();
@@ -0,0 +1,262 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts text lines by a string key, with a bounded memory usage
+ *
+ * Lines are collected in memory up to maxRecords. Then they are sorted and spilled to a temporary file (a run).
+ * The output is produced by merging the runs and the lines in memory. The records are compared by their keys
+ * (so a key sorts before the longer keys it is a prefix of, whatever character follows), lines with equal keys
+ * are ordered by their content. Keys must not contain SEPARATOR, lines must not contain line breaks.
+ *
+ * @since 2026-10-19
+ */
+class ExternalSorter {
+	private static final char SEPARATOR = '\u001F';
+	/** Orders the records (key, SEPARATOR, line) by key, then by line */
+	private static final Comparator<String> RECORD_ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String a, String b) {
+			final int aSeparator = a.indexOf(SEPARATOR);
+			final int bSeparator = b.indexOf(SEPARATOR);
+			final int keyOrder = compareRange(a, 0, aSeparator, b, 0, bSeparator);
+			return keyOrder != 0 ? keyOrder : compareRange(a, aSeparator + 1, a.length(), b, bSeparator + 1, b.length());
+		}
+	};
+
+	private final int maxRecords;
+	private final File tmpDir;
+	private final List<String> buffer = new ArrayList<String>();
+	private final List<File> runs = new ArrayList<File>();
+	private long size = 0;
+
+	/**
+	 * @param maxRecords Number of lines kept in memory
+	 * @param tmpDir     Directory of the temporary files
+	 */
+	public ExternalSorter(int maxRecords, File tmpDir) {
+		this.maxRecords = Math.max(1, maxRecords);
+		this.tmpDir = tmpDir;
+	}
+
+	/**
+	 * Adds a line
+	 * @param key  Sort key of the line
+	 * @param line The line
+	 * @throws IOException If spilling to the temporary file fails
+	 */
+	public void add(String key, String line) throws IOException {
+		buffer.add(key + SEPARATOR + line);
+		size++;
+		if (buffer.size() >= maxRecords) {
+			spill();
+		}
+	}
+
+	/**
+	 * Returns the number of added lines
+	 */
+	public long size() {
+		return size;
+	}
+
+	private void spill() throws IOException {
+		Collections.sort(buffer, RECORD_ORDER);
+		final File run = File.createTempFile("leltar", ".sort", tmpDir);
+		run.deleteOnExit();
+		runs.add(run);
+		final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(run), "UTF-8"), 1 << 16);
+		try {
+			for (String record : buffer) {
+				out.write(record);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Compares two ranges of strings lexicographically, as String.compareTo()
+	 */
+	private static int compareRange(String a, int aFrom, int aTo, String b, int bFrom, int bTo) {
+		final int length = Math.min(aTo - aFrom, bTo - bFrom);
+		for (int i = 0; i < length; i++) {
+			final char aChar = a.charAt(aFrom + i);
+			final char bChar = b.charAt(bFrom + i);
+			if (aChar != bChar) {
+				return aChar - bChar;
+			}
+		}
+		return (aTo - aFrom) - (bTo - bFrom);
+	}
+
+	/**
+	 * A sorted source of records: a run file or the lines in memory
+	 */
+	private static class Run implements Comparable<Run> {
+		private final BufferedReader in;
+		private final Iterator<String> records;
+		String current;
+
+		Run(BufferedReader in) throws IOException {
+			this.in = in;
+			this.records = null;
+			current = in.readLine();
+		}
+
+		Run(Iterator<String> records) {
+			this.in = null;
+			this.records = records;
+			current = records.hasNext() ? records.next() : null;
+		}
+
+		void next() throws IOException {
+			if (in != null) {
+				current = in.readLine();
+			} else {
+				current = records.hasNext() ? records.next() : null;
+			}
+		}
+
+		void close() {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {}
+			}
+		}
+
+		@Override
+		public int compareTo(Run other) {
+			return RECORD_ORDER.compare(current, other.current);
+		}
+	}
+
+	/**
+	 * Reads the lines in key order, one by one. Closing it deletes the temporary files.
+	 */
+	class Cursor {
+		private final PriorityQueue<Run> queue = new PriorityQueue<Run>();
+		private final List<Run> opened = new ArrayList<Run>();
+		private String record = null;
+		private int separator;
+
+		private Cursor() throws IOException {
+			Collections.sort(buffer, RECORD_ORDER);
+			try {
+				for (File file : runs) {
+					final Run run = new Run(new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 1 << 16));
+					opened.add(run);
+					if (run.current != null) {
+						queue.add(run);
+					}
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+			final Run memory = new Run(buffer.iterator());
+			if (memory.current != null) {
+				queue.add(memory);
+			}
+		}
+
+		/**
+		 * Moves to the next line
+		 * @return False if there are no more lines
+		 * @throws IOException If reading a run fails
+		 */
+		public boolean next() throws IOException {
+			final Run run = queue.poll();
+			if (run == null) {
+				record = null;
+				return false;
+			}
+			record = run.current;
+			separator = record.indexOf(SEPARATOR);
+			run.next();
+			if (run.current != null) {
+				queue.add(run);
+			}
+			return true;
+		}
+
+		/** Returns the key of the current line */
+		public String getKey() {
+			return record.substring(0, separator);
+		}
+
+		/** Returns the current line */
+		public String getLine() {
+			return record.substring(separator + 1);
+		}
+
+		private void write(Writer out) throws IOException {
+			out.write(record, separator + 1, record.length() - separator - 1);
+		}
+
+		public void close() {
+			for (Run run : opened) {
+				run.close();
+			}
+			opened.clear();
+			queue.clear();
+			ExternalSorter.this.close();
+		}
+	}
+
+	/**
+	 * Returns a cursor over the lines in key order. No lines may be added after it.
+	 * @throws IOException If opening the runs fails
+	 */
+	public Cursor open() throws IOException {
+		return new Cursor();
+	}
+
+	/**
+	 * Writes the lines in key order (one per line), and deletes the temporary files
+	 * @param out The output
+	 * @throws IOException If reading the runs or writing fails
+	 */
+	public void writeTo(BufferedWriter out) throws IOException {
+		final Cursor cursor = open();
+		try {
+			while (cursor.next()) {
+				cursor.write(out);
+				out.newLine();
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Deletes the temporary files
+	 */
+	public void close() {
+		for (File file : runs) {
+			file.delete();
+		}
+		runs.clear();
+		buffer.clear();
+	}
+}
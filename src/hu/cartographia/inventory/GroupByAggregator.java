@@ -0,0 +1,394 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sums the log lines by arbitrary dimensions (location, operator, publisher, hour of the scan)
+ *
+ * The lines are read in chunks, and the chunks are aggregated by several threads. Every chunk is summed into
+ * a small hash table per partition (by the hash of the group), and the tables of a finished chunk are merged into
+ * the partitions by the reading thread, so the partitions need no locking. At most two chunks per thread are in
+ * flight, so the memory does not grow with the size of the log. The counters are primitive (long[] per group).
+ * The finest groups are kept, the tables and pivots project them to the requested dimensions.
+ *
+ * @since 2026-10-19
+ */
+class GroupByAggregator {
+	enum Dimension {
+		LOCATION("Helyszín"),
+		OPERATOR("Kezelő"),
+		PUBLISHER("Kiadó"),
+		HOUR("Óra");
+
+		final String label;
+
+		Dimension(String label) {
+			this.label = label;
+		}
+
+		/** Returns the value of the dimension from the parsed log line */
+		String valueOf(LogRecordParser record) {
+			final String value;
+			switch (this) {
+				case LOCATION:
+					value = record.get(LogRecordParser.LOCATION);
+					break;
+				case OPERATOR:
+					value = record.get(LogRecordParser.OPERATOR);
+					break;
+				case PUBLISHER:
+					value = record.get(LogRecordParser.PUBLISHER);
+					break;
+				default:
+					/* yyyy-MM-dd HH of the timestamp */
+					final String timestamp = record.get(LogRecordParser.TIMESTAMP);
+					value = timestamp != null && timestamp.length() >= 13 ? timestamp.substring(0, 13) : timestamp;
+			}
+			return value != null ? value : "";
+		}
+	}
+
+	enum Measure {
+		SCANS("Beolvasások"),
+		PIECES("Talált db"),
+		UNKNOWN_PIECES("Ismeretlen termék db");
+
+		final String label;
+
+		Measure(String label) {
+			this.label = label;
+		}
+	}
+
+	private static final int CHUNK_LINES = 65536;
+	private static final int PARTITIONS = 16;
+
+	/**
+	 * Values of the dimensions of a group
+	 */
+	private static class Key {
+		final String[] values;
+		final int hash;
+
+		Key(String[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && hash == ((Key) other).hash && Arrays.equals(values, ((Key) other).values);
+		}
+	}
+
+	/**
+	 * Sums of a chunk: a table per partition
+	 */
+	private static class ChunkResult {
+		final List<Map<Key, long[]>> tables = new ArrayList<Map<Key, long[]>>();
+		long invalidLines = 0;
+
+		ChunkResult() {
+			for (int i = 0; i < PARTITIONS; i++) {
+				tables.add(new HashMap<Key, long[]>());
+			}
+		}
+	}
+
+	private final Dimension[] dimensions;
+	private final int threadCount;
+	private final List<Map<Key, long[]>> partitions = new ArrayList<Map<Key, long[]>>();
+	private long invalidLines = 0;
+
+	/**
+	 * @param threadCount Number of worker threads
+	 * @param dimensions  The dimensions of the groups
+	 */
+	public GroupByAggregator(int threadCount, Dimension... dimensions) {
+		this.threadCount = Math.max(1, threadCount);
+		this.dimensions = dimensions;
+		for (int i = 0; i < PARTITIONS; i++) {
+			partitions.add(new HashMap<Key, long[]>());
+		}
+	}
+
+	/**
+	 * Returns the number of lines which could not be summed
+	 */
+	public long getInvalidLines() {
+		return invalidLines;
+	}
+
+	/**
+	 * Sums the lines of a log file (eg. the merged log)
+	 * @param file The log file
+	 * @throws Exception If reading fails
+	 */
+	public void aggregate(File file) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			/* Every chunk is summed to tables per partition, at most two chunks per thread are summed ahead */
+			final Deque<Future<ChunkResult>> pending = new ArrayDeque<Future<ChunkResult>>();
+			final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 1 << 16);
+			try {
+				List<String> chunk = new ArrayList<String>(CHUNK_LINES);
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (!line.trim().isEmpty()) {
+						chunk.add(line);
+					}
+					if (chunk.size() == CHUNK_LINES) {
+						if (pending.size() == threadCount * 2) {
+							merge(pending.poll().get());
+						}
+						pending.add(executor.submit(aggregateChunk(chunk)));
+						chunk = new ArrayList<String>(CHUNK_LINES);
+					}
+				}
+				pending.add(executor.submit(aggregateChunk(chunk)));
+			} finally {
+				in.close();
+			}
+			while (!pending.isEmpty()) {
+				merge(pending.poll().get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Merges the tables of a finished chunk into the partitions
+	 */
+	private void merge(ChunkResult chunk) {
+		for (int partition = 0; partition < PARTITIONS; partition++) {
+			final Map<Key, long[]> target = partitions.get(partition);
+			for (Map.Entry<Key, long[]> entry : chunk.tables.get(partition).entrySet()) {
+				final long[] sums = target.get(entry.getKey());
+				if (sums == null) {
+					target.put(entry.getKey(), entry.getValue());
+				} else {
+					add(sums, entry.getValue());
+				}
+			}
+		}
+		invalidLines += chunk.invalidLines;
+	}
+
+	/**
+	 * Returns the task summing a chunk of lines
+	 */
+	private Callable<ChunkResult> aggregateChunk(final List<String> lines) {
+		return new Callable<ChunkResult>() {
+			@Override
+			public ChunkResult call() {
+				final ChunkResult result = new ChunkResult();
+				final LogRecordParser record = new LogRecordParser();
+				for (String line : lines) {
+					if (!record.parse(line.trim())) {
+						result.invalidLines++;
+						continue;
+					}
+					final int count = record.getCount();
+					final String[] keyValues = new String[dimensions.length];
+					for (int i = 0; i < dimensions.length; i++) {
+						keyValues[i] = dimensions[i].valueOf(record);
+					}
+					final Key key = new Key(keyValues);
+					final Map<Key, long[]> table = result.tables.get((key.hash ^ (key.hash >>> 16)) & (PARTITIONS - 1));
+					long[] sums = table.get(key);
+					if (sums == null) {
+						sums = new long[Measure.values().length];
+						table.put(key, sums);
+					}
+					sums[Measure.SCANS.ordinal()]++;
+					sums[Measure.PIECES.ordinal()] += count;
+					final String productId = record.get(LogRecordParser.PRODUCT_ID);
+					if (productId == null || productId.isEmpty()) {
+						sums[Measure.UNKNOWN_PIECES.ordinal()] += count;
+					}
+				}
+				return result;
+			}
+		};
+	}
+
+	private static void add(long[] sums, long[] values) {
+		for (int i = 0; i < sums.length; i++) {
+			sums[i] += values[i];
+		}
+	}
+
+	/**
+	 * Projects the groups to some of the dimensions
+	 * @return The sums by the values of the dimensions, in order
+	 */
+	private TreeMap<List<String>, long[]> project(Dimension... projection) {
+		final int[] indexes = new int[projection.length];
+		for (int i = 0; i < projection.length; i++) {
+			indexes[i] = Arrays.asList(dimensions).indexOf(projection[i]);
+			if (indexes[i] < 0) {
+				throw new IllegalArgumentException(projection[i].label);
+			}
+		}
+		final TreeMap<List<String>, long[]> result = new TreeMap<List<String>, long[]>(new Comparator<List<String>>() {
+			@Override
+			public int compare(List<String> a, List<String> b) {
+				for (int i = 0; i < a.size(); i++) {
+					final int c = a.get(i).compareTo(b.get(i));
+					if (c != 0) {
+						return c;
+					}
+				}
+				return 0;
+			}
+		});
+		for (Map<Key, long[]> partition : partitions) {
+			for (Map.Entry<Key, long[]> entry : partition.entrySet()) {
+				final String[] values = new String[indexes.length];
+				for (int i = 0; i < indexes.length; i++) {
+					values[i] = entry.getKey().values[indexes[i]];
+				}
+				final List<String> key = Arrays.asList(values);
+				final long[] sums = result.get(key);
+				if (sums == null) {
+					result.put(key, entry.getValue().clone());
+				} else {
+					add(sums, entry.getValue());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the sums of every measure by some dimensions
+	 * @param file       The output file
+	 * @param projection The dimensions of the rows
+	 * @throws IOException If writing fails
+	 */
+	public void writeTable(File file, Dimension... projection) throws IOException {
+		final BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			final StringBuilder header = new StringBuilder();
+			for (Dimension dimension : projection) {
+				header.append('"').append(dimension.label).append("\"\t");
+			}
+			for (Measure measure : Measure.values()) {
+				header.append('"').append(measure.label).append("\"\t");
+			}
+			header.setLength(header.length() - 1);
+			out.write(header.toString());
+			out.newLine();
+
+			for (Map.Entry<List<String>, long[]> entry : project(projection).entrySet()) {
+				final StringBuilder line = new StringBuilder();
+				for (String value : entry.getKey()) {
+					line.append('"').append(value.replace("\"", "\"\"")).append("\"\t");
+				}
+				for (long sum : entry.getValue()) {
+					line.append(sum).append('\t');
+				}
+				line.setLength(line.length() - 1);
+				out.write(line.toString());
+				out.newLine();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes a pivot table of a measure: the values of a dimension are the rows, of another one the columns
+	 * @param file    The output file
+	 * @param rows    Dimension of the rows
+	 * @param columns Dimension of the columns
+	 * @param measure The measure in the cells
+	 * @throws IOException If writing fails
+	 */
+	public void writePivot(File file, Dimension rows, Dimension columns, Measure measure) throws IOException {
+		final TreeMap<List<String>, long[]> groups = project(rows, columns);
+		final TreeSet<String> columnValues = new TreeSet<String>();
+		for (List<String> key : groups.keySet()) {
+			columnValues.add(key.get(1));
+		}
+		final Map<String, Integer> columnIndexes = new HashMap<String, Integer>();
+		for (String value : columnValues) {
+			columnIndexes.put(value, columnIndexes.size());
+		}
+		final int m = measure.ordinal();
+
+		final BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			final StringBuilder header = new StringBuilder();
+			header.append('"').append(rows.label).append(" / ").append(columns.label).append('"');
+			for (String value : columnValues) {
+				header.append("\t\"").append(value.replace("\"", "\"\"")).append('"');
+			}
+			out.write(header.append("\t\"Összesen\"").toString());
+			out.newLine();
+
+			final long[] columnTotals = new long[columnValues.size()];
+			String rowValue = null;
+			long[] cells = null;
+			for (Map.Entry<List<String>, long[]> entry : groups.entrySet()) {
+				if (!entry.getKey().get(0).equals(rowValue)) {
+					if (cells != null) {
+						writePivotRow(out, rowValue, cells);
+					}
+					rowValue = entry.getKey().get(0);
+					cells = new long[columnValues.size()];
+				}
+				final int column = columnIndexes.get(entry.getKey().get(1));
+				cells[column] += entry.getValue()[m];
+				columnTotals[column] += entry.getValue()[m];
+			}
+			if (cells != null) {
+				writePivotRow(out, rowValue, cells);
+			}
+			writePivotRow(out, "Összesen", columnTotals);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writePivotRow(BufferedWriter out, String rowValue, long[] cells) throws IOException {
+		final StringBuilder line = new StringBuilder();
+		line.append('"').append(rowValue.replace("\"", "\"\"")).append('"');
+		long total = 0;
+		for (long cell : cells) {
+			line.append('\t').append(cell);
+			total += cell;
+		}
+		out.write(line.append('\t').append(total).toString());
+		out.newLine();
+	}
+}
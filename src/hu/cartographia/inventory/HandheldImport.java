@@ -0,0 +1,284 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Imports the count files of offline handheld terminals as log files
+ *
+ * A count file contains a barcode and a count per line ("barcode;count", the separator may be a semicolon, tab or
+ * comma, the values may be quoted; a missing count is 1, a header line is skipped). The lines are read in chunks, and the chunks are
+ * resolved against the database and formatted by several threads; the results are written in the order of the
+ * file. A product is resolved like a scan: a packaging is counted as its units (see Database.getPackaging()), a
+ * barcode shared by more products gets the product which the operators of the location always choose
+ * (see BarcodePreferences.getAutoChoice()), otherwise it is logged without a product, like an unknown barcode.
+ * The lines are written in the format of the log files (see Logger.formatLine()), with the given operator and
+ * location and the modification time of the count file, so ReportCreator reads them like the scans.
+ * They are appended to a log file of their own (log/<date of the count file>_<operator>_<location>_kézi.csv),
+ * so a Logger of the same operator and location never writes the same file.
+ *
+ * Usage: HandheldImport <count file> <operator> <location> [database file]
+ *
+ * @since 2026-10-19
+ */
+class HandheldImport {
+	private static final int CHUNK_LINES = 16384;
+	/** Number of invalid lines listed */
+	private static final int MAX_LISTED_ERRORS = 20;
+	private static final Pattern BARCODE = Pattern.compile("[_\\d]{8,}");
+	private static final Pattern COUNT = Pattern.compile("-?\\d{1,6}");
+	/** Postfix of the log file names of the imports (before the extension) */
+	private static final String HANDHELD_SUFFIX = "_kézi";
+
+	/**
+	 * The log lines and the counters of a chunk
+	 */
+	private static class ChunkResult {
+		final StringBuilder lines = new StringBuilder();
+		long imported = 0;
+		long pieces = 0;
+		long unknown = 0;
+		long ambiguous = 0;
+		final List<String> errors = new ArrayList<String>();
+	}
+
+	private final Database db;
+	/** Choices of the operators of the location, or null */
+	private final BarcodePreferences preferences;
+	private final String operatorName;
+	private final String location;
+	private final int threadCount;
+
+	private long imported = 0;
+	private long pieces = 0;
+	private long unknown = 0;
+	private long ambiguous = 0;
+	private long invalidLines = 0;
+
+	/**
+	 * @param db           The database
+	 * @param preferences  Choices of the operators of the location for the shared barcodes (may be null)
+	 * @param operatorName Name of the operator, written to the log lines
+	 * @param location     Name of the location, written to the log lines
+	 * @param threadCount  Number of worker threads
+	 */
+	public HandheldImport(Database db, BarcodePreferences preferences, String operatorName, String location, int threadCount) {
+		this.db = db;
+		this.preferences = preferences;
+		this.operatorName = operatorName;
+		this.location = location;
+		this.threadCount = Math.max(1, threadCount);
+	}
+
+	/**
+	 * Imports a count file
+	 * @param file      The count file
+	 * @param timestamp Time of the log lines
+	 * @param out       Receives the log lines
+	 * @throws Exception If reading or writing fails
+	 */
+	public void importFile(File file, Date timestamp, Writer out) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			final List<Future<ChunkResult>> results = new ArrayList<Future<ChunkResult>>();
+			final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 1 << 16);
+			try {
+				char separator = 0;
+				List<String> chunk = new ArrayList<String>(CHUNK_LINES);
+				long chunkStart = 1;
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (separator == 0 && !line.trim().isEmpty()) {
+						separator = line.indexOf(';') >= 0 ? ';' : line.indexOf('\t') >= 0 ? '\t' : CSVUtils.DEFAULT_SEPARATOR;
+					}
+					chunk.add(line);
+					if (chunk.size() == CHUNK_LINES) {
+						results.add(executor.submit(importChunk(chunk, chunkStart, separator, timestamp)));
+						chunkStart += chunk.size();
+						chunk = new ArrayList<String>(CHUNK_LINES);
+					}
+				}
+				results.add(executor.submit(importChunk(chunk, chunkStart, separator, timestamp)));
+			} finally {
+				in.close();
+			}
+			for (Future<ChunkResult> future : results) {
+				final ChunkResult result = future.get();
+				out.write(result.lines.toString());
+				imported += result.imported;
+				pieces += result.pieces;
+				unknown += result.unknown;
+				ambiguous += result.ambiguous;
+				for (String error : result.errors) {
+					if (invalidLines++ < MAX_LISTED_ERRORS) {
+						System.err.println(error);
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the task which resolves and formats a chunk of lines
+	 * @param firstLine Number of the first line of the chunk in the file
+	 */
+	private Callable<ChunkResult> importChunk(final List<String> lines, final long firstLine, final char separator, final Date timestamp) {
+		return new Callable<ChunkResult>() {
+			@Override
+			public ChunkResult call() {
+				final ChunkResult result = new ChunkResult();
+				final String timeStamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(timestamp);
+				for (int i = 0; i < lines.size(); i++) {
+					final String line = lines.get(i).trim();
+					if (line.isEmpty()) {
+						continue;
+					}
+					final int end = line.indexOf(separator);
+					String barcode = unquote(end >= 0 ? line.substring(0, end) : line).replace("ö", "0").replace("-", "");
+					final int countEnd = end >= 0 ? line.indexOf(separator, end + 1) : -1;
+					final String countValue = end >= 0 ? unquote(countEnd >= 0 ? line.substring(end + 1, countEnd) : line.substring(end + 1)) : "1";
+					if (!BARCODE.matcher(barcode).matches() || !COUNT.matcher(countValue).matches()) {
+						if (firstLine + i > 1) {	// Not a header line
+							result.errors.add("Hibás sor (" + (firstLine + i) + "): " + line);
+						}
+						continue;
+					}
+					int count = Integer.parseInt(countValue);
+					final Database.Packaging packaging = db.getPackaging(barcode);
+					if (packaging != null) {
+						barcode = packaging.unitBarcode;
+						count *= packaging.quantity;
+					}
+					final List<DatabaseEntry> dbEntries = db.getByBarcode(barcode);
+					DatabaseEntry product = null;
+					if (dbEntries == null) {
+						result.unknown++;
+					} else if (dbEntries.size() == 1) {
+						product = dbEntries.get(0);
+					} else {
+						product = preferences != null ? preferences.getAutoChoice(barcode, dbEntries) : null;
+						if (product == null) {
+							result.ambiguous++;
+						}
+					}
+					result.lines.append(Logger.formatLine(timeStamp, product != null ? product.getBarcode() : barcode, count, "", null,
+							location, operatorName, product != null ? product.getId() : "", product != null ? product.getName() : "",
+							product != null ? product.getPublisher() : "", product != null ? product.getNormalizedBarcode() : "",
+							db.getGeneration()));
+					result.lines.append("\r\n");
+					result.imported++;
+					result.pieces += count;
+				}
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Removes the whitespace and the quotes around a value
+	 */
+	private static String unquote(String value) {
+		value = value.trim();
+		return value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"'
+				? value.substring(1, value.length() - 1).trim() : value;
+	}
+
+	public long getImported() {
+		return imported;
+	}
+
+	public long getPieces() {
+		return pieces;
+	}
+
+	public long getUnknown() {
+		return unknown;
+	}
+
+	public long getAmbiguous() {
+		return ambiguous;
+	}
+
+	public long getInvalidLines() {
+		return invalidLines;
+	}
+
+	/**
+	 * Loads the database like the application: the database file, the delta files, the packagings and the products
+	 * named by the operators
+	 */
+	private static Database loadDatabase(String dbFile) throws Exception {
+		final Database db = new Database();
+		db.readFromFile(dbFile);
+		for (File file : Database.listDeltaFiles(new File("delta"), new File(dbFile).lastModified())) {
+			db.applyDelta(Database.readDelta(file.getPath()));
+		}
+		if (new File("packaging.csv").exists()) {
+			db.readPackagingFile("packaging.csv");
+		}
+		final OverlayCatalogue overlay = new OverlayCatalogue(new File("overlay.csv"));
+		overlay.load();
+		db.setOverlay(overlay);
+		return db;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Használat: HandheldImport <számlálási fájl> <kezelő> <helyszín> [adatbázis.csv]");
+			System.exit(1);
+		}
+		Settings.load("settings.txt");
+		final File file = new File(args[0]);
+		final String operatorName = args[1];
+		final String location = args[2];
+		try {
+			final Database db = loadDatabase(args.length >= 4 ? args[3] : "database.csv");
+			final BarcodePreferences preferences = new BarcodePreferences("choices_" + location + ".txt",
+					Settings.getIntForLocation("choices.autoApply", location, 5));
+			final File logDir = new File("log");
+			logDir.mkdir();
+			final Date countTime = new Date(file.lastModified());
+			final File logFile = new File(logDir, new SimpleDateFormat("yyyy-MM-dd").format(countTime)
+					+ "_" + operatorName + "_" + location + HANDHELD_SUFFIX + ".csv");
+
+			final long start = System.nanoTime();
+			final HandheldImport handheldImport = new HandheldImport(db, preferences, operatorName, location,
+					Runtime.getRuntime().availableProcessors());
+			final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, true), "UTF-8"), 1 << 16);
+			try {
+				handheldImport.importFile(file, countTime, out);
+			} finally {
+				out.close();
+			}
+			System.out.println(String.format("%s: %d sor, %d db (ismeretlen: %d, többértelmű: %d, hibás: %d), %.0f ms",
+					logFile.getPath(), handheldImport.getImported(), handheldImport.getPieces(), handheldImport.getUnknown(),
+					handheldImport.getAmbiguous(), handheldImport.getInvalidLines(), (System.nanoTime() - start) / 1e6));
+		} catch (IOException e) {
+			System.err.println("Importálás sikertelen: " + e.getMessage());
+			System.exit(1);
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -7,17 +7,27 @@ import java.net.URLDecoder;
 import java.util.Date;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Scanner;
 import java.text.SimpleDateFormat;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
-import javafx.beans.property.IntegerProperty;
-import javafx.beans.property.SimpleIntegerProperty;
+import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.value.*;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.geometry.*;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
@@ -28,7 +38,6 @@ import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.control.ScrollPane.ScrollBarPolicy;
 import javafx.stage.Stage;
-import javafx.stage.Modality;
 import javafx.scene.image.Image;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.KeyCode;
@@ -37,6 +46,7 @@ import javafx.scene.layout.*;
 import javafx.scene.media.AudioClip;
 import javafx.scene.text.*;
 import javafx.util.Callback;
+import javafx.util.Duration;
 import javafx.css.PseudoClass;
 import java.nio.file.Paths;
 
@@ -54,6 +64,15 @@ public class InventoryApp extends Application {
 	private static final ObservableList<String> locationChoices = FXCollections.observableArrayList();
 	private static String locationsFileName = "locations.txt";
 	private static String databaseFileName = "database.csv";
+	private static String settingsFileName = "settings.txt";
+	/** Products named by the operators, see OverlayCatalogue */
+	private static String overlayFileName = "overlay.csv";
+	/** Directory of the catalogue changes exported by the ERP, see Database.applyDelta() */
+	private static String deltaDirectoryName = "delta";
+	/** Packaging relations (carton → units), see Database.readPackagingFile() */
+	private static String packagingFileName = "packaging.csv";
+	/** Highlights the tooltip of a barcode shared by more products */
+	private static final PseudoClass AMBIGUOUS_PSEUDO_CLASS = PseudoClass.getPseudoClass("ambiguous");
 	
 	private final AudioClip alertSound1 = new AudioClip(
 			getClass().getResource("resources/Beep_Ping-SoundBible.com-217088958.wav").toString()
@@ -64,18 +83,63 @@ public class InventoryApp extends Application {
 		
 	/** List of available products. */
 	private static final Database db = new Database();
-	/** Log registry and writer. */
-	private static Logger logger;
+	/** Outbound queue of the committed log lines, if a central inbox is set ("sync.target" setting). */
+	private static SyncQueue syncQueue;
 	/** Full path of the application. */
 	private static String basePath = "";
-	/** Name of the operator working on stock-taking. Will be written to the log and added to logfile name. */
-	private static String operatorName;
 	/** Name of the warehouse/shop. Will be written to the log and added to logfile name.  */
 	private static String location;
 	
-	/** The table which displays the log entries */
-	private final TableView<LogEntry> table = new TableView<LogEntry>();
+	/** Sessions of the scanners of the station (one if "scanner.prefixes" is not set), see ScanSession */
+	private final List<ScanSession> sessions = new ArrayList<ScanSession>();
+	/** The session which receives the typed text (the selected tab) */
+	private ScanSession selectedSession;
+	/** Prefixes of the scanners, in the order of the operator names of the login screen ("scanner.prefixes" setting) */
+	private String[] scannerPrefixes = new String[0];
 	private Stage primaryStage;
+	/** Loads the database in the background */
+	private Task<Database> databaseLoadTask;
+	/** Stock of the loaded catalogue for the dashboard, summed by the loader thread */
+	private volatile ScanDashboard.CatalogueStock catalogueStock;
+	/** True if the database loading has finished (even if it failed) */
+	private boolean databaseReady = false;
+	/** Negation of databaseReady, for bindings */
+	private final BooleanProperty databaseLoading = new SimpleBooleanProperty(true);
+	/** Barcodes scanned while the database was loading, they are resolved when the loading finishes */
+	private final List<LogEntry> unresolvedScans = new ArrayList<LogEntry>();
+	/** Queues the entered codes and detects scanner bursts */
+	private ScanInputPipeline scanPipeline;
+	/** Names of the applied delta files. Used by the loader, then by the delta watcher thread. */
+	private final Set<String> appliedDeltas = new HashSet<String>();
+	/** Earlier choices of the operator for the barcodes shared by more products */
+	private BarcodePreferences barcodePreferences;
+	/** Pending entries waiting for a decision of the operator (duplicate barcode, zero stock), in order of scanning */
+	private final ObservableList<LogEntry> attentionEntries = FXCollections.observableArrayList();
+	/** Scan throughput and progress against the stock, shown in the status bar */
+	private final ScanDashboard dashboard = new ScanDashboard();
+	/** Products named by the operators, which are not in the database file */
+	private OverlayCatalogue overlay;
+	/** Processes the entered texts, the operator is notified through its listener */
+	private final ScanProcessor scanProcessor = new ScanProcessor(db, new ScanProcessor.Listener() {
+		@Override
+		public void scannedWhileLoading(LogEntry entry) {
+			entry.setIsPending(true);
+			unresolvedScans.add(entry);
+			refreshTables();
+		}
+		
+		@Override
+		public void scanned(LogEntry entry) {
+			if (requiresAttention(entry)) {
+				refreshTables();
+			}
+		}
+		
+		@Override
+		public void unknown(LogEntry entry) {
+			alertSound2.play();
+		}
+	});
 
 
 	/**
@@ -99,6 +163,8 @@ public class InventoryApp extends Application {
 			basePath = "";
 		}
 		
+		Settings.load(basePath + settingsFileName);
+		
 		try {
 			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(basePath + locationsFileName), "UTF-8"));
 			String line;
@@ -124,7 +190,7 @@ public class InventoryApp extends Application {
 
 	/**
 	 * Entry point of the GUI
-	 * Sets the window title and size, application icon, loads the database and displays the login screen
+	 * Sets the window title and size, application icon, starts loading the database and displays the login screen
 	 *
 	 * {@inheritDoc}
 	 */
@@ -144,40 +210,343 @@ public class InventoryApp extends Application {
 		
 		stage.show();
 
+		final String syncTarget = Settings.get("sync.target", null);
+		if (syncTarget != null) {
+			try {
+				syncQueue = new SyncQueue(basePath + "sync", syncTarget, SyncQueue.defaultStationName());
+				syncQueue.start();
+			} catch (Exception e) {
+				System.err.println(e.getMessage());
+				Alert alert = new Alert(AlertType.ERROR);
+				alert.setTitle("A szinkronizálás nem indítható.");
+				alert.setHeaderText(e.getMessage() + "\n\nA naplófájlok helyben továbbra is elkészülnek.");
+				alert.showAndWait();
+			}
+		}
+
+		overlay = new OverlayCatalogue(new File(basePath + overlayFileName));
+		db.setOverlay(overlay);
+		databaseLoadTask = new Task<Database>() {
+			@Override
+			protected Database call() throws Exception {
+				try {
+					overlay.load();
+				} catch (Exception e) {
+					System.err.println(e.getMessage());
+				}
+				final Database loadedDb = new Database();
+				loadedDb.readFromFile(basePath + databaseFileName, new Database.ProgressListener() {
+					@Override
+					public void progress(long done, long total) {
+						updateProgress(done, total);
+					}
+				});
+				/* Changes exported since the database file */
+				for (File file : Database.listDeltaFiles(new File(basePath + deltaDirectoryName),
+						new File(basePath + databaseFileName).lastModified())) {
+					appliedDeltas.add(file.getName());
+					try {
+						loadedDb.applyDelta(Database.readDelta(file.getPath()));
+					} catch (Exception e) {
+						System.err.println(e.getMessage());
+					}
+				}
+				if (new File(basePath + packagingFileName).exists()) {
+					try {
+						loadedDb.readPackagingFile(basePath + packagingFileName);
+					} catch (Exception e) {
+						System.err.println(e.getMessage());
+					}
+				}
+				catalogueStock = ScanDashboard.summarize(loadedDb);
+				return loadedDb;
+			}
+		};
+		databaseLoadTask.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+			@Override
+			public void handle(WorkerStateEvent event) {
+				db.replaceWith(databaseLoadTask.getValue());
+				databaseLoaded();
+			}
+		});
+		databaseLoadTask.setOnFailed(new EventHandler<WorkerStateEvent>() {
+			@Override
+			public void handle(WorkerStateEvent event) {
+				final Throwable e = databaseLoadTask.getException();
+				System.err.println(e.getMessage());
+				Alert alert = new Alert(AlertType.ERROR);
+				alert.setTitle("Nem sikerült beolvasni az adatbázist.");
+				alert.setHeaderText(e.getMessage() + "\n\nLeltározni adatbázis nélkül is lehet, de a program nem fogja felismerni a termékeket.");
+				alert.showAndWait();
+				databaseLoaded();
+			}
+		});
+		final Thread loaderThread = new Thread(databaseLoadTask, "Database loader");
+		loaderThread.setDaemon(true);
+		loaderThread.start();
+		
+		login();
+	}
+	
+	/**
+	 * Called when the database loading has finished. Resolves the barcodes scanned during the loading.
+	 */
+	private void databaseLoaded() {
+		databaseReady = true;
+		scanProcessor.setDatabaseReady(true);
+		databaseLoading.set(false);
+		for (ScanSession session : sessions) {
+			session.getLogger().setCatalogueGeneration(db.getGeneration());
+		}
+		if (db.size() > 0) {
+			if (catalogueStock != null) {
+				dashboard.setCatalogue(catalogueStock);
+				catalogueStock = null;
+			}
+			startDeltaWatcher();
+		}
+		if (unresolvedScans.isEmpty()) {
+			return;
+		}
+		boolean unknownFound = false;
 		try {
-			db.readFromFile(basePath + databaseFileName);
+			for (LogEntry entry : unresolvedScans) {
+				final Database.Packaging packaging = db.getPackaging(entry.getBarcode());
+				if (packaging != null) {
+					entry.setBarcode(packaging.unitBarcode);
+					entry.setPackSize(packaging.quantity);
+				}
+				List<DatabaseEntry> dbEntries = db.getByBarcode(entry.getBarcode());
+				if (dbEntries == null) {
+					unknownFound = true;
+					resolve(entry, null);
+				} else if (dbEntries.size() == 1) {
+					entry.setBarcode(dbEntries.get(0).getBarcode());
+					entry.setDbEntry(dbEntries.get(0));
+					if (!requiresAttention(entry)) {
+						resolve(entry, dbEntries.get(0));
+					}
+				} else {
+					final DatabaseEntry autoChoice = barcodePreferences.getAutoChoice(entry.getBarcode(), dbEntries);
+					if (autoChoice != null) {
+						entry.setBarcode(autoChoice.getBarcode());
+						entry.setDbEntry(autoChoice);
+					} else {
+						entry.setCandidates(dbEntries);
+					}
+					if (!requiresAttention(entry)) {
+						resolve(entry, autoChoice);
+					}
+				}
+			}
 		} catch (Exception e) {
-			System.err.println(e.getMessage());
+			e.printStackTrace();
 			Alert alert = new Alert(AlertType.ERROR);
-			alert.setTitle("Nem sikerült beolvasni az adatbázist.");
-			alert.setHeaderText(e.getMessage() + "\n\nLeltározni adatbázis nélkül is lehet, de a program nem fogja felismerni a termékeket.");
+			alert.setTitle("Naplófálj írása sikertelen!");
+			alert.setHeaderText(e.getMessage());
 			alert.showAndWait();
+			System.exit(1);
 		}
+		unresolvedScans.clear();
+		refreshTables();
 		
-		login();
+		if (unknownFound) {
+			alertSound2.play();
+		}
 	}
 	
-	@Override
-	public void stop() {
-		// Save the last log entry and close logfile
-		if (logger != null) {
-			logger.close();
+	/**
+	 * Starts a background thread, which checks the delta directory for new catalogue changes
+	 * ("delta.pollSeconds" setting, 0 disables it), and applies them on the JavaFX thread.
+	 */
+	private void startDeltaWatcher() {
+		final int pollSeconds = Settings.getInt("delta.pollSeconds", 10);
+		if (pollSeconds <= 0) {
+			return;
+		}
+		final File deltaDir = new File(basePath + deltaDirectoryName);
+		final long databaseTime = new File(basePath + databaseFileName).lastModified();
+		final Thread watcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				/* Modification times of the delta files which could not be read, they are retried when they change */
+				final Map<String, Long> failedDeltas = new HashMap<String, Long>();
+				while (true) {
+					try {
+						Thread.sleep(pollSeconds * 1000L);
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (File file : Database.listDeltaFiles(deltaDir, databaseTime)) {
+						if (appliedDeltas.contains(file.getName()) || System.currentTimeMillis() - file.lastModified() < 2000
+								|| Long.valueOf(file.lastModified()).equals(failedDeltas.get(file.getName()))) {
+							continue;	// Applied already, it may be still written, or it has not changed since it failed
+						}
+						try {
+							final Database.Delta delta = Database.readDelta(file.getPath());
+							appliedDeltas.add(file.getName());
+							failedDeltas.remove(file.getName());
+							Platform.runLater(new Runnable() {
+								@Override
+								public void run() {
+									final int generation = db.applyDelta(delta, (removed, added) -> dashboard.productChanged(removed, added));
+									for (ScanSession session : sessions) {
+										session.getLogger().setCatalogueGeneration(generation);
+									}
+								}
+							});
+						} catch (Exception e) {
+							failedDeltas.put(file.getName(), file.lastModified());
+							System.err.println(e.getMessage());
+						}
+					}
+				}
+			}
+		}, "Delta import");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+	
+	/**
+	 * Adds an entry to the "needs attention" list, if it has more candidate products or zero stock.
+	 * An entry with more candidates stays pending (and blocks writing the entries after it) until the operator
+	 * decides. A zero stock entry is written as usual, it only has to be acknowledged.
+	 * @param entry The scanned entry
+	 * @return True if the entry needs attention
+	 */
+	private boolean requiresAttention(LogEntry entry) {
+		if (entry.getCandidates() == null && (entry.getStockCount() == null || entry.getStockCount() != 0)) {
+			return false;
 		}
+		if (entry.getCandidates() != null) {
+			entry.setIsPending(true);
+		}
+		if (!attentionEntries.contains(entry)) {
+			attentionEntries.add(entry);
+		}
+		alertSound1.play();
+		return true;
 	}
 	
 	/**
-	 * Builds the main GUI: an input field and the TableView
+	 * Applies the decision of the operator on an entry of the "needs attention" list
+	 * @param entry   The entry
+	 * @param dbEntry The chosen product (null if none of them), or the product of a zero stock entry
 	 */
-	private void initializeMainGUI() {
+	private void resolveAttention(LogEntry entry, DatabaseEntry dbEntry) {
 		try {
-			logger = new Logger(basePath, operatorName, location);
+			if (entry.getCandidates() != null) {
+				barcodePreferences.chosen(entry.getBarcode(), dbEntry);	// The barcode is still the scanned one
+				entry.setCandidates(null);
+				if (dbEntry != null) {
+					entry.setBarcode(dbEntry.getBarcode());
+				}
+				entry.setDbEntry(dbEntry);
+				resolve(entry, dbEntry);
+				if (requiresAttention(entry)) {
+					/* The chosen product has zero stock, it has to be acknowledged too */
+					attentionEntries.set(attentionEntries.indexOf(entry), entry);
+					refreshTables();
+					return;
+				}
+			}
+			attentionEntries.remove(entry);
+			if (entry.isPending()) {
+				resolve(entry, dbEntry);
+			}
 		} catch (Exception e) {
+			e.printStackTrace();
 			Alert alert = new Alert(AlertType.ERROR);
-			alert.setTitle("A naplófájlt nem sikerült létrehozni.");
+			alert.setTitle("Naplófálj írása sikertelen!");
 			alert.setHeaderText(e.getMessage());
 			alert.showAndWait();
 			System.exit(1);
 		}
+		refreshTables();
+	}
+	
+	/**
+	 * Sets the product of a pending entry in the log of its session
+	 * @see Logger#resolve(LogEntry, DatabaseEntry)
+	 */
+	private void resolve(LogEntry entry, DatabaseEntry dbEntry) throws Exception {
+		for (ScanSession session : sessions) {
+			if (session.getLogger().owns(entry)) {
+				session.getLogger().resolve(entry, dbEntry);
+				return;
+			}
+		}
+	}
+	
+	private void refreshTables() {
+		for (ScanSession session : sessions) {
+			session.getTable().refresh();
+		}
+	}
+	
+	@Override
+	public void stop() {
+		// Save the last log entries and close logfiles
+		for (ScanSession session : sessions) {
+			session.close();
+		}
+		if (barcodePreferences != null) {
+			barcodePreferences.close();
+		}
+		if (overlay != null) {
+			overlay.close();
+		}
+		if (syncQueue != null) {
+			syncQueue.close();
+		}
+	}
+	
+	/**
+	 * Builds the main GUI: an input field and the TableView (a tab of TableViews if more scanners are used)
+	 * @param operatorNames Names of the operators, one per scanner
+	 */
+	private void initializeMainGUI(List<String> operatorNames) {
+		for (int i = 0; i < operatorNames.size(); i++) {
+			final String operatorName = operatorNames.get(i);
+			ScanSession session = null;
+			try {
+				session = new ScanSession(i < scannerPrefixes.length ? scannerPrefixes[i] : "", basePath, operatorName, location);
+			} catch (Exception e) {
+				Alert alert = new Alert(AlertType.ERROR);
+				alert.setTitle("A naplófájlt nem sikerült létrehozni.");
+				alert.setHeaderText(e.getMessage());
+				alert.showAndWait();
+				System.exit(1);
+			}
+			final Logger logger = session.getLogger();
+			if (syncQueue != null) {
+				logger.addCommitListener(syncQueue);
+			}
+			logger.setCatalogueGeneration(db.getGeneration());
+			logger.setDoubleScanWindow(Settings.getIntForLocation("doubleScan.seconds", location, 2) * 1000L);
+			logger.addCommitListener(dashboard.listenerFor(operatorName + " (" + location + ")"));
+			final int resumeRows = Settings.getInt("resume.rows", 200);
+			if (resumeRows > 0) {
+				try {
+					logger.resume(resumeRows, dashboard.resumeListener());
+				} catch (Exception e) {
+					System.err.println(e.getMessage());
+				}
+			}
+			if (Settings.getBoolean("log.compact", false)) {
+				try {
+					session.enableCompactLog();
+				} catch (Exception e) {
+					System.err.println(e.getMessage());
+				}
+			}
+			initializeTable(session.getTable());
+			sessions.add(session);
+		}
+		selectedSession = sessions.get(0);
+		barcodePreferences = new BarcodePreferences(basePath + "choices_" + location + ".txt",
+				Settings.getIntForLocation("choices.autoApply", location, 5));
+		scanProcessor.setBarcodePreferences(barcodePreferences);
 		
 		BorderPane pane = new BorderPane();
 		pane.setPadding(new Insets(15, 5, 15, 5));
@@ -191,83 +560,62 @@ public class InventoryApp extends Application {
 		tooltipLabel.setId("tooltipLabel");
 		
 		AutoCompleteTextField inputField = new AutoCompleteTextField();
-		inputField.getEntries().addAll(db.getList());
+		inputField.setDatabase(db);
 
 		inputField.setId("inputField");
 		inputField.setMaxWidth(Double.MAX_VALUE);
 		HBox.setHgrow(inputField, Priority.ALWAYS);
+		scanPipeline = new ScanInputPipeline(new ScanInputPipeline.Processor() {
+			@Override
+			public void process(String input) {
+				processInput(input);
+			}
+		}, Settings.getInt("scanner.burstMillis", 30));
+		scanPipeline.attach(inputField);
+		inputField.searchSuspendedProperty().bind(scanPipeline.burstActiveProperty());
 		inputField.setOnKeyPressed(new EventHandler<KeyEvent>() {
 			@Override
 			public void handle(KeyEvent event) {
 				if (event.getCode().equals(KeyCode.ENTER)) {
-					String input = inputField.getText();
-					String normInput = input.replace("ö", "0").replace("-", "");
-					LogEntry loggedItem = null;
-					try {
-						if (normInput.length() >= 8 && normInput.length() <= 14) {
-							List<DatabaseEntry> dbEntries = db.getByBarcode(normInput);
-							if (dbEntries == null) {
-								loggedItem = logger.parseInput(input, null);
-								alertSound2.play();
-							} else if (dbEntries.size() == 1) {
-								loggedItem = logger.parseInput(input, dbEntries.get(0));
-							} else {
-								loggedItem = logger.parseInput(input, chooseDbEntry(dbEntries));
-							}
-							
-							if (loggedItem != null && loggedItem.getStockCount() != null && loggedItem.getStockCount() == 0) {
-								alertSound1.play();
-								Alert alert = new Alert(AlertType.WARNING);
-								alert.setTitle("Készlet szerint a termékből nulla darab van.");
-								alert.setHeaderText("A nyilvántartás szerint ebből a termékből nincs készletünk.\n\n"
-								 + "Ellenőrizd le alaposan az összes adatot, eltérés esetén írj megjegyzést.");
-								alert.showAndWait();
-							}
-						} else {
-							loggedItem = logger.parseInput(input, null);
-						}
-					} catch (Exception e) {
-						e.printStackTrace();
-						Alert alert = new Alert(AlertType.ERROR);
-						alert.setTitle("Naplófálj írása sikertelen!");
-						alert.setHeaderText(e.getMessage());
-						alert.showAndWait();
-						System.exit(1);
-					}
+					final String input = inputField.getText();
 					inputField.clear();
+					if (scannerPrefixes.length > 1 && scanPipeline.isBurstActive() && !input.isEmpty()
+							&& ScanSession.route(sessions, null, input) == null) {
+						/* Scanner speed without a prefix: the rest of a code cut by the ENTER of another scanner */
+						System.err.println("Egyszerre olvasó vonalkódolvasók kódjai keveredtek, a bevitel nem került a naplóba: " + input);
+						alertSound2.play();
+						return;
+					}
+					scanPipeline.submit(input);
+				} else if (event.getCode().equals(KeyCode.F3) || event.getCode().equals(KeyCode.F4)) {
+					/* Rows of the typed (or the selected) barcode: F3 jumps to the previous one, F4 filters the table */
+					final ScanSession session = ScanSession.route(sessions, selectedSession, inputField.getText());
+					final LogEntry selected = session.getTable().getSelectionModel().getSelectedItem();
+					final String barcode = !inputField.getText().isEmpty()
+							? indexedBarcode(ScanSession.stripPrefix(scannerPrefixes, inputField.getText()))
+							: selected != null ? selected.getBarcode() : "";
+					if (event.getCode().equals(KeyCode.F4) && session.isFiltered()) {
+						session.clearFilter();
+					} else if (!(event.getCode().equals(KeyCode.F3) ? session.jumpToNext(barcode) : session.filter(barcode))) {
+						alertSound2.play();
+					}
+					event.consume();
 				}
 			}
 		});
 		inputField.textProperty().addListener(new ChangeListener<String>() {
 			@Override
 			public void changed(final ObservableValue<? extends String> observable, final String oldValue, String newValue) {
-				if (newValue.matches("[-_ö\\d]+")) {
-					newValue = newValue.replace("ö", "0").replace("-", "");
-					if (newValue.length() >= 8) {
-						List<DatabaseEntry> dbEntries = db.getByBarcode(newValue);
-						if (dbEntries != null) {
-							if (dbEntries.size() == 1) {
-								tooltipLabel.setText(dbEntries.get(0).getName());
-							} else {
-								tooltipLabel.setText("Több termék azonos vonalkóddal: " + dbEntries.size());
-							}
-						} else {
-							tooltipLabel.setText("Ismeretlen termék");
-						}
-						if (!isValidGTIN(newValue)) {
-							tooltipLabel.setText(tooltipLabel.getText() + " (ÉRVÉNYTELEN ISBN!)");
-						}
-					} else if (newValue.length() < 4) {
-						tooltipLabel.setText("Darabszám módosítás");
-					} else if (newValue.length() == 4 && newValue.matches("19[0-9]{2}|20[0-9]{2}")) {
-						tooltipLabel.setText("Kiadási évszám megadása");
-					} else {
-						tooltipLabel.setText("?");
-					}
-				} else if (!newValue.isEmpty()) {
-					tooltipLabel.setText("Megjegyzés hozzáadása");
-				} else {
-					tooltipLabel.setText("");
+				if (!scanPipeline.isBurstActive() || newValue.isEmpty()) {
+					updateTooltip(tooltipLabel, newValue);
+				}
+			}
+		});
+		scanPipeline.burstActiveProperty().addListener(new ChangeListener<Boolean>() {
+			@Override
+			public void changed(ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) {
+				if (!newValue) {
+					updateTooltip(tooltipLabel, inputField.getText());
 				}
 			}
 		});
@@ -286,6 +634,35 @@ public class InventoryApp extends Application {
 		
 		pane.setTop(hb);
 		
+		if (sessions.size() == 1) {
+			pane.setCenter(selectedSession.getTable());
+		} else {
+			final TabPane tabPane = new TabPane();
+			tabPane.setTabClosingPolicy(TabPane.TabClosingPolicy.UNAVAILABLE);
+			tabPane.setFocusTraversable(false);
+			for (ScanSession session : sessions) {
+				final Tab tab = new Tab(session.getOperatorName() + " (" + session.getPrefix() + ")", session.getTable());
+				tab.setUserData(session);
+				tabPane.getTabs().add(tab);
+			}
+			tabPane.getSelectionModel().selectedItemProperty().addListener(new ChangeListener<Tab>() {
+				@Override
+				public void changed(ObservableValue<? extends Tab> observable, Tab oldValue, Tab newValue) {
+					selectedSession = (ScanSession) newValue.getUserData();
+				}
+			});
+			pane.setCenter(tabPane);
+		}
+		pane.setRight(createAttentionPane());
+		pane.setBottom(createStatusBar());
+		
+		primaryStage.setScene(scene);
+	}
+	
+	/**
+	 * Sets the columns and the row styles of a log table
+	 */
+	private void initializeTable(final TableView<LogEntry> table) {
 		TableColumn<LogEntry, String> timestampCol = new TableColumn<LogEntry, String>("Mikor");
 		timestampCol.getStyleClass().add("timestampTableCell");
 		timestampCol.setPrefWidth(78);
@@ -324,7 +701,6 @@ public class InventoryApp extends Application {
 		table.getColumns().addAll(Arrays.asList(
 				timestampCol, barcodeCol, countCol, commentCol, publicationDateCol, productNameCol, publisherCol
 		));
-		table.setItems(logger.logEntries);
 		table.setPlaceholder(new Label(
 			"Elkezdheted a leltározást.\n\n" +
 			"A fenti mezőbe írhatod a vonalkódot, adhatod meg a darabszámot,\névszámot, valamint a megjegyzést (ha van).\n" +
@@ -333,100 +709,333 @@ public class InventoryApp extends Application {
 		PseudoClass activeRowSelector = PseudoClass.getPseudoClass("active");
 		PseudoClass emptySelector = PseudoClass.getPseudoClass("empty");
 		PseudoClass missingSelector = PseudoClass.getPseudoClass("missing");
+		PseudoClass pendingSelector = PseudoClass.getPseudoClass("pending");
+		PseudoClass attentionSelector = PseudoClass.getPseudoClass("attention");
+		PseudoClass doubleScanSelector = PseudoClass.getPseudoClass("doubleScan");
 		
 		table.setRowFactory(param -> new TableRow<LogEntry>() {
+			private final ContextMenu unknownMenu = new ContextMenu();
+			{
+				final MenuItem nameItem = new MenuItem("Termék elnevezése...");
+				nameItem.setOnAction(event -> nameProduct(getItem()));
+				unknownMenu.getItems().add(nameItem);
+			}
+			
 			@Override
 			protected void updateItem(LogEntry item, boolean empty) {
 				super.updateItem(item, empty);
+				setContextMenu(item != null && !item.isInDb() && !item.isPending() && item.getBarcode().matches("\\d{8,14}") ? unknownMenu : null);
 				pseudoClassStateChanged(emptySelector,  empty);
 				pseudoClassStateChanged(activeRowSelector,  item != null && !item.isCommited());
-				pseudoClassStateChanged(missingSelector,  item != null && item.getName().isEmpty());
+				pseudoClassStateChanged(missingSelector,  item != null && item.getName().isEmpty() && !item.isPending());
+				pseudoClassStateChanged(pendingSelector,  item != null && item.isPending());
+				pseudoClassStateChanged(attentionSelector,  item != null && attentionEntries.contains(item));
+				pseudoClassStateChanged(doubleScanSelector,  item != null && item.isDoubleScan());
 				if (item != null && item.isInDb()) {
 					setTooltip(new Tooltip(String.format(
 							"vonalkód: %1$s, cikkszám: %2$s, terméknév: %3$s, kiadó: %4$s",
 							item.getBarcode(), item.getProductId(), item.getName(), item.getPublisher()
 					)));
 				}
-				if (item != null && !item.isInDb()) {
+				if (item != null && attentionEntries.contains(item)) {
+					setTooltip(new Tooltip(item.getBarcode() + ": ellenőrizendő, a jobb oldali listában való döntés után kerül a naplóba."));
+				} else if (item != null && item.isPending()) {
+					setTooltip(new Tooltip(item.getBarcode() + ": az adatbázis betöltése után kerül a naplóba."));
+				} else if (item != null && !item.isInDb()) {
 					setTooltip(new Tooltip(
 							item.getBarcode() + " nem található az adatbázisban." +
-							(!isValidGTIN(item.getBarcode()) ? " (ÉRVÉNYTELEN ISBN)" : "")
+							(!isValidGTIN(item.getBarcode()) ? " (ÉRVÉNYTELEN ISBN)" : "") +
+							"\nJobb gombbal elnevezhető, a további beolvasásokkor már felismeri a program."
 					));
 				}
+				if (item != null && item.isDoubleScan()) {
+					setTooltip(new Tooltip(item.getBarcode() + ": dupla beolvasás? Az előző beolvasása után rövid időn belül ismét beolvasva."));
+				}
 			}
 			
 			
 		});
-
-		pane.setCenter(table);
-		
-		primaryStage.setScene(scene);
 	}
 	
 	/**
-	 * Shows a dialog with a list of the given choices
-	 * where the user can select an item
-	 * Automatically adds a "Non of them" item to the list
+	 * Asks the name of an unknown product, and adds it to the overlay catalogue, so its later scans are recognized.
+	 * The entries of the barcode which are not written to the log yet get the product too.
+	 * @param entry An entry of the unknown product
 	 */
-	private DatabaseEntry chooseDbEntry(List<DatabaseEntry> dbEntries) {
-		
-		alertSound1.play();
-		
-		Stage stage = new Stage();
-		
-		ListView<String> list = new ListView<String>();
-		ObservableList<String> listItems =FXCollections.observableArrayList ();
-		if (dbEntries != null && dbEntries.size() > 0) {
-			for (DatabaseEntry dbEntry : dbEntries) {
-				listItems.add(dbEntry.getBarcode() + "\t" + dbEntry.getName() + "\t" + dbEntry.getPublisher() + "\t" + dbEntry.getId());
-			}
+	private void nameProduct(final LogEntry entry) {
+		if (entry == null) {
+			return;
 		}
-		listItems.add("Egyik sem (Írj hozzá megjegyzést!)");
-		list.setItems(listItems);
-		final IntegerProperty selectedIndex = new SimpleIntegerProperty();
-		selectedIndex.set(listItems.size()-1);
-		list.setOnMouseClicked(new EventHandler<MouseEvent>() {
+		scanPipeline.runExclusive(new Runnable() {
 			@Override
-			public void handle(MouseEvent event) {
-				selectedIndex.set(list.getSelectionModel().getSelectedIndex());
+			public void run() {
+				final Dialog<ButtonType> dialog = new Dialog<ButtonType>();
+				dialog.setTitle("Ismeretlen termék elnevezése");
+				dialog.setHeaderText("Vonalkód: " + entry.getBarcode()
+						+ "\nA termék a további beolvasásokkor már név szerint jelenik meg, és a kimutatásba is bekerül.");
+				final TextField nameField = new TextField();
+				final TextField publisherField = new TextField();
+				final TextField idField = new TextField();
+				final GridPane grid = new GridPane();
+				grid.setHgap(10);
+				grid.setVgap(10);
+				grid.addRow(0, new Label("Terméknév:"), nameField);
+				grid.addRow(1, new Label("Kiadó:"), publisherField);
+				grid.addRow(2, new Label("Cikkszám (ha ismert):"), idField);
+				dialog.getDialogPane().setContent(grid);
+				dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+				dialog.getDialogPane().lookupButton(ButtonType.OK).disableProperty().bind(nameField.textProperty().isEmpty());
+				scanPipeline.guard(dialog.getDialogPane());
+				Platform.runLater(() -> nameField.requestFocus());
+				if (dialog.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) {
+					return;
+				}
 				try {
-					Thread.sleep(100);	// For visual "selected" feedback
-				} catch (InterruptedException e) {}
-				stage.close();
+					final DatabaseEntry dbEntry = overlay.add(entry.getBarcode(), nameField.getText(), publisherField.getText(),
+							idField.getText());
+					for (ScanSession session : sessions) {
+						for (LogEntry logEntry : session.getLogger().logEntries) {
+							if (!logEntry.isCommited() && !logEntry.isInDb() && logEntry.getBarcode().equals(entry.getBarcode())) {
+								logEntry.setDbEntry(dbEntry);
+							}
+						}
+					}
+				} catch (Exception e) {
+					System.err.println(e.getMessage());
+					Alert alert = new Alert(AlertType.ERROR);
+					alert.setTitle("A termék mentése sikertelen!");
+					alert.setHeaderText(e.getMessage());
+					alert.showAndWait();
+				}
+				refreshTables();
 			}
 		});
-		list.setOnKeyPressed(new EventHandler<KeyEvent>() {
+	}
+	
+	/**
+	 * Builds the status bar: scans of the last minute per station, and the progress against the stock (see ScanDashboard).
+	 * It is refreshed every second, so the rates decrease when nothing is scanned.
+	 */
+	private HBox createStatusBar() {
+		final Label rateLabel = new Label();
+		final ProgressBar progressBar = new ProgressBar(0);
+		progressBar.setPrefWidth(200);
+		final Label progressLabel = new Label();
+		final HBox statusBar = new HBox(10, rateLabel, progressBar, progressLabel);
+		statusBar.setId("statusBar");
+		statusBar.setAlignment(Pos.CENTER_LEFT);
+		
+		final Runnable refresh = new Runnable() {
 			@Override
-			public void handle(KeyEvent event) {
-				if (event.getCode().equals(KeyCode.ENTER)) {
-					selectedIndex.set(list.getSelectionModel().getSelectedIndex());
-					stage.close();
+			public void run() {
+				final StringBuilder rates = new StringBuilder("Beolvasás/perc:");
+				for (Map.Entry<String, Long> station : dashboard.getStationRates().entrySet()) {
+					rates.append("  ").append(station.getKey()).append(": ").append(station.getValue());
+				}
+				rateLabel.setText(rates.toString());
+				progressBar.setProgress(dashboard.getProgress());
+				final long remaining = dashboard.getRemainingMinutes();
+				progressLabel.setText(String.format("Készlet: %.1f%% (%d / %d db), beolvasás: %d, talált: %d db%s",
+						dashboard.getProgress() * 100, dashboard.getCoveredStock(), dashboard.getTotalStock(),
+						dashboard.getTotalScans(), dashboard.getTotalPieces(),
+						remaining >= 0 ? String.format(", hátralévő idő: ~%d óra %d perc", remaining / 60, remaining % 60) : ""));
+			}
+		};
+		final Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(1), event -> refresh.run()));
+		timeline.setCycleCount(Animation.INDEFINITE);
+		timeline.play();
+		refresh.run();
+		return statusBar;
+	}
+	
+	/**
+	 * Builds the "needs attention" panel: the list of entries waiting for a decision, and the choices of the selected one.
+	 * The panel is not modal, scanning can be continued meanwhile. It is hidden while the list is empty.
+	 */
+	private VBox createAttentionPane() {
+		final ListView<LogEntry> entryList = new ListView<LogEntry>(attentionEntries);
+		entryList.setFocusTraversable(false);
+		entryList.setCellFactory(param -> new ListCell<LogEntry>() {
+			@Override
+			protected void updateItem(LogEntry item, boolean empty) {
+				super.updateItem(item, empty);
+				if (item == null || empty) {
+					setText(null);
+				} else if (item.getCandidates() != null) {
+					setText(item.getTime() + "  " + item.getBarcode() + "\nTöbb termék azonos vonalkóddal: " + item.getCandidates().size());
+				} else {
+					setText(item.getTime() + "  " + item.getBarcode() + "\nKészlet szerint nulla darab: " + item.getName());
 				}
 			}
 		});
 		
-		Label description = new Label("Ebből a termékből több is található az adatbázisban. Melyiket leltározod éppen?");
-		description.setPadding(new Insets(10, 20, 10, 20));
-		description.setStyle("-fx-font-size: 20;");
-		
-		BorderPane pane = new BorderPane();
-		pane.setCenter(list);
-		pane.setTop(description);
-		
-		
-		Scene scene = new Scene(pane, 900, 300);
-		stage.setScene(scene);
-		stage.initModality(Modality.APPLICATION_MODAL);
-		stage.setTitle("Melyik terméket leltározod?");
+		final ListView<String> choiceList = new ListView<String>();
+		choiceList.setFocusTraversable(false);
+		entryList.getSelectionModel().selectedItemProperty().addListener(new ChangeListener<LogEntry>() {
+			@Override
+			public void changed(ObservableValue<? extends LogEntry> observable, LogEntry oldValue, LogEntry newValue) {
+				final ObservableList<String> choices = FXCollections.observableArrayList();
+				int preferredIndex = -1;
+				if (newValue != null && newValue.getCandidates() != null) {
+					final DatabaseEntry preferred = barcodePreferences.getPreferred(newValue.getBarcode(), newValue.getCandidates());
+					for (DatabaseEntry dbEntry : newValue.getCandidates()) {
+						if (dbEntry == preferred) {
+							preferredIndex = choices.size();
+						}
+						choices.add(dbEntry.getBarcode() + "\t" + dbEntry.getName() + "\t" + dbEntry.getPublisher() + "\t" + dbEntry.getId()
+								+ (dbEntry == preferred ? "\t(legutóbbi választás)" : ""));
+					}
+					choices.add("Egyik sem (Írj hozzá megjegyzést!)");
+				} else if (newValue != null) {
+					choices.add("Ellenőriztem");
+				}
+				choiceList.setItems(choices);
+				if (preferredIndex >= 0) {
+					choiceList.getSelectionModel().select(preferredIndex);
+				}
+			}
+		});
+		attentionEntries.addListener((ListChangeListener.Change<? extends LogEntry> change) -> {
+			if (entryList.getSelectionModel().getSelectedItem() == null && !attentionEntries.isEmpty()) {
+				entryList.getSelectionModel().selectFirst();
+			}
+		});
+		choiceList.setOnMouseClicked(new EventHandler<MouseEvent>() {
+			@Override
+			public void handle(MouseEvent event) {
+				final LogEntry entry = entryList.getSelectionModel().getSelectedItem();
+				final int index = choiceList.getSelectionModel().getSelectedIndex();
+				if (entry == null || index < 0) {
+					return;
+				}
+				if (entry.getCandidates() != null) {
+					resolveAttention(entry, index < entry.getCandidates().size() ? entry.getCandidates().get(index) : null);
+				} else {
+					resolveAttention(entry, entry.getDbEntry());
+				}
+				entryList.getSelectionModel().clearSelection();
+				if (!attentionEntries.isEmpty()) {
+					entryList.getSelectionModel().select(attentionEntries.contains(entry) ? entry : attentionEntries.get(0));
+				}
+			}
+		});
 		
-		stage.showAndWait();
+		final Label title = new Label("Ellenőrizendő tételek");
+		title.setId("attentionTitle");
+		final Label hint = new Label("A több termékhez tartozó vonalkódok után beolvasott tételek a döntés után kerülnek a naplóba.");
+		hint.setWrapText(true);
 		
-		if (selectedIndex.get() < dbEntries.size()) {
-			return dbEntries.get(selectedIndex.get());
-		} else{
-			return null;
+		final VBox attentionPane = new VBox(5, title, entryList, hint, choiceList);
+		attentionPane.setId("attentionPane");
+		attentionPane.setPrefWidth(380);
+		VBox.setVgrow(entryList, Priority.ALWAYS);
+		VBox.setVgrow(choiceList, Priority.ALWAYS);
+		attentionPane.visibleProperty().bind(Bindings.isNotEmpty(attentionEntries));
+		attentionPane.managedProperty().bind(attentionPane.visibleProperty());
+		return attentionPane;
+	}
+	
+	/**
+	 * Processes an entered text: a barcode, product id, count, publication year or comment (see ScanProcessor)
+	 * Called by the scan input pipeline, one input at a time. The text goes to the session of its scanner prefix.
+	 * The mixed codes of scanners used at the same moment are rejected, see ScanSession.isInterleaved().
+	 */
+	private void processInput(String input) {
+		if (ScanSession.isInterleaved(scannerPrefixes, input)) {
+			System.err.println("Egyszerre olvasó vonalkódolvasók kódjai keveredtek, a bevitel nem került a naplóba: " + input);
+			alertSound2.play();
+			return;
+		}
+		final ScanSession session = ScanSession.route(sessions, selectedSession, input);
+		session.clearFilter();	// The new entry has to be seen
+		try {
+			scanProcessor.process(session.getLogger(), ScanSession.stripPrefix(scannerPrefixes, input));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Alert alert = new Alert(AlertType.ERROR);
+			alert.setTitle("Naplófálj írása sikertelen!");
+			alert.setHeaderText(e.getMessage());
+			alert.showAndWait();
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Returns the barcode of an entered text, as it is logged: the unit of a packaging, the ö and - characters replaced
+	 */
+	private String indexedBarcode(String input) {
+		final String barcode = input.replace("ö", "0").replace("-", "");
+		final Database.Packaging packaging = databaseReady ? db.getPackaging(barcode) : null;
+		return packaging != null ? packaging.unitBarcode : barcode;
+	}
+
+	/**
+	 * Shows what the entered text means (product name, product id, count, year or comment)
+	 */
+	private void updateTooltip(Label tooltipLabel, String newValue) {
+		final ScanSession session = ScanSession.route(sessions, selectedSession, newValue);
+		newValue = ScanSession.stripPrefix(scannerPrefixes, newValue);
+		tooltipLabel.pseudoClassStateChanged(AMBIGUOUS_PSEUDO_CLASS, databaseReady && newValue.length() >= 8
+				&& newValue.matches("[-_ö\\d]+") && db.isAmbiguous(newValue.replace("ö", "0").replace("-", "")));
+		if (newValue.matches("[-_ö\\d]+")) {
+			newValue = newValue.replace("ö", "0").replace("-", "");
+			if (newValue.length() >= 8 && !databaseReady) {
+				tooltipLabel.setText("Adatbázis betöltése folyamatban...");
+			} else if (newValue.length() >= 8) {
+				final Database.Packaging packaging = db.getPackaging(newValue);
+				List<DatabaseEntry> dbEntries = db.getByBarcode(packaging != null ? packaging.unitBarcode : newValue);
+				if (dbEntries != null) {
+					if (dbEntries.size() == 1) {
+						tooltipLabel.setText(dbEntries.get(0).getName());
+					} else {
+						final DatabaseEntry preferred = barcodePreferences.getPreferred(newValue, dbEntries);
+						tooltipLabel.setText("Több termék azonos vonalkóddal: " + dbEntries.size()
+								+ (preferred != null ? " (legutóbb: " + preferred.getName() + ")" : ""));
+					}
+				} else {
+					tooltipLabel.setText("Ismeretlen termék");
+				}
+				if (packaging != null) {
+					tooltipLabel.setText("Csomagolás, " + packaging.quantity + " db: " + tooltipLabel.getText());
+				}
+				if (!isValidGTIN(newValue)) {
+					tooltipLabel.setText(tooltipLabel.getText() + " (ÉRVÉNYTELEN ISBN!)");
+				}
+				final SessionIndex.Slot counted = session.getLogger().getIndex().get(indexedBarcode(newValue));
+				if (counted != null) {
+					tooltipLabel.setText(tooltipLabel.getText() + " | már leltározva: " + counted.getCount() + " db ("
+							+ counted.getScans() + " beolvasás) – F3: ugrás, F4: szűrés");
+				}
+			} else if (newValue.length() < 4) {
+				tooltipLabel.setText("Darabszám módosítás");
+			} else if (newValue.length() == 4 && newValue.matches("19[0-9]{2}|20[0-9]{2}")) {
+				tooltipLabel.setText("Kiadási évszám megadása");
+			} else {
+				tooltipLabel.setText("?");
+			}
+		} else if (newValue.startsWith("#")) {
+			final String id = newValue.substring(1).trim();
+			if (id.isEmpty()) {
+				tooltipLabel.setText("Cikkszám megadása");
+			} else if (!databaseReady) {
+				tooltipLabel.setText("Adatbázis betöltése folyamatban...");
+			} else {
+				final List<DatabaseEntry> dbEntries = db.getById(id);
+				if (dbEntries == null) {
+					tooltipLabel.setText("Ismeretlen cikkszám");
+				} else if (dbEntries.size() == 1) {
+					tooltipLabel.setText(dbEntries.get(0).getName());
+				} else {
+					tooltipLabel.setText("Több termék azonos cikkszámmal: " + dbEntries.size());
+				}
+			}
+		} else if (!newValue.isEmpty()) {
+			tooltipLabel.setText("Megjegyzés hozzáadása");
+		} else {
+			tooltipLabel.setText("");
 		}
 	}
+	
 
 	/**
 	 * Shows a login screen.
@@ -445,8 +1054,13 @@ public class InventoryApp extends Application {
 		final Label userNameLabel = new Label("Neved:");
 		grid.add(userNameLabel, 0, 1);
 
+		scannerPrefixes = Settings.get("scanner.prefixes", "").trim().isEmpty()
+				? new String[0] : Settings.get("scanner.prefixes", "").trim().split("\\s*,\\s*");
 		final TextField userTextField = new TextField();
-		userTextField.setTooltip(new Tooltip("Ez a név kerül majd a leltár naplófájljába."));
+		userTextField.setTooltip(new Tooltip(scannerPrefixes.length > 1
+				? "Ez a név kerül majd a leltár naplófájljába. Több olvasó esetén vesszővel elválasztva, az olvasók sorrendjében ("
+						+ String.join(", ", scannerPrefixes) + ")."
+				: "Ez a név kerül majd a leltár naplófájljába."));
 		grid.add(userTextField, 1, 1);
 
 		final Label locationLabel = new Label("Helyszín: ");
@@ -463,10 +1077,31 @@ public class InventoryApp extends Application {
 			@Override
 			public void handle(ActionEvent e) {
 				if (!userTextField.getText().isEmpty() && locationChoiceBox.getSelectionModel().getSelectedItem() != null) {
-					operatorName = userTextField.getText();
+					final List<String> operatorNames = new ArrayList<String>();
+					if (scannerPrefixes.length > 1) {
+						for (String name : userTextField.getText().split(",")) {
+							if (!name.trim().isEmpty()) {
+								operatorNames.add(name.trim());
+							}
+						}
+					} else {
+						operatorNames.add(userTextField.getText());
+					}
+					if (operatorNames.isEmpty()) {
+						return;
+					}
+					if (operatorNames.size() > Math.max(1, scannerPrefixes.length)
+							|| new HashSet<String>(operatorNames).size() < operatorNames.size()) {
+						Alert alert = new Alert(AlertType.WARNING);
+						alert.setTitle("Bejelentkezés");
+						alert.setHeaderText("Olvasónként egy, egymástól különböző nevet kell megadni (legfeljebb "
+								+ scannerPrefixes.length + " olvasó).");
+						alert.showAndWait();
+						return;
+					}
 					location = locationChoiceBox.getSelectionModel().getSelectedItem().toString();
 					
-					initializeMainGUI();
+					initializeMainGUI(operatorNames);
 				}
 			}
 		});
@@ -485,6 +1120,18 @@ public class InventoryApp extends Application {
 		});
 		grid.add(createReportButton, 0, 4);
 		
+		if (!databaseReady) {
+			createReportButton.disableProperty().bind(databaseLoading);
+			
+			final ProgressBar loadProgress = new ProgressBar();
+			loadProgress.setMaxWidth(Double.MAX_VALUE);
+			loadProgress.progressProperty().bind(databaseLoadTask.progressProperty());
+			final Label loadLabel = new Label("Adatbázis betöltése... (addig is be lehet jelentkezni)");
+			final VBox loadBox = new VBox(5, loadLabel, loadProgress);
+			loadBox.visibleProperty().bind(databaseLoading);
+			grid.add(loadBox, 0, 5, 2, 1);
+		}
+		
 		BorderPane pane = new BorderPane();
 		pane.setPadding(new Insets(10));
 		pane.setCenter(grid);
@@ -499,23 +1146,17 @@ public class InventoryApp extends Application {
 	}
 
 	/**
-	 * Process log files and creates a summary and a report table output
+	 * Process log files and creates a summary and the report tables (see ReportCreator)
 	 */
 	private void reportCreator() {
 		final String startTimeString = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
 		final String concatFileName = startTimeString + "_leltár_részletes_adatok.csv";
-		final String reportFileName = startTimeString + "_leltár_eredmény.csv";
 		final File logDir = new File(basePath + "log");
 		final File reportDir = new File(basePath + "kimutatások");
 		BufferedWriter mergeWriter = null;
-		BufferedWriter reportWriter = null;
 		
-		Map<String, LogEntry> logItems = new HashMap<String, LogEntry>();
-		
-		/* prepare logItems by adding each database entry with null count */
-		for (DatabaseEntry dbEntry : db.getList()) {
-			logItems.put(dbEntry.getBarcode()+ "#" + dbEntry.getId(), new LogEntry(dbEntry.getBarcode(), 0, null, null, dbEntry));
-		}
+		final ReportCreator report = new ReportCreator(db);
+		report.setQuarantineFile(new File(reportDir, startTimeString + "_leltár_hibás_sorok.csv"));
 		
 		try {
 			if (!logDir.exists()) {
@@ -524,6 +1165,14 @@ public class InventoryApp extends Application {
 			if (!reportDir.exists()) {
 				reportDir.mkdir();
 			}
+			if (Settings.getBoolean("log.archive", false)) {
+				final Set<File> openFiles = new HashSet<File>();
+				for (ScanSession session : sessions) {
+					openFiles.add(new File(session.getLogger().getFileName()).getAbsoluteFile());
+				}
+				LogArchive.archiveClosedDays(logDir, startTimeString,
+						Settings.getInt("log.archiveQuietMinutes", 360) * 60000L, openFiles);
+			}
 			File[] filesList = logDir.listFiles();
 			Arrays.sort(filesList);
 			
@@ -532,76 +1181,40 @@ public class InventoryApp extends Application {
 		
 			for(File file : filesList) {
 				if (file.isFile() && file.toString().toLowerCase().endsWith(".csv")) {
-					BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
- 
-					String line;
-					while ((line = in.readLine()) != null) {
-						mergeWriter.write(line);
-						mergeWriter.newLine();
-					
-						if (!line.trim().isEmpty()) {
-							String[] values = new String[12];
-							String[] lineArray = line.trim()
-									.replace("\"\"", "۝")	// change escaped double quotes to a special character
-									.replace("\"", "")		// remove double quotes
-									.replace("۝", "\"")		// replace special character with one double quote character
-									.split("\t");			// split by tab characters
-							System.arraycopy(lineArray, 0, values, 0, lineArray.length);
-							String logKey = values[1] + "#" + values[7];
-							if (logItems.containsKey(logKey)) {
-								logItems.get(logKey).setCount(logItems.get(logKey).getCount() + Integer.parseInt(values[2]));
-							} else {
-								DatabaseEntry dbEntry = null;
-								if (db.getByBarcode(values[1]) != null) {
-									for (DatabaseEntry item : db.getByBarcode(values[1])) {
-										if (values[1].equals(item.getBarcode())) {
-											dbEntry = item;
-										}
-									}
-								}
-								
-								logItems.put(logKey, new LogEntry(
-									values[1], Integer.parseInt(values[2]), values[3], values[4], dbEntry
-								));
-							}
-						}
-					}
-
-					in.close();
-					mergeWriter.flush();
+					report.addLogFile(file, mergeWriter);
+				} else if (file.isFile() && LogArchive.isArchive(file)) {
+					report.addArchive(file, mergeWriter, Runtime.getRuntime().availableProcessors());
 				}
 			}
+			mergeWriter.close();
+			mergeWriter = null;
+			report.close();
 			
 			Alert alert = new Alert(AlertType.INFORMATION);
 			alert.setTitle("Naplófájlok összefűzve");
 			alert.setHeaderText("A log mappa naplófájljai sikeresen össze lettek fűzve az alábbi fájlba: " + concatFileName);
+			if (report.getQuarantinedLines() > 0) {
+				alert.setContentText("Hibás, a kimutatásból kihagyott sorok: " + report.getQuarantinedLines()
+						+ " (lásd: " + startTimeString + "_leltár_hibás_sorok.csv)");
+			}
 			alert.showAndWait();
 			
-			/* Create report (compare the summarized result) */
-			reportWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportDir.toString() + File.separator + reportFileName),"UTF-8"));
-			reportWriter.write("\"Cikkszám\"\t\"Vonalkód\"\t\"Norm. vonalkód\"\t\"Terméknév\"\t\"Kiadó\"\t\"Készlet sz. m.\"\t\"Talált db\"\t\"Eltérés\"");
-			reportWriter.newLine();
-			for (Map.Entry<String, LogEntry> entry : logItems.entrySet()) {
-				final LogEntry item = entry.getValue();
-				final Integer stockCount = item.getStockCount() != null ? item.getStockCount() : 0;
-
-				reportWriter.write(String.format("\"%1$s\"\t\"%2$s\"\t\"%3$s\"\t\"%4$s\"\t\"%5$s\"\t%6$d\t%7$d\t%8$s",
-						item.getProductId(),
-						item.getBarcode(),
-						item.getNormalizedBarcode(),
-						item.getName().replace("\"", "\"\""),
-						item.getPublisher(),
-						stockCount,
-						item.getCount(),
-						stockCount != item.getCount() ? "ELTÉR" : "OK"
-				));
-				reportWriter.newLine();
-			}
-			reportWriter.flush();
+			/* Create reports (compare the summarized result) */
+			final List<String> reportFiles = report.write(reportDir, startTimeString,
+					Settings.getInt("report.topN", 100),
+					Settings.getInt("report.sortMemoryRows", 200000));
+			reportFiles.addAll(ReportCreator.writeBreakdowns(new File(reportDir, concatFileName), reportDir, startTimeString,
+					Settings.getInt("report.threads", Runtime.getRuntime().availableProcessors())));
+			if (overlay.size() > 0) {
+				/* Products named by the operators, for the import into the ERP */
+				final String overlayExportName = startTimeString + "_leltár_új_termékek.csv";
+				overlay.export(new File(reportDir, overlayExportName));
+				reportFiles.add(overlayExportName);
+			}
 			
 			alert = new Alert(AlertType.INFORMATION);
 			alert.setTitle("Kimutatás elkészült");
-			alert.setHeaderText("A log mappa naplófájljaiból elkészült a kimutatás: " + reportFileName);
+			alert.setHeaderText("A log mappa naplófájljaiból elkészültek a kimutatások: " + String.join(", ", reportFiles));
 			alert.showAndWait();
 		} catch (Exception e) {
 			System.err.println("Kimutatások készítése sikertelen: " + e.getMessage());
@@ -615,10 +1228,8 @@ public class InventoryApp extends Application {
 				if (mergeWriter != null) {
 					mergeWriter.close();
 				}
-				if (reportWriter != null) {
-					reportWriter.close();
-				}
 			} catch (IOException e) {}
+			report.close();
 		}
 	}
 	
@@ -0,0 +1,63 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+/**
+ * Time of the last scan per barcode, for the double scan detection of the Logger
+ *
+ * The barcodes are encoded as numbers (see ScanDashboard.barcodeKey()) and stored in an open addressing table
+ * of primitive arrays, so a scan costs O(1) and no objects, however long the session is.
+ *
+ * @since 2026-10-19
+ */
+class LastSeenMap {
+	private long[] keys = new long[64];
+	private long[] times = new long[64];
+	private int size = 0;
+
+	/**
+	 * Stores the time of a scan
+	 * @param key  The barcode key (not 0)
+	 * @param time The time of the scan in milliseconds
+	 * @return The time of the previous scan of the barcode, or 0 if it was not scanned yet
+	 */
+	public long put(long key, long time) {
+		if (size * 2 >= keys.length) {
+			grow();
+		}
+		final int slot = slot(keys, key);
+		final long previous = times[slot];
+		if (keys[slot] == 0) {
+			keys[slot] = key;
+			size++;
+		}
+		times[slot] = time;
+		return previous;
+	}
+
+	private void grow() {
+		final long[] oldKeys = keys;
+		final long[] oldTimes = times;
+		keys = new long[oldKeys.length * 2];
+		times = new long[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				final int slot = slot(keys, oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				times[slot] = oldTimes[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot of the key, or the empty slot where it belongs
+	 */
+	private static int slot(long[] keys, long key) {
+		final int mask = keys.length - 1;
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+		while (keys[slot] != key && keys[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+}
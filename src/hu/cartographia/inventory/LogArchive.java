@@ -0,0 +1,732 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Archive of the log files of the closed days: one compressed, indexed bundle file per day
+ *
+ * The bundle starts with a header (magic, format version). It is followed by blocks: up to BLOCK_LINES lines of one
+ * log file, as UTF-8 text, deflate compressed. The footer lists the log files (name, modification time, blocks,
+ * number of lines), the blocks (file, offset, lengths, CRC32 checksum of the uncompressed data, number of the first
+ * line in the file, locations of the lines), and the blocks of every normalized barcode. The bundle ends with a
+ * trailer: the offset of the footer and the magic. A query of certain barcodes or locations reads only the blocks
+ * which contain them (see LogArchiveReader.selectBlocks()).
+ *
+ * archiveClosedDays() packs the log files of the days before today into "<date>.lbundle" files in the log directory,
+ * and deletes the log files (and their compact logs, see CompactLog) after the bundle has been read back. Log files
+ * which may still be written (open or recently modified) are left for a later run. ReportCreator and
+ * StockTakeComparison read the bundles like the log files.
+ *
+ * Usage:
+ *    LogArchive archive [log directory]
+ *    LogArchive export <bundle> <output.csv> [-b barcode]... [-l location]...
+ *
+ * @since 2026-10-19
+ */
+class LogArchive {
+	static final int MAGIC = 0x4C42444C;	// "LBDL"
+	static final int VERSION = 1;
+	static final int BLOCK_LINES = 4096;
+	static final String EXTENSION = ".lbundle";
+	/** Size of the header and of the trailer */
+	static final int HEADER_SIZE = 8;
+	static final int TRAILER_SIZE = 12;
+	/** Log files modified within this time are not archived by default */
+	static final long DEFAULT_QUIET_MILLIS = 6 * 60 * 60 * 1000L;
+	/** Extension of the log files being archived */
+	private static final String STAGING_EXTENSION = ".archiving";
+
+	/**
+	 * A block of the bundle
+	 */
+	static class Block {
+		final int file;
+		final long offset;
+		final int length;
+		final int compressedLength;
+		final long checksum;
+		/** Number of the first line of the block in its log file */
+		final long firstLine;
+		final int lines;
+		final String[] locations;
+
+		Block(int file, long offset, int length, int compressedLength, long checksum, long firstLine, int lines, String[] locations) {
+			this.file = file;
+			this.offset = offset;
+			this.length = length;
+			this.compressedLength = compressedLength;
+			this.checksum = checksum;
+			this.firstLine = firstLine;
+			this.lines = lines;
+			this.locations = locations;
+		}
+	}
+
+	private final DataOutputStream out;
+	private long offset = HEADER_SIZE;
+	private final List<String> fileNames = new ArrayList<String>();
+	private final List<Long> fileTimes = new ArrayList<Long>();
+	private final List<Block> blocks = new ArrayList<Block>();
+	/** Blocks by normalized barcode, in order */
+	private final Map<String, List<Integer>> barcodeBlocks = new HashMap<String, List<Integer>>();
+	private final LogRecordParser parser = new LogRecordParser();
+	private long lines = 0;
+
+	/* The block being written */
+	private final ByteArrayOutputStream block = new ByteArrayOutputStream(1 << 20);
+	private int blockLines = 0;
+	private long blockFirstLine = 1;
+	private final Set<String> blockBarcodes = new HashSet<String>();
+	private final Set<String> blockLocations = new TreeSet<String>();
+
+	/**
+	 * Creates a bundle file
+	 * @param file The bundle file
+	 * @throws IOException If the file can not be created
+	 */
+	public LogArchive(File file) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+
+	/**
+	 * Adds a log file to the bundle
+	 * @param file The log file
+	 * @throws IOException If reading or writing fails
+	 */
+	public void add(File file) throws IOException {
+		final int fileIndex = fileNames.size();
+		fileNames.add(file.getName());
+		fileTimes.add(file.lastModified());
+		final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 1 << 16);
+		try {
+			long lineNumber = 0;
+			blockFirstLine = 1;
+			String line;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				block.write(line.getBytes(StandardCharsets.UTF_8));
+				block.write('\n');
+				blockLines++;
+				if (parser.parse(line.trim())) {
+					final String normalized = parser.get(LogRecordParser.NORMALIZED_BARCODE);
+					final String barcode = parser.get(LogRecordParser.BARCODE);
+					blockBarcodes.add(normalized != null && !normalized.isEmpty() ? normalized
+							: DatabaseEntry.normalizeBarcode(barcode != null ? barcode : ""));
+					final String location = parser.get(LogRecordParser.LOCATION);
+					blockLocations.add(location != null ? location : "");
+				}
+				if (blockLines == BLOCK_LINES) {
+					writeBlock(fileIndex);
+					blockFirstLine = lineNumber + 1;
+				}
+			}
+			writeBlock(fileIndex);
+			lines += lineNumber;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Compresses and writes the lines of the block
+	 */
+	private void writeBlock(int fileIndex) throws IOException {
+		if (blockLines == 0) {
+			return;
+		}
+		final byte[] data = block.toByteArray();
+		final CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		deflater.setInput(data);
+		deflater.finish();
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4 + 64);
+		final byte[] chunk = new byte[8192];
+		while (!deflater.finished()) {
+			compressed.write(chunk, 0, deflater.deflate(chunk));
+		}
+		deflater.end();
+		compressed.writeTo(out);
+
+		final int blockIndex = blocks.size();
+		blocks.add(new Block(fileIndex, offset, data.length, compressed.size(), crc.getValue(), blockFirstLine, blockLines,
+				blockLocations.toArray(new String[0])));
+		offset += compressed.size();
+		for (String barcode : blockBarcodes) {
+			List<Integer> list = barcodeBlocks.get(barcode);
+			if (list == null) {
+				list = new ArrayList<Integer>(2);
+				barcodeBlocks.put(barcode, list);
+			}
+			list.add(blockIndex);
+		}
+		block.reset();
+		blockLines = 0;
+		blockBarcodes.clear();
+		blockLocations.clear();
+	}
+
+	/**
+	 * Writes the footer and closes the file
+	 * @throws IOException If writing fails
+	 */
+	public void close() throws IOException {
+		try {
+			out.writeInt(fileNames.size());
+			for (int i = 0; i < fileNames.size(); i++) {
+				out.writeUTF(fileNames.get(i));
+				out.writeLong(fileTimes.get(i));
+			}
+			out.writeInt(blocks.size());
+			for (Block b : blocks) {
+				out.writeInt(b.file);
+				out.writeLong(b.offset);
+				out.writeInt(b.length);
+				out.writeInt(b.compressedLength);
+				out.writeLong(b.checksum);
+				out.writeLong(b.firstLine);
+				out.writeInt(b.lines);
+				out.writeInt(b.locations.length);
+				for (String location : b.locations) {
+					out.writeUTF(location);
+				}
+			}
+			out.writeInt(barcodeBlocks.size());
+			for (Map.Entry<String, List<Integer>> entry : barcodeBlocks.entrySet()) {
+				out.writeUTF(entry.getKey());
+				CompactLog.writeVarLong(out, entry.getValue().size());
+				int previous = 0;
+				for (int blockIndex : entry.getValue()) {
+					CompactLog.writeVarLong(out, blockIndex - previous);
+					previous = blockIndex;
+				}
+			}
+			out.writeLong(offset);
+			out.writeInt(MAGIC);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns the number of lines written
+	 */
+	public long getLines() {
+		return lines;
+	}
+
+	/**
+	 * Returns true if the file is a bundle (by its name)
+	 */
+	static boolean isArchive(File file) {
+		return file.getName().toLowerCase().endsWith(EXTENSION);
+	}
+
+	/**
+	 * Packs the log files of the closed days into one bundle per day. A log file is not archived while it may
+	 * still be written: if it is one of the open files, or it has been modified recently (a session left open
+	 * after midnight still appends to the log file of the day before, SyncReceiver appends late lines to the file
+	 * of their day). Before they are deleted, the log files are renamed (this fails on Windows while a file is
+	 * open), and compared with the archived state; the log files of the day are kept if any of them has changed.
+	 * @param logDir      The log directory
+	 * @param today       The current day ("yyyy-MM-dd"), its log files are not archived
+	 * @param quietMillis Log files modified within this time are not archived
+	 * @param openFiles   Log files open by the caller, they are not archived
+	 * @return The created bundles
+	 * @throws IOException If reading, writing or deleting fails (the log files of the failed day are kept)
+	 */
+	public static List<File> archiveClosedDays(File logDir, String today, long quietMillis, Set<File> openFiles) throws IOException {
+		recoverStaged(logDir);
+		final Map<String, List<File>> days = new TreeMap<String, List<File>>();
+		final File[] files = logDir.listFiles();
+		if (files == null) {
+			return new ArrayList<File>();
+		}
+		final long quietSince = System.currentTimeMillis() - quietMillis;
+		for (File file : files) {
+			final String name = file.getName();
+			if (file.isFile() && name.toLowerCase().endsWith(".csv") && name.matches("\\d{4}-\\d{2}-\\d{2}_.*")
+					&& name.substring(0, 10).compareTo(today) < 0 && file.lastModified() < quietSince
+					&& !openFiles.contains(file.getAbsoluteFile())) {
+				List<File> dayFiles = days.get(name.substring(0, 10));
+				if (dayFiles == null) {
+					dayFiles = new ArrayList<File>();
+					days.put(name.substring(0, 10), dayFiles);
+				}
+				dayFiles.add(file);
+			}
+		}
+		final List<File> bundles = new ArrayList<File>();
+		for (Map.Entry<String, List<File>> day : days.entrySet()) {
+			bundles.add(archiveDay(logDir, day.getKey(), day.getValue()));
+		}
+		return bundles;
+	}
+
+	/**
+	 * Packs the log files of a day into a new bundle, and deletes them
+	 */
+	private static File archiveDay(File logDir, String date, List<File> dayFiles) throws IOException {
+		dayFiles.sort(null);
+		File bundle = new File(logDir, date + EXTENSION);
+		for (int n = 2; bundle.exists(); n++) {
+			bundle = new File(logDir, date + "_" + n + EXTENSION);	// Log files of the day added later
+		}
+		final long[] lengths = new long[dayFiles.size()];
+		final long[] times = new long[dayFiles.size()];
+		final File tmpFile = new File(logDir, bundle.getName() + ".tmp");
+		try {
+			final LogArchive archive = new LogArchive(tmpFile);
+			try {
+				for (int i = 0; i < dayFiles.size(); i++) {
+					lengths[i] = dayFiles.get(i).length();
+					times[i] = dayFiles.get(i).lastModified();
+					archive.add(dayFiles.get(i));
+				}
+			} finally {
+				archive.close();
+			}
+			/* Read back before the log files are deleted */
+			final LogArchiveReader reader = new LogArchiveReader(tmpFile);
+			try {
+				final long[] lines = new long[1];
+				reader.read(null, 1, (fileName, lineNumber, line) -> lines[0]++);
+				if (lines[0] != archive.getLines() || reader.getFileNames().size() != dayFiles.size()) {
+					throw new IOException("Az archívum visszaolvasása sikertelen: " + tmpFile);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			tmpFile.delete();
+			throw e;
+		}
+
+		/* Take the log files out of use, and check that they have not changed since they were read */
+		final List<File> compactFiles = new ArrayList<File>();
+		final List<File> stagedFiles = new ArrayList<File>();
+		try {
+			for (int i = 0; i < dayFiles.size(); i++) {
+				final File file = dayFiles.get(i);
+				final File staged = new File(file.getPath() + STAGING_EXTENSION);
+				compactFiles.addAll(Arrays.asList(CompactLog.listFor(file)));
+				if (!file.renameTo(staged)) {
+					throw new IOException("A naplófájl használatban van, nem archiválható: " + file);
+				}
+				stagedFiles.add(staged);
+				if (staged.length() != lengths[i] || staged.lastModified() != times[i]) {
+					throw new IOException("A naplófájl archiválás közben megváltozott: " + file);
+				}
+			}
+			if (!tmpFile.renameTo(bundle)) {
+				throw new IOException("Az archívum nem nevezhető át: " + bundle);
+			}
+		} catch (IOException e) {
+			for (int i = 0; i < stagedFiles.size(); i++) {
+				stagedFiles.get(i).renameTo(dayFiles.get(i));
+			}
+			tmpFile.delete();
+			throw e;
+		}
+		for (File file : stagedFiles) {
+			if (!file.delete()) {
+				throw new IOException("Az archivált naplófájl nem törölhető: " + file);
+			}
+		}
+		for (File file : compactFiles) {
+			if (!file.delete()) {
+				throw new IOException("Az archivált tömörített napló nem törölhető: " + file);
+			}
+		}
+		return bundle;
+	}
+
+	/**
+	 * Finishes an interrupted archiving: a renamed log file is deleted if a bundle of its day contains it (with the
+	 * same modification time), otherwise it is renamed back
+	 */
+	private static void recoverStaged(File logDir) throws IOException {
+		final File[] stagedFiles = logDir.listFiles((dir, name) -> name.endsWith(STAGING_EXTENSION));
+		if (stagedFiles == null) {
+			return;
+		}
+		for (File staged : stagedFiles) {
+			final String name = staged.getName().substring(0, staged.getName().length() - STAGING_EXTENSION.length());
+			boolean archived = false;
+			final File[] bundles = logDir.listFiles((dir, bundleName) -> bundleName.startsWith(name.substring(0, Math.min(10, name.length())))
+					&& bundleName.endsWith(EXTENSION));
+			for (int i = 0; bundles != null && i < bundles.length && !archived; i++) {
+				final LogArchiveReader reader = new LogArchiveReader(bundles[i]);
+				try {
+					for (int file = 0; file < reader.getFileNames().size(); file++) {
+						archived |= reader.getFileNames().get(file).equals(name) && reader.getFileTime(file) == staged.lastModified();
+					}
+				} finally {
+					reader.close();
+				}
+			}
+			if (archived ? !staged.delete() : !staged.renameTo(new File(logDir, name))) {
+				throw new IOException("Félbeszakadt archiválás, a fájl nem állítható helyre: " + staged);
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length >= 1 && args[0].equals("archive")) {
+			try {
+				final List<File> bundles = archiveClosedDays(new File(args.length >= 2 ? args[1] : "log"),
+						new SimpleDateFormat("yyyy-MM-dd").format(new Date()), DEFAULT_QUIET_MILLIS, new HashSet<File>());
+				for (File bundle : bundles) {
+					System.out.println(bundle.getPath());
+				}
+			} catch (IOException e) {
+				System.err.println("Archiválás sikertelen: " + e.getMessage());
+				System.exit(1);
+			}
+		} else if (args.length >= 3 && args[0].equals("export")) {
+			final Set<String> barcodes = new HashSet<String>();
+			final Set<String> locations = new HashSet<String>();
+			for (int i = 3; i + 1 < args.length; i += 2) {
+				if (args[i].equals("-b")) {
+					barcodes.add(DatabaseEntry.normalizeBarcode(args[i + 1]));
+				} else if (args[i].equals("-l")) {
+					locations.add(args[i + 1]);
+				}
+			}
+			try {
+				final LogArchiveReader reader = new LogArchiveReader(new File(args[1]));
+				final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[2]), "UTF-8"), 1 << 16);
+				try {
+					final BitSet selected = reader.selectBlocks(barcodes.isEmpty() ? null : barcodes, locations.isEmpty() ? null : locations);
+					final LogRecordParser parser = new LogRecordParser();
+					reader.read(selected, Runtime.getRuntime().availableProcessors(), (fileName, lineNumber, line) -> {
+						if (LogArchiveReader.matches(parser, line, barcodes.isEmpty() ? null : barcodes, locations.isEmpty() ? null : locations)) {
+							out.write(line);
+							out.write("\r\n");
+						}
+					});
+					System.out.println("Beolvasott blokkok: " + selected.cardinality() + " / " + reader.getBlockCount());
+				} finally {
+					out.close();
+					reader.close();
+				}
+			} catch (IOException e) {
+				System.err.println("Exportálás sikertelen: " + e.getMessage());
+				System.exit(1);
+			}
+		} else {
+			System.err.println("Használat: LogArchive archive [log könyvtár]\n"
+					+ "          LogArchive export <archívum> <kimeneti .csv fájl> [-b vonalkód]... [-l helyszín]...");
+			System.exit(1);
+		}
+	}
+}
+
+/**
+ * Reads a bundle of LogArchive. The blocks are decompressed in parallel, the lines are passed in order.
+ * @since 2026-10-19
+ */
+class LogArchiveReader {
+	/**
+	 * Receives the lines of the bundle
+	 */
+	interface LineVisitor {
+		/**
+		 * @param fileName   Name of the log file of the line
+		 * @param lineNumber Number of the line in the log file
+		 * @param line       The line, without line terminator
+		 */
+		void line(String fileName, long lineNumber, String line) throws IOException;
+	}
+
+	private final File file;
+	private final FileChannel channel;
+	private final List<String> fileNames = new ArrayList<String>();
+	private final List<Long> fileTimes = new ArrayList<Long>();
+	private final List<LogArchive.Block> blocks = new ArrayList<LogArchive.Block>();
+	/** Blocks by normalized barcode */
+	private final Map<String, int[]> barcodeBlocks = new HashMap<String, int[]>();
+
+	/**
+	 * Opens a bundle and reads its footer
+	 * @param file The bundle file
+	 * @throws IOException If reading fails or the file is not a complete bundle
+	 */
+	public LogArchiveReader(File file) throws IOException {
+		this.file = file;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			final long size = channel.size();
+			if (size < LogArchive.HEADER_SIZE + LogArchive.TRAILER_SIZE) {
+				throw new IOException("Hiányos archívum: " + file);
+			}
+			final ByteBuffer header = read(0, LogArchive.HEADER_SIZE);
+			final ByteBuffer trailer = read(size - LogArchive.TRAILER_SIZE, LogArchive.TRAILER_SIZE);
+			final long footerOffset = trailer.getLong();
+			if (header.getInt() != LogArchive.MAGIC || trailer.getInt() != LogArchive.MAGIC
+					|| footerOffset < LogArchive.HEADER_SIZE || footerOffset > size - LogArchive.TRAILER_SIZE) {
+				throw new IOException("Hibás vagy hiányos archívum: " + file);
+			}
+			if (header.getInt() > LogArchive.VERSION) {
+				throw new IOException("Ismeretlen archívum verzió: " + file);
+			}
+			final ByteBuffer footer = read(footerOffset, (int) (size - LogArchive.TRAILER_SIZE - footerOffset));
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(footer.array()));
+			final int files = in.readInt();
+			for (int i = 0; i < files; i++) {
+				fileNames.add(in.readUTF());
+				fileTimes.add(in.readLong());
+			}
+			final int blockCount = in.readInt();
+			for (int i = 0; i < blockCount; i++) {
+				final int fileIndex = in.readInt();
+				final long offset = in.readLong();
+				final int length = in.readInt();
+				final int compressedLength = in.readInt();
+				final long checksum = in.readLong();
+				final long firstLine = in.readLong();
+				final int lines = in.readInt();
+				final String[] locations = new String[in.readInt()];
+				for (int j = 0; j < locations.length; j++) {
+					locations[j] = StringPool.SHARED.intern(in.readUTF());
+				}
+				blocks.add(new LogArchive.Block(fileIndex, offset, length, compressedLength, checksum, firstLine, lines, locations));
+			}
+			final int barcodes = in.readInt();
+			for (int i = 0; i < barcodes; i++) {
+				final String barcode = in.readUTF();
+				final int[] barcodeBlockList = new int[(int) CompactLog.readVarLong(in)];
+				int previous = 0;
+				for (int j = 0; j < barcodeBlockList.length; j++) {
+					previous += (int) CompactLog.readVarLong(in);
+					barcodeBlockList[j] = previous;
+				}
+				barcodeBlocks.put(barcode, barcodeBlockList);
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads a part of the file (positional read, the channel may be used by more threads)
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Hiányos archívum: " + file);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Returns the names of the log files in the bundle, in order
+	 */
+	public List<String> getFileNames() {
+		return fileNames;
+	}
+
+	/**
+	 * Returns the modification time of a log file of the bundle
+	 */
+	public long getFileTime(int file) {
+		return fileTimes.get(file);
+	}
+
+	public int getBlockCount() {
+		return blocks.size();
+	}
+
+	/**
+	 * Returns the blocks which contain lines of the given barcodes and locations
+	 * @param barcodes  Normalized barcodes, or null for any barcode
+	 * @param locations Locations, or null for any location
+	 * @return The blocks to read
+	 */
+	public BitSet selectBlocks(Set<String> barcodes, Set<String> locations) {
+		final BitSet selected = new BitSet(blocks.size());
+		if (barcodes == null) {
+			selected.set(0, blocks.size());
+		} else {
+			for (String barcode : barcodes) {
+				final int[] barcodeBlockList = barcodeBlocks.get(barcode);
+				if (barcodeBlockList != null) {
+					for (int blockIndex : barcodeBlockList) {
+						selected.set(blockIndex);
+					}
+				}
+			}
+		}
+		if (locations != null) {
+			for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+				boolean found = false;
+				for (String location : blocks.get(i).locations) {
+					found |= locations.contains(location);
+				}
+				if (!found) {
+					selected.clear(i);
+				}
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Returns true if a log line belongs to the given barcodes and locations (the selected blocks may contain other lines too)
+	 * @param parser    Parser of the caller
+	 * @param barcodes  Normalized barcodes, or null for any barcode
+	 * @param locations Locations, or null for any location
+	 */
+	static boolean matches(LogRecordParser parser, String line, Set<String> barcodes, Set<String> locations) {
+		if (barcodes == null && locations == null) {
+			return true;
+		}
+		if (!parser.parse(line.trim())) {
+			return false;
+		}
+		if (locations != null && !locations.contains(parser.get(LogRecordParser.LOCATION))) {
+			return false;
+		}
+		if (barcodes != null) {
+			final String normalized = parser.get(LogRecordParser.NORMALIZED_BARCODE);
+			final String barcode = parser.get(LogRecordParser.BARCODE);
+			return barcodes.contains(normalized != null && !normalized.isEmpty() ? normalized
+					: DatabaseEntry.normalizeBarcode(barcode != null ? barcode : ""));
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the lines of blocks. The blocks are decompressed by several threads, the lines are passed in order.
+	 * @param selected    The blocks to read (see selectBlocks()), or null for every block
+	 * @param threadCount Number of worker threads
+	 * @param visitor     Receives the lines
+	 * @return Number of lines read
+	 * @throws IOException If reading fails or a block is corrupt
+	 */
+	public long read(BitSet selected, int threadCount, LineVisitor visitor) throws IOException {
+		if (selected == null) {
+			selected = new BitSet(blocks.size());
+			selected.set(0, blocks.size());
+		}
+		long lines = 0;
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+		try {
+			/* At most two blocks per thread are decompressed ahead */
+			final Deque<Future<String>> pending = new ArrayDeque<Future<String>>();
+			final Deque<Integer> pendingBlocks = new ArrayDeque<Integer>();
+			int next = selected.nextSetBit(0);
+			while (next >= 0 || !pending.isEmpty()) {
+				while (next >= 0 && pending.size() < Math.max(1, threadCount) * 2) {
+					pending.add(executor.submit(decompress(blocks.get(next))));
+					pendingBlocks.add(next);
+					next = selected.nextSetBit(next + 1);
+				}
+				final LogArchive.Block block = blocks.get(pendingBlocks.poll());
+				final String text;
+				try {
+					text = pending.poll().get();
+				} catch (ExecutionException e) {
+					throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				final String fileName = fileNames.get(block.file);
+				int start = 0;
+				for (int i = 0; i < block.lines; i++) {
+					final int end = text.indexOf('\n', start);
+					visitor.line(fileName, block.firstLine + i, text.substring(start, end));
+					start = end + 1;
+				}
+				lines += block.lines;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return lines;
+	}
+
+	/**
+	 * Returns the task which reads, decompresses and checks a block
+	 */
+	private Callable<String> decompress(final LogArchive.Block block) {
+		return new Callable<String>() {
+			@Override
+			public String call() throws IOException {
+				final ByteBuffer compressed = read(block.offset, block.compressedLength);
+				final byte[] data = new byte[block.length];
+				final Inflater inflater = new Inflater();
+				try {
+					inflater.setInput(compressed.array(), 0, block.compressedLength);
+					if (inflater.inflate(data, 0, block.length) != block.length) {
+						throw new IOException("Sérült blokk: " + file);
+					}
+				} catch (DataFormatException e) {
+					throw new IOException("Sérült blokk: " + file);
+				} finally {
+					inflater.end();
+				}
+				final CRC32 crc = new CRC32();
+				crc.update(data, 0, data.length);
+				if (crc.getValue() != block.checksum) {
+					throw new IOException("Hibás ellenőrzőösszeg: " + file);
+				}
+				return new String(data, StandardCharsets.UTF_8);
+			}
+		};
+	}
+
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {}
+	}
+}
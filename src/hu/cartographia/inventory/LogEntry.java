@@ -3,6 +3,7 @@
 package hu.cartographia.inventory;
  
 import java.util.Date;
+import java.util.List;
 import java.text.SimpleDateFormat;
 import javafx.beans.property.StringProperty;
 import javafx.beans.property.SimpleStringProperty;
@@ -16,6 +17,18 @@ import javafx.beans.property.SimpleIntegerProperty;
  */
 public class LogEntry {
     private boolean isCommited = false;
+    /** The product of a pending entry is not decided yet, so it can not be written to the log */
+    private boolean isPending = false;
+    /** Products with the scanned barcode, while the operator has not chosen from them */
+    private List<DatabaseEntry> candidates = null;
+    /** Catalogue generation the product was matched against (see Database.getGeneration()) */
+    private int catalogueGeneration = 0;
+    /** The barcode was scanned shortly before (see Logger.setDoubleScanWindow()) */
+    private boolean isDoubleScan = false;
+    /** Number of units in the scanned packaging (eg. a carton, see Database.getPackaging()), the counts are multiplied by it */
+    private int packSize = 1;
+    /** Number of the entry in the table of its session, in order of scanning (see Logger.indexOf()) */
+    private int sequence = 0;
     private Date timestamp;
     private DatabaseEntry data = null;
     
@@ -31,7 +44,7 @@ public class LogEntry {
         this.time = new SimpleDateFormat("HH:mm:ss").format(timestamp);
         this.barcode = new SimpleStringProperty(barcode);
         this.count = new SimpleIntegerProperty(count);
-        this.publicationDate = new SimpleStringProperty(publicationDate);
+        this.publicationDate = new SimpleStringProperty(StringPool.SHARED.intern(publicationDate));
         this.comment = new SimpleStringProperty(comment);
         this.data = dbEntry;
     }
@@ -68,12 +81,20 @@ public class LogEntry {
     public IntegerProperty countProperty() {
         return count;
     }
+    public int getPackSize() {
+        return packSize;
+    }
+    /** Sets the number of units in the scanned packaging, and multiplies the count by it */
+    public void setPackSize(int packSize) {
+        this.count.set(count.get() / this.packSize * packSize);
+        this.packSize = packSize;
+    }
 
     public String getPublicationDate() {
         return publicationDate.get();
     }
     public void setPublicationDate(String publicationDate) {
-        this.publicationDate.set(publicationDate);
+        this.publicationDate.set(StringPool.SHARED.intern(publicationDate));
     }
     public StringProperty publicationDateProperty() {
         return publicationDate;
@@ -108,6 +129,36 @@ public class LogEntry {
     public String getNormalizedBarcode() {
         return data != null ? data.getNormalizedBarcode() : "";
     }
+    public DatabaseEntry getDbEntry() {
+        return data;
+    }
+    public void setDbEntry(DatabaseEntry dbEntry) {
+        this.data = dbEntry;
+    }
+    public List<DatabaseEntry> getCandidates() {
+        return candidates;
+    }
+    public void setCandidates(List<DatabaseEntry> candidates) {
+        this.candidates = candidates;
+    }
+    public int getCatalogueGeneration() {
+        return catalogueGeneration;
+    }
+    public void setCatalogueGeneration(int catalogueGeneration) {
+        this.catalogueGeneration = catalogueGeneration;
+    }
+    public boolean isDoubleScan() {
+        return this.isDoubleScan;
+    }
+    public void setDoubleScan(boolean state) {
+        this.isDoubleScan = state;
+    }
+    public boolean isPending() {
+        return this.isPending;
+    }
+    public void setIsPending(boolean state) {
+        this.isPending = state;
+    }
     public boolean isCommited() {
         return this.isCommited;
     }
@@ -115,11 +166,19 @@ public class LogEntry {
         this.isCommited = state;
     }
 
+    public int getSequence() {
+        return sequence;
+    }
+    public void setSequence(int sequence) {
+        this.sequence = sequence;
+    }
+
     public Date getTimestamp() {
         return timestamp;
     }
     public void setTimestamp(Date timestamp) {
         this.timestamp = timestamp;
+        this.time = new SimpleDateFormat("HH:mm:ss").format(timestamp);
     }
  
 }
@@ -0,0 +1,184 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+/**
+ * Parses the lines of the log files (see Logger.formatLine)
+ *
+ * Values are separated by tabs, and they may be quoted. A doubled quote inside a quoted value is one quote
+ * character, a quote which is not followed by a tab or the end of the line is kept as it is (older versions
+ * did not escape the quotes of the comments). The count is parsed in place, without creating a substring.
+ * Lines of older versions may have fewer values; lines with a missing or invalid count, or with more than
+ * FIELD_COUNT values are rejected, see getError().
+ *
+ * An instance reuses its value array, so it must not be shared by threads, and the values must be read
+ * before parsing the next line.
+ *
+ * @since 2026-10-19
+ */
+class LogRecordParser {
+	/** Number of values of a log line */
+	public static final int FIELD_COUNT = 12;
+	public static final int TIMESTAMP = 0;
+	public static final int BARCODE = 1;
+	public static final int COUNT = 2;
+	public static final int COMMENT = 3;
+	public static final int PUBLICATION_DATE = 4;
+	public static final int LOCATION = 5;
+	public static final int OPERATOR = 6;
+	public static final int PRODUCT_ID = 7;
+	public static final int NAME = 8;
+	public static final int PUBLISHER = 9;
+	public static final int NORMALIZED_BARCODE = 10;
+	public static final int CATALOGUE_GENERATION = 11;
+
+	/** Values which repeat a lot, they are pooled */
+	private static final boolean[] POOLED = new boolean[FIELD_COUNT];
+	static {
+		for (int i : new int[] {PUBLICATION_DATE, LOCATION, OPERATOR, PUBLISHER}) {
+			POOLED[i] = true;
+		}
+	}
+
+	private final String[] values = new String[FIELD_COUNT];
+	private final StringBuilder buffer = new StringBuilder();
+	private int count;
+	private String error;
+
+	/**
+	 * Parses a line
+	 * @param line The line (without the line break)
+	 * @return False if the line is invalid (see getError())
+	 */
+	public boolean parse(String line) {
+		error = null;
+		int field = 0;
+		int countStart = -1;
+		int countEnd = -1;
+		final int length = line.length();
+		int pos = 0;
+		while (true) {
+			if (field == FIELD_COUNT) {
+				error = "Túl sok mező";
+				return false;
+			}
+			String value;
+			if (pos < length && line.charAt(pos) == '"') {
+				/* Quoted value */
+				buffer.setLength(0);
+				int start = ++pos;
+				boolean escaped = false;
+				while (true) {
+					final int quote = line.indexOf('"', pos);
+					if (quote < 0) {
+						error = "Lezáratlan idézőjel";
+						return false;
+					}
+					if (quote + 1 < length && line.charAt(quote + 1) == '"') {
+						/* Doubled quote */
+						buffer.append(line, start, quote + 1);
+						start = pos = quote + 2;
+						escaped = true;
+					} else if (quote + 1 == length || line.charAt(quote + 1) == '\t') {
+						if (escaped) {
+							value = buffer.append(line, start, quote).toString();
+						} else {
+							value = line.substring(start, quote);
+							if (field == COUNT) {
+								countStart = start;
+								countEnd = quote;
+							}
+						}
+						pos = quote + 1;
+						break;
+					} else {
+						/* Unescaped quote inside the value */
+						pos = quote + 1;
+					}
+				}
+			} else {
+				int end = line.indexOf('\t', pos);
+				if (end < 0) {
+					end = length;
+				}
+				if (field == COUNT) {
+					countStart = pos;
+					countEnd = end;
+					value = null;
+				} else {
+					value = line.substring(pos, end);
+				}
+				pos = end;
+			}
+			values[field] = POOLED[field] ? StringPool.SHARED.intern(value) : value;
+			field++;
+			if (pos >= length) {
+				break;
+			}
+			pos++;	// the tab
+		}
+
+		if (field <= COUNT || !parseCount(line, countStart, countEnd)) {
+			error = field <= COUNT ? "Hiányzó darabszám" : "Érvénytelen darabszám";
+			return false;
+		}
+		values[COUNT] = null;
+		for (int i = field; i < FIELD_COUNT; i++) {
+			values[i] = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Parses the count from the line, without creating a substring
+	 */
+	private boolean parseCount(String line, int start, int end) {
+		if (start < 0 || start >= end) {
+			return false;
+		}
+		boolean negative = false;
+		if (line.charAt(start) == '-') {
+			negative = true;
+			start++;
+			if (start == end) {
+				return false;
+			}
+		}
+		long result = 0;
+		for (int i = start; i < end; i++) {
+			final int digit = line.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return false;
+			}
+			result = result * 10 + digit;
+			if (result > Integer.MAX_VALUE) {
+				return false;
+			}
+		}
+		count = (int) (negative ? -result : result);
+		return true;
+	}
+
+	/**
+	 * Returns a value of the last parsed line
+	 * @param field Index of the value (eg. BARCODE)
+	 * @return The value, or null if the line has fewer values (the count is returned by getCount())
+	 */
+	public String get(int field) {
+		return values[field];
+	}
+
+	/**
+	 * Returns the count of the last parsed line
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns why the last line was rejected, or null
+	 */
+	public String getError() {
+		return error;
+	}
+}
@@ -3,23 +3,82 @@
 package hu.cartographia.inventory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
+import java.util.List;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
 /**
+ * Log of one operator (one scan session, see ScanSession): the entries of the table and the log file
+ *
+ * Not thread safe, it is used on the JavaFX thread. Sessions of a station have their own loggers, so they do not
+ * wait for each other.
  *
  * @since 2016-11-14
  * @author Báthory Péter <peter.bathory@cartographia.hu>
  */
 public class Logger {
 
+	/**
+	 * Receives every log line right after it has been written (and flushed) to the log file
+	 */
+	public interface CommitListener {
+		/**
+		 * @param entry The committed log entry
+		 * @param line  The line written to the log file, without line terminator
+		 */
+		void committed(LogEntry entry, String line) throws Exception;
+	}
+
+	/**
+	 * Receives the lines of the log file read by resume()
+	 */
+	public interface ResumeListener {
+		/**
+		 * @param normalizedBarcode The normalized barcode of the line
+		 * @param count             The count of the line
+		 * @param inDb              True if the product was found in the database
+		 */
+		void resumed(String normalizedBarcode, int count, boolean inDb);
+	}
+
+	/** Prefix of the comment of a double scan in the log file */
+	public static final String DOUBLE_SCAN_TAG = "[dupla beolvasás]";
+	/** Extension of the file of the closed entries which are held back, added to the name of the log file */
+	static final String PENDING_EXTENSION = ".pending";
+
 	public final ObservableList<LogEntry> logEntries = FXCollections.observableArrayList();
+	/** Entries which are not editable anymore, but not written yet, in order of scanning */
+	private final Deque<LogEntry> closedEntries = new ArrayDeque<LogEntry>();
+	/** Number of the closed entries saved in the pending file (the first ones of closedEntries) */
+	private int savedClosedEntries = 0;
 	
 	private BufferedWriter logWriter = null;
+	private String fileName;
 	private String operatorName;
 	private String location;
+	private final List<CommitListener> commitListeners = new ArrayList<CommitListener>();
+	/** Current catalogue generation, stored in the new and the resolved entries */
+	private int catalogueGeneration = 0;
+	/** Time of the last scan per barcode */
+	private final LastSeenMap lastSeen = new LastSeenMap();
+	/** A barcode scanned again within this time is a double scan (0: no detection) */
+	private long doubleScanMillis = 0;
+	/** Time source of the new entries, null for the system time */
+	private Clock clock = null;
+	/** The scans of the session by barcode */
+	private final SessionIndex index = new SessionIndex();
 	
 	public Logger(String path, String operatorName, String location) throws Exception {
 		this.operatorName = operatorName;
@@ -31,6 +90,8 @@ public class Logger {
 				logDir.getPath() + File.separatorChar
 				+ startTimeString + "_" + operatorName + "_" + location + ".csv";
 
+		this.fileName = fileNameAndPath;
+
 		try {
 			if (!logDir.exists()) {
 				logDir.mkdir();
@@ -41,34 +102,493 @@ public class Logger {
 		}
 	}
 	
+	public String getOperatorName() {
+		return operatorName;
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * Returns the scans of the session by barcode
+	 */
+	public SessionIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the row of an entry in the table (logEntries), without searching it
+	 */
+	public int indexOf(LogEntry entry) {
+		return logEntries.size() - 1 - entry.getSequence();
+	}
+
+	/** Returns the name (with path) of the log file */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Sets the catalogue generation, which the next scans are matched against
+	 * @param catalogueGeneration See Database.getGeneration()
+	 */
+	public void setCatalogueGeneration(int catalogueGeneration) {
+		this.catalogueGeneration = catalogueGeneration;
+	}
+
+	/**
+	 * Sets the time window of the double scan detection: a barcode scanned again within the window is flagged
+	 * (see LogEntry.isDoubleScan()), and tagged in the comment of the log line
+	 * @param millis The window in milliseconds, 0 disables the detection
+	 */
+	public void setDoubleScanWindow(long millis) {
+		this.doubleScanMillis = millis;
+	}
+
+	/**
+	 * Sets the time source of the new entries, eg. the recorded times of a replayed log (see ScanReplay)
+	 * @param clock The clock, null for the system time
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Continues an earlier session of the same day, operator and location (eg. after a restart of the application).
+	 * The log file is memory-mapped and scanned once: the barcodes and counts of every line are passed to the
+	 * listener without decoding the lines, and the last maxEntries lines are parsed into the table (as committed
+	 * entries, so they are not written again). Must be called before the first scan.
+	 * The entries which were held back when the earlier session ended (see savePendingFile()) are written to the log
+	 * then, as they are (a pending choice of the product is lost, the scan is logged without a product).
+	 * @param maxEntries Number of entries shown in the table
+	 * @param listener   Receives every line (may be null)
+	 * @return Number of the lines in the log file (with the written held back entries)
+	 * @throws Exception If reading the log file fails
+	 */
+	public int resume(int maxEntries, ResumeListener listener) throws Exception {
+		final int lines = resumeLog(maxEntries, listener);
+		return lines + replayPendingFile();
+	}
+
+	private int resumeLog(int maxEntries, ResumeListener listener) throws Exception {
+		final File file = new File(fileName);
+		if (file.length() == 0) {
+			return 0;
+		}
+		/* The mapped file is scanned in place (absolute gets), only the last lines are copied to strings,
+		 * so the heap does not grow with the size of the log. The mapping stays valid after closing the file. */
+		final MappedByteBuffer buffer;
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} catch (IOException e) {
+			throw new Exception("A naplófájl nem olvasható:\n" + fileName + "\n" + e.getMessage());
+		} finally {
+			raf.close();
+		}
+
+		final ResumeListener indexingListener = new ResumeListener() {
+			@Override
+			public void resumed(String normalizedBarcode, int count, boolean inDb) {
+				index.addCount(normalizedBarcode, count);
+				if (listener != null) {
+					listener.resumed(normalizedBarcode, count, inDb);
+				}
+			}
+		};
+		/* Start offsets of the last maxEntries lines */
+		final int[] lastStarts = new int[Math.max(1, maxEntries)];
+		final int[] lastEnds = new int[lastStarts.length];
+		int lines = 0;
+		final int limit = buffer.limit();
+		/* Start offsets of the values of the line, see LogRecordParser */
+		final int[] fieldStarts = new int[LogRecordParser.FIELD_COUNT + 1];
+		int start = 0;
+		while (start < limit) {
+			int end = start;
+			int fields = 0;
+			fieldStarts[fields++] = start;
+			byte b;
+			while (end < limit && (b = buffer.get(end)) != '\n') {
+				if (b == '\t' && fields <= LogRecordParser.FIELD_COUNT) {
+					fieldStarts[fields++] = end + 1;
+				}
+				end++;
+			}
+			final int next = end + 1;
+			if (end > start && buffer.get(end - 1) == '\r') {
+				end--;
+			}
+			if (end > start && fields > LogRecordParser.COUNT) {
+				lastStarts[lines % lastStarts.length] = start;
+				lastEnds[lines % lastEnds.length] = end;
+				lines++;
+				resumeLine(buffer, fieldStarts, fields, end, indexingListener);
+			}
+			start = next;
+		}
+
+		/* The last lines, newest first */
+		final LogRecordParser parser = new LogRecordParser();
+		final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		final List<LogEntry> entries = new ArrayList<LogEntry>();
+		for (int i = lines - 1; i >= Math.max(0, lines - maxEntries); i--) {
+			final int lineStart = lastStarts[i % lastStarts.length];
+			final byte[] line = new byte[lastEnds[i % lastEnds.length] - lineStart];
+			final ByteBuffer view = buffer.duplicate();
+			view.position(lineStart);
+			view.get(line);
+			if (!parser.parse(new String(line, StandardCharsets.UTF_8))) {
+				continue;
+			}
+			final LogEntry entry = parseEntry(parser, timestampFormat);
+			entry.setIsCommited(true);
+			entries.add(entry);
+		}
+		for (int i = entries.size() - 1; i >= 0; i--) {
+			entries.get(i).setSequence(entries.size() - 1 - i);
+			index.addCounted(entries.get(i));
+		}
+		logEntries.addAll(entries);
+		return lines;
+	}
+
+	/**
+	 * Creates an entry from a parsed log line
+	 */
+	private static LogEntry parseEntry(LogRecordParser parser, SimpleDateFormat timestampFormat) {
+		final String productId = parser.get(LogRecordParser.PRODUCT_ID);
+		final String name = parser.get(LogRecordParser.NAME);
+		final String barcode = parser.get(LogRecordParser.BARCODE);
+		final DatabaseEntry dbEntry = productId != null && !productId.isEmpty()
+				? new DatabaseEntry(name != null ? name : "", parser.get(LogRecordParser.PUBLISHER), null, productId, barcode)
+				: null;
+		String comment = parser.get(LogRecordParser.COMMENT);
+		final boolean doubleScan = comment != null && comment.startsWith(DOUBLE_SCAN_TAG);
+		if (doubleScan) {
+			comment = comment.substring(DOUBLE_SCAN_TAG.length()).trim();
+		}
+		final LogEntry entry = new LogEntry(barcode, parser.getCount(), comment,
+				parser.get(LogRecordParser.PUBLICATION_DATE), dbEntry);
+		entry.setDoubleScan(doubleScan);
+		try {
+			entry.setTimestamp(timestampFormat.parse(parser.get(LogRecordParser.TIMESTAMP)));
+		} catch (ParseException e) {}
+		final String generation = parser.get(LogRecordParser.CATALOGUE_GENERATION);
+		if (generation != null && generation.matches("\\d{1,9}")) {
+			entry.setCatalogueGeneration(Integer.parseInt(generation));
+		}
+		return entry;
+	}
+
+	/**
+	 * Writes the entries of the pending file left by the earlier session, and deletes the file
+	 * @return Number of the written entries
+	 */
+	private int replayPendingFile() throws Exception {
+		final File pendingFile = new File(fileName + PENDING_EXTENSION);
+		if (!pendingFile.exists()) {
+			return 0;
+		}
+		final LogRecordParser parser = new LogRecordParser();
+		final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		int count = 0;
+		try {
+			for (String line : Files.readAllLines(pendingFile.toPath(), StandardCharsets.UTF_8)) {
+				if (line.trim().isEmpty() || !parser.parse(line.trim())) {
+					continue;
+				}
+				final LogEntry entry = parseEntry(parser, timestampFormat);
+				entry.setSequence(logEntries.size());
+				index.add(entry);
+				logEntries.add(0, entry);
+				write(entry);
+				count++;
+			}
+		} catch (IOException e) {
+			throw new Exception("A visszatartott bejegyzések fájlja nem olvasható:\n" + pendingFile + "\n" + e.getMessage());
+		}
+		pendingFile.delete();
+		return count;
+	}
+
+	/**
+	 * Passes the barcode and count of a log line to the listener. Only the barcode is decoded.
+	 * @param fieldStarts Start offsets of the values
+	 * @param fields      Number of the values
+	 * @param end         End of the line
+	 */
+	private static void resumeLine(ByteBuffer buffer, int[] fieldStarts, int fields, int end, ResumeListener listener) {
+		/* Count, parsed in place */
+		int pos = fieldStarts[LogRecordParser.COUNT];
+		final int countEnd = fieldEnd(fieldStarts, fields, LogRecordParser.COUNT, end);
+		boolean negative = false;
+		if (pos < countEnd && buffer.get(pos) == '-') {
+			negative = true;
+			pos++;
+		}
+		if (pos >= countEnd) {
+			return;
+		}
+		long count = 0;
+		for (; pos < countEnd; pos++) {
+			final int digit = buffer.get(pos) - '0';
+			if (digit < 0 || digit > 9 || count > Integer.MAX_VALUE) {
+				return;
+			}
+			count = count * 10 + digit;
+		}
+
+		/* Normalized barcode (older logs and unknown products do not have it, then the barcode is normalized) */
+		final StringBuilder barcode = new StringBuilder(14);
+		boolean normalized = fields > LogRecordParser.NORMALIZED_BARCODE;
+		if (normalized) {
+			appendValue(buffer, fieldStarts[LogRecordParser.NORMALIZED_BARCODE],
+					fieldEnd(fieldStarts, fields, LogRecordParser.NORMALIZED_BARCODE, end), barcode);
+			normalized = barcode.length() > 0;
+		}
+		if (!normalized) {
+			appendValue(buffer, fieldStarts[LogRecordParser.BARCODE], fieldEnd(fieldStarts, fields, LogRecordParser.BARCODE, end), barcode);
+		}
+		/* The product id is empty ("") if the product was not found */
+		final boolean inDb = fields > LogRecordParser.PRODUCT_ID
+				&& fieldEnd(fieldStarts, fields, LogRecordParser.PRODUCT_ID, end) - fieldStarts[LogRecordParser.PRODUCT_ID] > 2;
+		listener.resumed(normalized ? barcode.toString() : DatabaseEntry.normalizeBarcode(barcode.toString()),
+				(int) (negative ? -count : count), inDb);
+	}
+
+	/**
+	 * Appends a value of a log line without its quotes (the barcodes are ASCII)
+	 */
+	private static void appendValue(ByteBuffer buffer, int start, int end, StringBuilder value) {
+		for (int pos = start; pos < end; pos++) {
+			final byte b = buffer.get(pos);
+			if (b != '"') {
+				value.append((char) (b & 0xFF));
+			}
+		}
+	}
+
+	/**
+	 * Returns the end offset of a value of a log line (the offset of the tab after it)
+	 */
+	private static int fieldEnd(int[] fieldStarts, int fields, int field, int end) {
+		return field + 1 < fields ? fieldStarts[field + 1] - 1 : end;
+	}
+
+	/**
+	 * Registers a listener, which will be notified about every line written to the log
+	 * @param listener The listener to add
+	 */
+	public void addCommitListener(CommitListener listener) {
+		commitListeners.add(listener);
+	}
+
+	/**
+	 * Formats a log entry as a line of the log file (without line terminator)
+	 * @param entry        The log entry
+	 * @param location     Name of the location
+	 * @param operatorName Name of the operator
+	 * @return The tab separated log line
+	 */
+	public static String formatLine(LogEntry entry, String location, String operatorName) {
+		String comment = entry.getComment();
+		if (entry.isDoubleScan()) {
+			comment = comment == null || comment.isEmpty() ? DOUBLE_SCAN_TAG : DOUBLE_SCAN_TAG + " " + comment;
+		}
+		return formatLine(entry.getTimestamp(), entry.getBarcode(), entry.getCount(), comment,
+				entry.getPublicationDate(), location, operatorName, entry.getProductId(), entry.getName(),
+				entry.getPublisher(), entry.getNormalizedBarcode(), entry.getCatalogueGeneration());
+	}
+
+	/** @see Logger#formatLine(LogEntry, String, String) */
+	public static String formatLine(Date timestamp, String barcode, int count, String comment, String publicationDate,
+			String location, String operatorName, String productId, String name, String publisher, String normalizedBarcode,
+			int catalogueGeneration) {
+		return formatLine(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(timestamp), barcode, count, comment,
+				publicationDate, location, operatorName, productId, name, publisher, normalizedBarcode, catalogueGeneration);
+	}
+
+	/**
+	 * Formats a log line with a formatted timestamp ("yyyy-MM-dd HH:mm:ss"), eg. for many lines of the same time
+	 * (see HandheldImport). The line is built without a format string, it is called for every imported line.
+	 * @see Logger#formatLine(LogEntry, String, String)
+	 */
+	public static String formatLine(String timeStamp, String barcode, int count, String comment, String publicationDate,
+			String location, String operatorName, String productId, String name, String publisher, String normalizedBarcode,
+			int catalogueGeneration) {
+		final StringBuilder line = new StringBuilder(160);
+		line.append(timeStamp).append("\t\"").append(barcode).append("\"\t").append(count)
+			.append("\t\"").append(comment != null ? comment.replace("\"", "\"\"") : "").append("\"\t")
+			.append(publicationDate != null ? publicationDate : "")
+			.append("\t\"").append(location).append("\"\t\"").append(operatorName)
+			.append("\"\t\"").append(productId).append("\"\t\"").append(name.replace("\"", "\"\""))
+			.append("\"\t\"").append(publisher).append("\"\t\"").append(normalizedBarcode)
+			.append("\"\t").append(catalogueGeneration);
+		return line.toString();
+	}
+
+	/**
+	 * Closes the active (first) entry, and writes the closed entries to the log, until the first pending one
+	 */
 	private void writeToLog() throws Exception {
 		if (logWriter == null || logEntries.size() == 0) {
 			return;
 		}
+		final LogEntry activeEntry = logEntries.get(0);
+		if (!activeEntry.isCommited() && !closedEntries.contains(activeEntry)) {
+			closedEntries.add(activeEntry);
+		}
+		writeClosedEntries(false);
+	}
+
+	/**
+	 * Writes the closed entries in order
+	 * @param force Write the pending entries too (as they are), used when the log is closed
+	 */
+	private void writeClosedEntries(boolean force) throws Exception {
+		int written = 0;
+		while (!closedEntries.isEmpty() && (force || !closedEntries.peekFirst().isPending())) {
+			write(closedEntries.pollFirst());
+			written++;
+		}
+		savePendingFile(written > 0);
+	}
+
+	/**
+	 * Saves the closed entries which are held back by a pending entry, so they are not lost if the application
+	 * stops (see resume()). The new entries are appended to the file, it is rewritten only when some of its
+	 * entries have been written to the log, and deleted when every entry has been written.
+	 * @param drained True if entries have been written to the log since the last call
+	 */
+	private void savePendingFile(boolean drained) throws Exception {
+		final File pendingFile = new File(fileName + PENDING_EXTENSION);
+		if (closedEntries.isEmpty()) {
+			if (savedClosedEntries > 0) {
+				pendingFile.delete();
+			}
+			savedClosedEntries = 0;
+			return;
+		}
+		if (!drained && savedClosedEntries == closedEntries.size()) {
+			return;
+		}
 		try {
-			final LogEntry newLogEntry = logEntries.get(0);
-			
-			String timeStamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(newLogEntry.getTimestamp());
-			logWriter.write(String.format(
-				"%1$s\t\"%2$s\"\t%3$s\t\"%4$s\"\t%5$s\t\"%6$s\"\t\"%7$s\"\t\"%8$s\"\t\"%9$s\"\t\"%10$s\"\t\"%11$s\"\r\n",
-				timeStamp,
-				newLogEntry.getBarcode(),
-				newLogEntry.getCount(),
-				newLogEntry.getComment(),
-				newLogEntry.getPublicationDate() != null ? newLogEntry.getPublicationDate() : "",
-				location,
-				operatorName,
-				newLogEntry.getProductId(),
-				newLogEntry.getName().replace("\"", "\"\""),
-				newLogEntry.getPublisher(),
-				newLogEntry.getNormalizedBarcode()
-			));
+			final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(pendingFile, !drained), "UTF-8"));
+			try {
+				int i = 0;
+				for (LogEntry entry : closedEntries) {
+					if (drained || i++ >= savedClosedEntries) {
+						out.write(formatLine(entry, location, operatorName));
+						out.write("\r\n");
+					}
+				}
+			} finally {
+				out.close();
+			}
+			savedClosedEntries = closedEntries.size();
+		} catch (IOException e) {
+			throw new Exception("A visszatartott bejegyzések mentése sikertelen: " + e.getMessage());
+		}
+	}
+
+	private void write(LogEntry newLogEntry) throws Exception {
+		if (newLogEntry.isCommited()) {
+			return;
+		}
+		final String line = formatLine(newLogEntry, location, operatorName);
+		try {
+			logWriter.write(line);
+			logWriter.write("\r\n");
 			logWriter.flush();
 			
 			newLogEntry.setIsCommited(true);
 		} catch (IOException e) {
 			throw new Exception("Naplófálj írása sikertelen: " + e.getMessage());
 		}
+		for (CommitListener listener : commitListeners) {
+			try {
+				listener.committed(newLogEntry, line);
+			} catch (Exception e) {
+				System.err.println("Naplóbejegyzés továbbítása sikertelen: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the entry is the active entry or a closed, not written entry of this log
+	 * (eg. a pending entry waiting for a decision)
+	 */
+	public boolean owns(LogEntry entry) {
+		if (logEntries.size() > 0 && logEntries.get(0) == entry) {
+			return true;
+		}
+		for (LogEntry closedEntry : closedEntries) {
+			if (closedEntry == entry) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the product of a pending entry. The entry (and the closed entries after it) can be written to the log now.
+	 * @param entry   A pending entry
+	 * @param dbEntry The product, or null if it is not in the database
+	 * @throws Exception If writing the log fails
+	 */
+	public void resolve(LogEntry entry, DatabaseEntry dbEntry) throws Exception {
+		if (dbEntry != null) {
+			entry.setBarcode(dbEntry.getBarcode());
+		}
+		entry.setDbEntry(dbEntry);
+		entry.setCatalogueGeneration(catalogueGeneration);
+		entry.setIsPending(false);
+		writeClosedEntries(false);
+	}
+
+	/**
+	 * Starts a new entry without a scanned barcode (eg. the product was entered by its product id)
+	 * @param code    The entered code, logged as barcode if there is no product
+	 * @param dbEntry The product, or null if it is not known yet
+	 * @return The new entry
+	 * @throws Exception If writing the log fails
+	 */
+	public LogEntry parseProduct(String code, DatabaseEntry dbEntry) throws Exception {
+		return newEntry(code, dbEntry);
+	}
+
+	/**
+	 * Flushes the previous entry and starts a new one
+	 */
+	private LogEntry newEntry(String barcode, DatabaseEntry dbEntry) throws Exception {
+		// New barcode has been entered, flush the previous one
+		writeToLog();
+
+		// Set the new barcode
+		final LogEntry entry;
+		if (dbEntry != null) {
+			entry = new LogEntry(dbEntry.getBarcode(), dbEntry);
+		} else {
+			entry = new LogEntry(barcode, null);
+		}
+		if (clock != null) {
+			entry.setTimestamp(new Date(clock.millis()));
+		}
+		entry.setCatalogueGeneration(catalogueGeneration);
+		if (doubleScanMillis > 0) {
+			final long key = ScanDashboard.barcodeKey(dbEntry != null ? dbEntry.getNormalizedBarcode() : DatabaseEntry.normalizeBarcode(barcode));
+			if (key != 0) {
+				final long time = entry.getTimestamp().getTime();
+				final long previous = lastSeen.put(key, time);
+				entry.setDoubleScan(previous != 0 && time - previous <= doubleScanMillis);
+			}
+		}
+		entry.setSequence(logEntries.size());
+		index.add(entry);
+		logEntries.add(0, entry);
+		return entry;
 	}
 
 	public LogEntry parseInput(String input, DatabaseEntry dbEntry) throws Exception {
@@ -80,21 +600,12 @@ public class Logger {
 		if (input.matches("[-ö_\\d]+")) {	// Barcode
 			String barcode = input.replace("ö", "0").replace("-", "");
 			if (barcode.length() >= 8) {
-				// New barcode has been entered, flush the previous one
-				writeToLog();
-
-				// Set the new barcode
-				if (dbEntry != null) {
-					lastLogEntry = new LogEntry(dbEntry.getBarcode(), dbEntry);
-				} else {
-					lastLogEntry = new LogEntry(barcode, null);
-				}
-				logEntries.add(0, lastLogEntry);
-			} else if (lastLogEntry != null) {
+				lastLogEntry = newEntry(barcode, dbEntry);
+			} else if (lastLogEntry != null && !lastLogEntry.isCommited()) {
 				try {
 					Integer num = Integer.parseInt(input);
-					if (num < 1900) {	// Count
-						lastLogEntry.setCount(num);
+					if (num < 1900) {	// Count (of packagings, if a packaging was scanned)
+						lastLogEntry.setCount(num * lastLogEntry.getPackSize());
 					} else if (num < 2100) {	// Publication year
 						lastLogEntry.setPublicationDate(num.toString());
 					}
@@ -102,7 +613,7 @@ public class Logger {
 					return null;
 				}
 			}
-		} else if (lastLogEntry != null) {	// Comment
+		} else if (lastLogEntry != null && !lastLogEntry.isCommited()) {	// Comment
 			lastLogEntry.setComment(input);
 		}
 		return lastLogEntry;
@@ -112,6 +623,7 @@ public class Logger {
 		if (logWriter != null) {
 			try {
 				writeToLog();
+				writeClosedEntries(true);
 				logWriter.close();
 			} catch (Exception e) {
 				System.err.println("Naplófájl bezárása sikertelen!");
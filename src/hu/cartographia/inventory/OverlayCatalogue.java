@@ -0,0 +1,148 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Products named by the operators, which are not in the database file
+ *
+ * The products are appended to a local file (overlay.csv) in the format of the database file, and indexed in
+ * memory by the normalized barcode. A barcode named again replaces the earlier name (the later line wins when the
+ * file is read). The database returns these products for the barcodes it does not know (see Database.setOverlay()),
+ * so the later scans and the report recognize them. export() writes the products in the format of the database
+ * file, for the import into the ERP.
+ *
+ * @since 2026-10-19
+ */
+class OverlayCatalogue {
+	private final File file;
+	/** Products by normalized barcode, in order of naming */
+	private final Map<String, DatabaseEntry> entries = new LinkedHashMap<String, DatabaseEntry>();
+	private BufferedWriter writer = null;
+
+	/**
+	 * @param file The overlay file (created at the first product)
+	 */
+	public OverlayCatalogue(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Reads the overlay file. A missing file is an empty overlay.
+	 * @throws Exception If reading fails
+	 */
+	public void load() throws Exception {
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			Database.parseFile(file.getPath(), new Database.RowHandler() {
+				@Override
+				public void row(String barcode, String name, String publisher, String stockCount, String id) {
+					if (!barcode.isEmpty() && !name.isEmpty()) {
+						put(new DatabaseEntry(name, publisher, null, id, barcode));
+					}
+				}
+			}, null);
+		} catch (IOException e) {
+			throw new Exception("\"" + file.getPath() + "\" fájl olvasása sikertelen: " + e.getMessage());
+		}
+	}
+
+	private void put(DatabaseEntry item) {
+		entries.remove(item.getNormalizedBarcode());	// Keeps the order of the latest naming
+		entries.put(item.getNormalizedBarcode(), item);
+	}
+
+	/**
+	 * Returns the product of a normalized barcode
+	 * @return The product in a list (like Database.getByBarcode()), or null
+	 */
+	public List<DatabaseEntry> getByBarcode(String barcode) {
+		final DatabaseEntry item = entries.get(barcode);
+		return item != null ? Collections.singletonList(item) : null;
+	}
+
+	/**
+	 * Names a product, and appends it to the overlay file
+	 * @param barcode   The scanned barcode
+	 * @param name      Name of the product
+	 * @param publisher Publisher (may be empty)
+	 * @param id        Product id (may be empty)
+	 * @return The new product
+	 * @throws Exception If writing the file fails
+	 */
+	public DatabaseEntry add(String barcode, String name, String publisher, String id) throws Exception {
+		final DatabaseEntry item = new DatabaseEntry(clean(name), StringPool.SHARED.intern(clean(publisher)), null, clean(id), barcode);
+		try {
+			if (writer == null) {
+				writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+			}
+			write(writer, item);
+			writer.flush();
+		} catch (IOException e) {
+			throw new Exception("\"" + file.getPath() + "\" fájl írása sikertelen: " + e.getMessage());
+		}
+		put(item);
+		return item;
+	}
+
+	/**
+	 * Removes the characters which would break the line
+	 */
+	private static String clean(String value) {
+		return value != null ? value.replaceAll("[\\t\\r\\n]+", " ").trim() : "";
+	}
+
+	/**
+	 * Writes a product as a line of the database file
+	 */
+	private static void write(BufferedWriter out, DatabaseEntry item) throws IOException {
+		out.write(item.getBarcode() + "\t\"" + item.getName().replace("\"", "\"\"") + "\"\t\""
+				+ item.getPublisher().replace("\"", "\"\"") + "\"\t\t\"" + item.getId().replace("\"", "\"\"") + "\"");
+		out.write("\r\n");
+	}
+
+	public Collection<DatabaseEntry> getEntries() {
+		return entries.values();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Writes the products (the latest name of every barcode) in the format of the database file
+	 * @param exportFile The output file
+	 * @throws IOException If writing fails
+	 */
+	public void export(File exportFile) throws IOException {
+		final BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(exportFile), "UTF-8"));
+		try {
+			for (DatabaseEntry item : entries.values()) {
+				write(out, item);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public void close() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {}
+			writer = null;
+		}
+	}
+}
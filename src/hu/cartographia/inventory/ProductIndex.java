@@ -0,0 +1,74 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Secondary hash index of the products in the heap (eg. by product id or publisher)
+ *
+ * A key with one product (the usual case for unique keys) stores the product itself, only keys shared by
+ * more products get a set, so a unique index costs one map entry per product. The sets keep the order of
+ * addition, and remove a product in constant time even from the groups of large publishers (the heap products
+ * do not override equals(), so they are compared by identity).
+ *
+ * @since 2026-10-19
+ */
+class ProductIndex {
+	/** DatabaseEntry, or LinkedHashSet of DatabaseEntry */
+	private final Map<String, Object> map = new HashMap<String, Object>();
+
+	/**
+	 * Adds a product under a key
+	 */
+	@SuppressWarnings("unchecked")
+	public void add(String key, DatabaseEntry item) {
+		final Object value = map.get(key);
+		if (value == null) {
+			map.put(key, item);
+		} else if (value instanceof DatabaseEntry) {
+			final Set<DatabaseEntry> items = new LinkedHashSet<DatabaseEntry>();
+			items.add((DatabaseEntry) value);
+			items.add(item);
+			map.put(key, items);
+		} else {
+			((Set<DatabaseEntry>) value).add(item);
+		}
+	}
+
+	/**
+	 * Removes a product (by identity) from a key
+	 */
+	@SuppressWarnings("unchecked")
+	public void remove(String key, DatabaseEntry item) {
+		final Object value = map.get(key);
+		if (value == item) {
+			map.remove(key);
+		} else if (value instanceof Set) {
+			final Set<DatabaseEntry> items = (Set<DatabaseEntry>) value;
+			if (items.remove(item) && items.size() == 1) {
+				map.put(key, items.iterator().next());
+			}
+		}
+	}
+
+	/**
+	 * Returns the products of a key
+	 * @return The products (must not be modified), or null
+	 */
+	@SuppressWarnings("unchecked")
+	public List<DatabaseEntry> get(String key) {
+		final Object value = map.get(key);
+		if (value == null) {
+			return null;
+		}
+		return value instanceof DatabaseEntry ? Collections.singletonList((DatabaseEntry) value)
+				: new ArrayList<DatabaseEntry>((Set<DatabaseEntry>) value);
+	}
+}
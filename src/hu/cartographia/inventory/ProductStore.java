@@ -0,0 +1,609 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-only, memory-mapped product store, used instead of the in-heap hash map for very large databases
+ *
+ * The store file is built from the database CSV file (next to it, with ".store" extension) and rebuilt
+ * whenever the size or the modification time of the CSV file changes. Layout of the file:
+ *    header      magic, version, record count, hash table size, heap length, CSV file size and modification time
+ *    records     RECORD_SIZE bytes per product: heap offsets of the normalized barcode, barcode, name,
+ *                lower case name, publisher and product id; and the stock count
+ *    hash table  open addressing table of the normalized barcodes (record index + 1, 0 = empty slot)
+ *    heap        strings: length (int) followed by the UTF-8 bytes. Publishers are stored only once.
+ * The secondary indexes (product id, publisher) are not stored, they are built in the heap as int arrays
+ * when the store is opened (see buildIndexes()).
+ *
+ * Products are returned as MappedDatabaseEntry views, which read their fields from the mapped file on access,
+ * so the heap usage does not depend on the size of the database. The file must be smaller than 2 GB.
+ *
+ * @since 2026-10-19
+ */
+class ProductStore {
+	private static final long MAGIC = 0x4C4C5453544F5245L;	// "LLTSTORE"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	static final int RECORD_SIZE = 32;
+
+	/* Field offsets within a record */
+	static final int NORMALIZED_BARCODE = 0;
+	static final int BARCODE = 4;
+	static final int NAME = 8;
+	static final int LOWER_NAME = 12;
+	static final int PUBLISHER = 16;
+	static final int ID = 20;
+	static final int STOCK_COUNT = 24;
+	private static final int NULL_STOCK_COUNT = Integer.MIN_VALUE;
+	private static final byte[] EMPTY = new byte[0];
+
+	private final ByteBuffer buffer;
+	private final int recordCount;
+	private final int tableSize;
+	private final int tableOffset;
+	private final int heapOffset;
+	/** Decoded publishers by heap offset */
+	private final Map<Integer, String> publishers = new ConcurrentHashMap<Integer, String>();
+	/** Open addressing table of the non-empty product ids (record index + 1, 0 = empty slot), see buildIndexes() */
+	private int[] idTable = null;
+	/** Records ordered by publisher, see buildIndexes() */
+	private int[] publisherOrder = null;
+	/** Range (from, to) of the records of a publisher in publisherOrder */
+	private Map<String, int[]> publisherRanges = null;
+
+	private ProductStore(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() > Integer.MAX_VALUE) {
+				throw new IOException("A termékadatbázis túl nagy: " + file);
+			}
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();	// The mapping remains valid
+		}
+		recordCount = buffer.getInt(12);
+		tableSize = buffer.getInt(16);
+		tableOffset = HEADER_SIZE + recordCount * RECORD_SIZE;
+		heapOffset = tableOffset + tableSize * 4;
+	}
+
+	/**
+	 * Opens the product store of a database CSV file. Builds the store file if it is missing or out of date.
+	 * @param csvFile  Name of the database CSV file
+	 * @param progress Receives the progress of reading the CSV file, may be null
+	 * @return The opened store
+	 * @throws IOException If reading the CSV file or writing the store file fails
+	 */
+	public static ProductStore open(String csvFile, Database.ProgressListener progress) throws IOException {
+		final File csv = new File(csvFile);
+		final File storeFile = new File(csvFile + ".store");
+		if (!csv.exists()) {
+			throw new IOException(csvFile);
+		}
+		if (!isUpToDate(storeFile, csv)) {
+			build(csv, storeFile, progress);
+		}
+		return new ProductStore(storeFile);
+	}
+
+	/**
+	 * Checks the header of the store file without mapping it (a mapped file can not be replaced on every system)
+	 */
+	private static boolean isUpToDate(File storeFile, File csv) {
+		if (!storeFile.exists()) {
+			return false;
+		}
+		try {
+			RandomAccessFile raf = new RandomAccessFile(storeFile, "r");
+			try {
+				return raf.length() >= HEADER_SIZE
+						&& raf.readLong() == MAGIC
+						&& raf.readInt() == VERSION
+						&& raf.readInt() >= 0		// record count
+						&& raf.readInt() >= 0		// hash table size
+						&& raf.readLong() >= 0		// heap length
+						&& raf.readLong() == csv.length()
+						&& raf.readLong() == csv.lastModified();
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Collects the string heap into a temporary file
+	 */
+	private static class HeapWriter {
+		private final DataOutputStream out;
+		private final Map<String, Integer> publishers = new HashMap<String, Integer>();
+		private long length = 0;
+
+		HeapWriter(File file) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		}
+
+		int write(byte[] bytes) throws IOException {
+			if (length + 4 + bytes.length > Integer.MAX_VALUE) {
+				throw new IOException("A termékadatbázis túl nagy");
+			}
+			final int offset = (int) length;
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			length += 4 + bytes.length;
+			return offset;
+		}
+
+		int write(String value) throws IOException {
+			return write(value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		int writePublisher(String publisher) throws IOException {
+			Integer offset = publishers.get(publisher);
+			if (offset == null) {
+				offset = write(publisher);
+				publishers.put(publisher, offset);
+			}
+			return offset;
+		}
+	}
+
+	/**
+	 * Builds the store file from the database CSV file
+	 */
+	private static void build(File csv, File storeFile, Database.ProgressListener progress) throws IOException {
+		final long csvLength = csv.length();
+		final long csvModified = csv.lastModified();
+		final File recordsFile = new File(storeFile.getPath() + ".records.tmp");
+		final File heapFile = new File(storeFile.getPath() + ".heap.tmp");
+		final File tmpFile = new File(storeFile.getPath() + ".tmp");
+
+		try {
+			final DataOutputStream records = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(recordsFile), 65536));
+			final HeapWriter heap = new HeapWriter(heapFile);
+			final int[][] hashes = new int[][] { new int[1024] };
+			final int[] count = new int[] { 0 };
+			try {
+				Database.parseFile(csv.getPath(), new Database.RowHandler() {
+					@Override
+					public void row(String barcode, String name, String publisher, String stockCount, String id) throws IOException {
+						if (count[0] == hashes[0].length) {
+							hashes[0] = Arrays.copyOf(hashes[0], count[0] * 2);
+						}
+						final DatabaseEntry entry = new DatabaseEntry(name, publisher, Database.parseStockCount(stockCount), id, barcode);
+						final byte[] normalizedBarcode = entry.getNormalizedBarcode().getBytes(StandardCharsets.UTF_8);
+						records.writeInt(heap.write(normalizedBarcode));
+						records.writeInt(heap.write(barcode));
+						records.writeInt(heap.write(name));
+						records.writeInt(heap.write(name.toLowerCase()));
+						records.writeInt(heap.writePublisher(publisher));
+						records.writeInt(heap.write(id));
+						records.writeInt(entry.getStockCount() != null ? entry.getStockCount() : NULL_STOCK_COUNT);
+						records.writeInt(0);
+						hashes[0][count[0]++] = hash(normalizedBarcode, 0, normalizedBarcode.length);
+					}
+				}, progress);
+			} finally {
+				records.close();
+				heap.out.close();
+			}
+
+			final int recordCount = count[0];
+			int tableSize = 16;
+			while (tableSize < recordCount * 2) {
+				tableSize <<= 1;
+			}
+			if (HEADER_SIZE + (long) recordCount * RECORD_SIZE + (long) tableSize * 4 + heap.length > Integer.MAX_VALUE) {
+				throw new IOException("A termékadatbázis túl nagy");
+			}
+			final int[] table = new int[tableSize];
+			for (int i = 0; i < recordCount; i++) {
+				int slot = hashes[0][i] & (tableSize - 1);
+				while (table[slot] != 0) {
+					slot = (slot + 1) & (tableSize - 1);
+				}
+				table[slot] = i + 1;
+			}
+			hashes[0] = null;
+
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 65536));
+			try {
+				out.writeLong(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(recordCount);
+				out.writeInt(tableSize);
+				out.writeLong(heap.length);
+				out.writeLong(csvLength);
+				out.writeLong(csvModified);
+				out.write(new byte[HEADER_SIZE - out.size()]);
+				copy(recordsFile, out);
+				for (int slot : table) {
+					out.writeInt(slot);
+				}
+				copy(heapFile, out);
+			} finally {
+				out.close();
+			}
+			if (storeFile.exists() && !storeFile.delete() || !tmpFile.renameTo(storeFile)) {
+				throw new IOException("Nem sikerült létrehozni: " + storeFile);
+			}
+		} finally {
+			recordsFile.delete();
+			heapFile.delete();
+			tmpFile.delete();
+		}
+	}
+
+	private static void copy(File file, OutputStream out) throws IOException {
+		final InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+		try {
+			final byte[] chunk = new byte[65536];
+			int length;
+			while ((length = in.read(chunk)) > 0) {
+				out.write(chunk, 0, length);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * FNV-1a hash of a byte array region
+	 */
+	private static int hash(byte[] bytes, int from, int to) {
+		int hash = 0x811C9DC5;
+		for (int i = from; i < to; i++) {
+			hash ^= bytes[i] & 0xFF;
+			hash *= 0x01000193;
+		}
+		return hash;
+	}
+
+	/**
+	 * FNV-1a hash of a string field of a record, equal to hash() of its bytes
+	 */
+	private int hashField(int record, int field) {
+		final int offset = heapOffset + buffer.getInt(HEADER_SIZE + record * RECORD_SIZE + field);
+		final int end = offset + 4 + buffer.getInt(offset);
+		int hash = 0x811C9DC5;
+		for (int i = offset + 4; i < end; i++) {
+			hash ^= buffer.get(i) & 0xFF;
+			hash *= 0x01000193;
+		}
+		return hash;
+	}
+
+	/**
+	 * Builds the secondary indexes: a hash table of the product ids, and the records grouped by publisher.
+	 * Records without a product id are not put into the hash table (they would form one long probe cluster).
+	 * Called by the database loader thread, lookups build them on first use otherwise.
+	 */
+	synchronized void buildIndexes() {
+		if (idTable != null) {
+			return;
+		}
+		final int[] table = new int[tableSize];
+		/* Heap offset of the publisher in the high bits, record index in the low bits */
+		final long[] byPublisher = new long[recordCount];
+		for (int record = 0; record < recordCount; record++) {
+			if (!fieldEquals(record, ID, EMPTY)) {
+				int slot = hashField(record, ID) & (tableSize - 1);
+				while (table[slot] != 0) {
+					slot = (slot + 1) & (tableSize - 1);
+				}
+				table[slot] = record + 1;
+			}
+			byPublisher[record] = (long) buffer.getInt(HEADER_SIZE + record * RECORD_SIZE + PUBLISHER) << 32 | record;
+		}
+		Arrays.sort(byPublisher);
+
+		final int[] order = new int[recordCount];
+		final Map<String, int[]> ranges = new HashMap<String, int[]>();
+		int from = 0;
+		for (int i = 0; i < recordCount; i++) {
+			order[i] = (int) byPublisher[i];
+			if (i + 1 == recordCount || byPublisher[i + 1] >>> 32 != byPublisher[i] >>> 32) {
+				ranges.put(getPublisher(order[i]), new int[] {from, i + 1});
+				from = i + 1;
+			}
+		}
+		publisherOrder = order;
+		publisherRanges = ranges;
+		idTable = table;
+	}
+
+	/**
+	 * Searches the products with the given product id
+	 * @param id The product id (cikkszám)
+	 * @return The found products, or null (always for an empty id)
+	 */
+	public List<DatabaseEntry> getById(String id) {
+		if (id.isEmpty()) {
+			return null;
+		}
+		buildIndexes();
+		final byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+		List<DatabaseEntry> items = null;
+		int slot = hash(bytes, 0, bytes.length) & (tableSize - 1);
+		int record;
+		while ((record = idTable[slot] - 1) >= 0) {
+			if (fieldEquals(record, ID, bytes)) {
+				if (items == null) {
+					items = new ArrayList<DatabaseEntry>(1);
+				}
+				items.add(new MappedDatabaseEntry(this, record));
+			}
+			slot = (slot + 1) & (tableSize - 1);
+		}
+		return items;
+	}
+
+	/**
+	 * Returns the products of a publisher
+	 * @param publisher Name of the publisher
+	 * @return The products, in store order (an empty list if none)
+	 */
+	public List<DatabaseEntry> getByPublisher(String publisher) {
+		buildIndexes();
+		final int[] range = publisherRanges.get(publisher);
+		final List<DatabaseEntry> items = new ArrayList<DatabaseEntry>(range != null ? range[1] - range[0] : 0);
+		if (range != null) {
+			for (int i = range[0]; i < range[1]; i++) {
+				items.add(new MappedDatabaseEntry(this, publisherOrder[i]));
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * Returns the number of products in the store
+	 */
+	public int size() {
+		return recordCount;
+	}
+
+	/**
+	 * Reads a string field of a record
+	 * @param record Index of the record
+	 * @param field  Offset of the field within the record (eg. NAME)
+	 */
+	String getString(int record, int field) {
+		final int offset = heapOffset + buffer.getInt(HEADER_SIZE + record * RECORD_SIZE + field);
+		final byte[] bytes = new byte[buffer.getInt(offset)];
+		final ByteBuffer view = buffer.duplicate();
+		view.position(offset + 4);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the publisher of a record. Publishers are stored only once in the heap,
+	 * so they are decoded once per heap offset and returned from the shared string pool.
+	 */
+	String getPublisher(int record) {
+		final int offset = buffer.getInt(HEADER_SIZE + record * RECORD_SIZE + PUBLISHER);
+		String publisher = publishers.get(offset);
+		if (publisher == null) {
+			publisher = StringPool.SHARED.intern(getString(record, PUBLISHER));
+			publishers.put(offset, publisher);
+		}
+		return publisher;
+	}
+
+	/**
+	 * Returns the stock count of a record, or null if it is unknown
+	 */
+	Integer getStockCount(int record) {
+		final int stockCount = buffer.getInt(HEADER_SIZE + record * RECORD_SIZE + STOCK_COUNT);
+		return stockCount != NULL_STOCK_COUNT ? stockCount : null;
+	}
+
+	/**
+	 * Returns true if a string field of a record equals to the given bytes
+	 */
+	private boolean fieldEquals(int record, int field, byte[] bytes) {
+		final int offset = heapOffset + buffer.getInt(HEADER_SIZE + record * RECORD_SIZE + field);
+		if (buffer.getInt(offset) != bytes.length) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (buffer.get(offset + 4 + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if a string field of a record contains the given bytes
+	 */
+	private boolean fieldContains(int record, int field, byte[] pattern) {
+		if (pattern.length == 0) {
+			return true;
+		}
+		final int offset = heapOffset + buffer.getInt(HEADER_SIZE + record * RECORD_SIZE + field);
+		final int start = offset + 4;
+		final int last = start + buffer.getInt(offset) - pattern.length;
+		final byte first = pattern[0];
+		for (int i = start; i <= last; i++) {
+			if (buffer.get(i) == first) {
+				int j = 1;
+				while (j < pattern.length && buffer.get(i + j) == pattern[j]) {
+					j++;
+				}
+				if (j == pattern.length) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Searches the products with the given normalized barcode
+	 * @param barcode The normalized barcode
+	 * @return The found products or null
+	 */
+	public List<DatabaseEntry> getByBarcode(String barcode) {
+		final byte[] bytes = barcode.getBytes(StandardCharsets.UTF_8);
+		List<DatabaseEntry> items = null;
+		int slot = hash(bytes, 0, bytes.length) & (tableSize - 1);
+		int record;
+		while ((record = buffer.getInt(tableOffset + slot * 4) - 1) >= 0) {
+			if (fieldEquals(record, NORMALIZED_BARCODE, bytes)) {
+				if (items == null) {
+					items = new ArrayList<DatabaseEntry>(1);
+				}
+				items.add(new MappedDatabaseEntry(this, record));
+			}
+			slot = (slot + 1) & (tableSize - 1);
+		}
+		return items;
+	}
+
+	/**
+	 * Returns the number of products with the given normalized barcode, without creating views
+	 * @param barcode The normalized barcode
+	 */
+	public int countByBarcode(String barcode) {
+		final byte[] bytes = barcode.getBytes(StandardCharsets.UTF_8);
+		int count = 0;
+		int slot = hash(bytes, 0, bytes.length) & (tableSize - 1);
+		int record;
+		while ((record = buffer.getInt(tableOffset + slot * 4) - 1) >= 0) {
+			if (fieldEquals(record, NORMALIZED_BARCODE, bytes)) {
+				count++;
+			}
+			slot = (slot + 1) & (tableSize - 1);
+		}
+		return count;
+	}
+
+	/**
+	 * Searches products by name, directly on the mapped lower case names
+	 * @param patterns Lower case name fragments
+	 * @param limit    Maximal number of results
+	 * @return The found products, in store order
+	 */
+	public List<DatabaseEntry> searchByName(String[] patterns, int limit) {
+		final byte[][] bytePatterns = new byte[patterns.length][];
+		for (int i = 0; i < patterns.length; i++) {
+			bytePatterns[i] = patterns[i].getBytes(StandardCharsets.UTF_8);
+		}
+		final List<DatabaseEntry> results = new ArrayList<DatabaseEntry>();
+		for (int record = 0; record < recordCount && results.size() < limit; record++) {
+			boolean matches = true;
+			for (byte[] pattern : bytePatterns) {
+				if (!fieldContains(record, LOWER_NAME, pattern)) {
+					matches = false;
+					break;
+				}
+			}
+			if (matches) {
+				results.add(new MappedDatabaseEntry(this, record));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Returns every product as a list. Views are created on access.
+	 */
+	public List<DatabaseEntry> asList() {
+		return new EntryList();
+	}
+
+	private class EntryList extends AbstractList<DatabaseEntry> implements RandomAccess {
+		@Override
+		public DatabaseEntry get(int index) {
+			if (index < 0 || index >= recordCount) {
+				throw new IndexOutOfBoundsException(Integer.toString(index));
+			}
+			return new MappedDatabaseEntry(ProductStore.this, index);
+		}
+
+		@Override
+		public int size() {
+			return recordCount;
+		}
+	}
+}
+
+/**
+ * A flyweight DatabaseEntry, which reads its fields from a ProductStore record on access
+ * @since 2026-10-19
+ */
+class MappedDatabaseEntry extends DatabaseEntry {
+	private final ProductStore store;
+	private final int record;
+
+	MappedDatabaseEntry(ProductStore store, int record) {
+		this.store = store;
+		this.record = record;
+	}
+
+	@Override
+	public String getName() {
+		return store.getString(record, ProductStore.NAME);
+	}
+
+	@Override
+	public String getPublisher() {
+		return store.getPublisher(record);
+	}
+
+	@Override
+	public Integer getStockCount() {
+		return store.getStockCount(record);
+	}
+
+	@Override
+	public String getId() {
+		return store.getString(record, ProductStore.ID);
+	}
+
+	@Override
+	public String getBarcode() {
+		return store.getString(record, ProductStore.BARCODE);
+	}
+
+	@Override
+	public String getNormalizedBarcode() {
+		return store.getString(record, ProductStore.NORMALIZED_BARCODE);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof MappedDatabaseEntry
+				&& ((MappedDatabaseEntry) other).store == store
+				&& ((MappedDatabaseEntry) other).record == record;
+	}
+
+	@Override
+	public int hashCode() {
+		return record;
+	}
+}
@@ -0,0 +1,567 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Creates the stock-taking report from the log files
+ *
+ * The counts of the log files are summed by barcode and product id (only the scanned items are kept in memory).
+ * The report is created in one pass over the database: every product is joined with its sum, and the result rows
+ * are passed to external sorters (see ExternalSorter), a top-N heap and the rollups. Outputs (prefixed with the date):
+ *    _leltár_eredmény.csv                  every product, ordered by product id
+ *    _leltár_eltérések.csv                 the products with a difference, ordered by the absolute difference
+ *    _leltár_eltérések_kiadónként.csv      the products with a difference, ordered by publisher and product id
+ *    _leltár_legnagyobb_eltérések.csv      the topN largest absolute differences
+ *    _leltár_kiadók.csv                    per publisher rollup
+ *    _leltár_helyszínek.csv                per location rollup of the scans
+ * The breakdowns by location, operator, publisher and hour are created from the merged log (see GroupByAggregator):
+ *    _leltár_kezelők.csv                   scans and pieces per operator and location
+ *    _leltár_kezelők_óránként.csv          scans per operator and hour
+ *    _leltár_kiadók_helyszínenként.csv     pieces per publisher and location
+ * Invalid log lines are skipped, and written to a quarantine file with their file name and line number (see setQuarantineFile).
+ * The log files of the closed days may be packed into bundles (see LogArchive, addArchive()).
+ *
+ * @since 2026-10-19
+ */
+class ReportCreator {
+	private static final String HEADER = "\"Cikkszám\"\t\"Vonalkód\"\t\"Norm. vonalkód\"\t\"Terméknév\"\t\"Kiadó\"\t\"Készlet sz. m.\"\t\"Talált db\"\t\"Eltérés\"";
+
+	/**
+	 * Sum of the counts of one barcode and product id
+	 */
+	private static class ReportItem {
+		final String barcode;
+		final String productId;
+		final String comment;
+		final String publicationDate;
+		int count = 0;
+		/** Number of scans, only for the rollups */
+		int scans = 0;
+		boolean reported = false;
+
+		ReportItem(String barcode, String productId, String comment, String publicationDate) {
+			this.barcode = barcode;
+			this.productId = productId;
+			this.comment = comment;
+			this.publicationDate = publicationDate;
+		}
+	}
+
+	/**
+	 * A row of the top-N heap
+	 */
+	private static class TopRow implements Comparable<TopRow> {
+		final int absDifference;
+		final String key;
+		final String line;
+
+		TopRow(int absDifference, String key, String line) {
+			this.absDifference = absDifference;
+			this.key = key;
+			this.line = line;
+		}
+
+		/** Smaller difference first (the heap root is removed when a larger one arrives) */
+		@Override
+		public int compareTo(TopRow other) {
+			if (absDifference != other.absDifference) {
+				return absDifference < other.absDifference ? -1 : 1;
+			}
+			return other.key.compareTo(key);
+		}
+	}
+
+	private final Database db;
+	private final LogRecordParser parser = new LogRecordParser();
+	private File quarantineFile = null;
+	private BufferedWriter quarantineWriter = null;
+	private long quarantinedLines = 0;
+	private final Map<String, ReportItem> items = new HashMap<String, ReportItem>();
+	/** Per location: number of scans, counted pieces, pieces of unknown products */
+	private final Map<String, long[]> locations = new TreeMap<String, long[]>();
+
+	public ReportCreator(Database db) {
+		this.db = db;
+	}
+
+	/**
+	 * Sums the counts of a log file, and appends its lines to the merged log.
+	 * If the closed compact logs of the same sessions cover the whole CSV file (the sizes of the CSV lines recorded
+	 * in their trailers add up to the size of the file), their sums are used, and the CSV file is only copied to the
+	 * merged log, without splitting and parsing its lines. Otherwise the CSV file is parsed.
+	 * @param file        The CSV log file
+	 * @param mergeWriter Receives the lines of the log file
+	 * @throws IOException If reading or writing fails
+	 */
+	public void addLogFile(File file, BufferedWriter mergeWriter) throws IOException {
+		if (compactCsvBytes(file) == file.length()) {
+			final Map<String, ReportItem> compactItems = new LinkedHashMap<String, ReportItem>();
+			final String[] compactLocation = new String[1];
+			if (readCompactLogs(file, compactItems, compactLocation) >= 0) {
+				copyLines(file, mergeWriter);
+				for (ReportItem item : compactItems.values()) {
+					add(item.barcode, item.productId, item.count, item.scans, item.comment, item.publicationDate, compactLocation[0]);
+				}
+				return;
+			}
+		}
+
+		/* The compact logs do not cover the CSV file (eg. enabled during the day, or not closed), parse the CSV */
+		final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			long lineNumber = 0;
+			String line;
+			while ((line = in.readLine()) != null) {
+				mergeWriter.write(line);
+				mergeWriter.newLine();
+				lineNumber++;
+				if (!line.trim().isEmpty()) {
+					addLogLine(file, lineNumber, line);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		mergeWriter.flush();
+	}
+
+	/**
+	 * Returns the size of the CSV lines covered by the compact logs of a log file
+	 * @return The size in bytes, or -1 if there are no compact logs, or one of them does not record it
+	 */
+	private static long compactCsvBytes(File csvFile) {
+		final File[] compactFiles = CompactLog.listFor(csvFile);
+		if (compactFiles.length == 0) {
+			return -1;
+		}
+		long bytes = 0;
+		for (File compactFile : compactFiles) {
+			final long compactBytes = CompactLogReader.readCsvBytes(compactFile);
+			if (compactBytes < 0) {
+				return -1;
+			}
+			bytes += compactBytes;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Appends the lines of a log file to the merged log, without splitting them into strings.
+	 * The line terminators are written by mergeWriter.newLine(), as the parsed lines.
+	 */
+	private static void copyLines(File file, BufferedWriter mergeWriter) throws IOException {
+		final Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			final char[] buffer = new char[1 << 16];
+			boolean lineOpen = false;
+			boolean carriageReturn = false;
+			int length;
+			while ((length = in.read(buffer)) > 0) {
+				int start = 0;
+				for (int i = 0; i < length; i++) {
+					final char c = buffer[i];
+					if (c == '\r' || c == '\n') {
+						mergeWriter.write(buffer, start, i - start);
+						if (c == '\r' || !carriageReturn) {
+							mergeWriter.newLine();
+						}
+						carriageReturn = c == '\r';
+						lineOpen = false;
+						start = i + 1;
+					} else {
+						carriageReturn = false;
+						lineOpen = true;
+					}
+				}
+				mergeWriter.write(buffer, start, length - start);
+			}
+			if (lineOpen) {
+				mergeWriter.newLine();
+			}
+		} finally {
+			in.close();
+		}
+		mergeWriter.flush();
+	}
+
+	/**
+	 * Sums the counts of the log files of a bundle (see LogArchive), and appends their lines to the merged log
+	 * @param bundle      The bundle file
+	 * @param mergeWriter Receives the lines of the log files
+	 * @param threadCount Number of threads decompressing the blocks
+	 * @throws IOException If reading or writing fails
+	 */
+	public void addArchive(File bundle, BufferedWriter mergeWriter, int threadCount) throws IOException {
+		final LogArchiveReader reader = new LogArchiveReader(bundle);
+		try {
+			reader.read(null, threadCount, (fileName, lineNumber, line) -> {
+				mergeWriter.write(line);
+				mergeWriter.newLine();
+				if (!line.trim().isEmpty()) {
+					addLogLine(new File(bundle, fileName), lineNumber, line);
+				}
+			});
+		} finally {
+			reader.close();
+		}
+		mergeWriter.flush();
+	}
+
+	/**
+	 * Processes a line of a log file. Invalid lines are written to the quarantine file.
+	 * @param file       The log file, for the quarantine file
+	 * @param lineNumber Number of the line in the log file
+	 */
+	private void addLogLine(File file, long lineNumber, String line) throws IOException {
+		if (!parser.parse(line.trim())) {
+			quarantine(file, lineNumber, parser.getError(), line);
+			return;
+		}
+		add(parser.get(LogRecordParser.BARCODE), parser.get(LogRecordParser.PRODUCT_ID), parser.getCount(), 1,
+				parser.get(LogRecordParser.COMMENT), parser.get(LogRecordParser.PUBLICATION_DATE), parser.get(LogRecordParser.LOCATION));
+	}
+
+	/**
+	 * Sets the file of the invalid log lines. It is created at the first invalid line.
+	 */
+	public void setQuarantineFile(File quarantineFile) {
+		this.quarantineFile = quarantineFile;
+	}
+
+	/**
+	 * Returns the number of invalid log lines
+	 */
+	public long getQuarantinedLines() {
+		return quarantinedLines;
+	}
+
+	private void quarantine(File file, long lineNumber, String error, String line) throws IOException {
+		quarantinedLines++;
+		if (quarantineFile == null) {
+			System.err.println(file.getName() + ", " + lineNumber + ". sor: " + error);
+			return;
+		}
+		if (quarantineWriter == null) {
+			quarantineWriter = open(quarantineFile.getParentFile(), quarantineFile.getName());
+			quarantineWriter.write("\"Fájl\"\t\"Sor\"\t\"Hiba\"\t\"Eredeti sor\"");
+			quarantineWriter.newLine();
+		}
+		quarantineWriter.write("\"" + file.getName() + "\"\t" + lineNumber + "\t\"" + error + "\"\t" + line);
+		quarantineWriter.newLine();
+	}
+
+	/**
+	 * Closes the quarantine file
+	 */
+	public void close() {
+		if (quarantineWriter != null) {
+			try {
+				quarantineWriter.close();
+			} catch (IOException e) {}
+			quarantineWriter = null;
+		}
+	}
+
+	/**
+	 * Adds counts to the sum of the given barcode and product id
+	 * @param scans Number of scans summed in count
+	 */
+	public void add(String barcode, String productId, int count, int scans, String comment, String publicationDate, String location) {
+		final String key = barcode + "#" + productId;
+		ReportItem item = items.get(key);
+		if (item == null) {
+			item = new ReportItem(barcode, productId, comment, publicationDate);
+			items.put(key, item);
+		}
+		item.count += count;
+		item.scans += scans;
+
+		long[] locationSums = locations.get(location != null ? location : "");
+		if (locationSums == null) {
+			locationSums = new long[3];
+			locations.put(location != null ? location : "", locationSums);
+		}
+		locationSums[0] += scans;
+		locationSums[1] += count;
+		if (productId == null || productId.isEmpty()) {
+			locationSums[2] += count;
+		}
+	}
+
+	/**
+	 * Reads the compact log files of a CSV log file and sums their counts by barcode and product id
+	 *
+	 * @param csvFile  The CSV log file
+	 * @param items    The summarized items, in order of their first appearance
+	 * @param location Receives the location of the compact logs
+	 * @return Number of rows read, or -1 if there are no compact logs or one of them is incomplete
+	 */
+	private static long readCompactLogs(File csvFile, final Map<String, ReportItem> items, String[] location) {
+		final File[] compactFiles = CompactLog.listFor(csvFile);
+		if (compactFiles.length == 0) {
+			return -1;
+		}
+		long rows = 0;
+		try {
+			for (File compactFile : compactFiles) {
+				final CompactLogReader reader = new CompactLogReader(compactFile);
+				location[0] = reader.getLocation();
+				try {
+					/* Sums of the dictionary products, so most rows need no hash lookup */
+					final List<ReportItem> productItems = new ArrayList<ReportItem>();
+					rows += reader.read(new CompactLogReader.RowVisitor() {
+						@Override
+						public void row(long timestamp, String barcode, int product, int count, String comment, String publicationDate,
+								int catalogueGeneration) {
+							ReportItem item = product >= 0 && product < productItems.size() ? productItems.get(product) : null;
+							if (item == null || !item.barcode.equals(barcode)) {
+								final String productId = product >= 0 ? reader.getProduct(product).id : "";
+								final String key = barcode + "#" + productId;
+								item = items.get(key);
+								if (item == null) {
+									item = new ReportItem(barcode, productId, comment, publicationDate);
+									items.put(key, item);
+								}
+								if (product >= 0 && reader.getProduct(product).barcode.equals(barcode)) {
+									while (productItems.size() <= product) {
+										productItems.add(null);
+									}
+									productItems.set(product, item);
+								}
+							}
+							item.count += count;
+							item.scans++;
+						}
+					});
+					if (!reader.isClosed()) {
+						return -1;
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Tömörített napló olvasása sikertelen: " + e.getMessage());
+			return -1;
+		}
+		return rows;
+	}
+
+	/**
+	 * Writes the report files
+	 * @param reportDir      Directory of the reports
+	 * @param prefix         Prefix of the file names (the date)
+	 * @param topN           Number of rows of the largest differences
+	 * @param sortMemoryRows Number of rows sorted in memory, larger outputs are sorted through temporary files
+	 * @return Names of the written files
+	 * @throws IOException If writing fails
+	 */
+	public List<String> write(File reportDir, String prefix, int topN, int sortMemoryRows) throws IOException {
+		final ExternalSorter byId = new ExternalSorter(sortMemoryRows, reportDir);
+		final ExternalSorter byDifference = new ExternalSorter(sortMemoryRows, reportDir);
+		final ExternalSorter byPublisher = new ExternalSorter(sortMemoryRows, reportDir);
+		final PriorityQueue<TopRow> top = new PriorityQueue<TopRow>();
+		/* Per publisher: products, stock, counted pieces, difference, products with difference */
+		final Map<String, long[]> publishers = new TreeMap<String, long[]>();
+
+		try {
+			final RowHandler handler = new RowHandler() {
+				@Override
+				public void row(DatabaseEntry dbEntry, String barcode, String productId, int counted) throws IOException {
+					final int stockCount = dbEntry != null && dbEntry.getStockCount() != null ? dbEntry.getStockCount() : 0;
+					final int difference = counted - stockCount;
+					final String publisher = dbEntry != null ? dbEntry.getPublisher() : "";
+					final String line = String.format("\"%1$s\"\t\"%2$s\"\t\"%3$s\"\t\"%4$s\"\t\"%5$s\"\t%6$d\t%7$d\t%8$s",
+							productId,
+							barcode,
+							dbEntry != null ? dbEntry.getNormalizedBarcode() : "",
+							dbEntry != null ? dbEntry.getName().replace("\"", "\"\"") : "",
+							publisher,
+							stockCount,
+							counted,
+							difference != 0 ? "ELTÉR" : "OK"
+					);
+					final String idKey = productId + '\u0000' + barcode;
+					byId.add(idKey, line);
+
+					long[] sums = publishers.get(publisher);
+					if (sums == null) {
+						sums = new long[5];
+						publishers.put(publisher, sums);
+					}
+					sums[0]++;
+					sums[1] += stockCount;
+					sums[2] += counted;
+					sums[3] += difference;
+					if (difference == 0) {
+						return;
+					}
+					sums[4]++;
+
+					final int absDifference = Math.abs(difference);
+					byDifference.add(String.format("%010d", Integer.MAX_VALUE - absDifference) + idKey, line);
+					byPublisher.add(publisher + '\u0000' + idKey, line);
+					if (topN > 0 && (top.size() < topN || absDifference > top.peek().absDifference)) {
+						top.add(new TopRow(absDifference, idKey, line));
+						if (top.size() > topN) {
+							top.poll();
+						}
+					}
+				}
+			};
+
+			/* Products of the database, joined with their sums */
+			for (DatabaseEntry dbEntry : db) {
+				final ReportItem item = items.get(dbEntry.getBarcode() + "#" + dbEntry.getId());
+				if (item != null) {
+					item.reported = true;
+				}
+				handler.row(dbEntry, dbEntry.getBarcode(), dbEntry.getId(), item != null ? item.count : 0);
+			}
+			/* Scanned items which are not in the database (or not with the logged product id) */
+			for (ReportItem item : items.values()) {
+				if (!item.reported) {
+					final DatabaseEntry dbEntry = findByOriginalBarcode(item.barcode);
+					handler.row(dbEntry, item.barcode, dbEntry != null ? dbEntry.getId() : "", item.count);
+				}
+			}
+
+			final List<String> files = new ArrayList<String>();
+			files.add(writeSorted(reportDir, prefix + "_leltár_eredmény.csv", byId));
+			files.add(writeSorted(reportDir, prefix + "_leltár_eltérések.csv", byDifference));
+			files.add(writeSorted(reportDir, prefix + "_leltár_eltérések_kiadónként.csv", byPublisher));
+
+			final TopRow[] topRows = top.toArray(new TopRow[0]);
+			Arrays.sort(topRows, Collections.reverseOrder());
+			final String topFileName = prefix + "_leltár_legnagyobb_eltérések.csv";
+			BufferedWriter out = open(reportDir, topFileName);
+			try {
+				out.write(HEADER);
+				out.newLine();
+				for (TopRow row : topRows) {
+					out.write(row.line);
+					out.newLine();
+				}
+			} finally {
+				out.close();
+			}
+			files.add(topFileName);
+
+			final String publishersFileName = prefix + "_leltár_kiadók.csv";
+			out = open(reportDir, publishersFileName);
+			try {
+				out.write("\"Kiadó\"\t\"Termékek\"\t\"Készlet sz. m.\"\t\"Talált db\"\t\"Eltérés\"\t\"Eltérő termékek\"");
+				out.newLine();
+				for (Map.Entry<String, long[]> entry : publishers.entrySet()) {
+					final long[] sums = entry.getValue();
+					out.write("\"" + entry.getKey() + "\"\t" + sums[0] + "\t" + sums[1] + "\t" + sums[2] + "\t" + sums[3] + "\t" + sums[4]);
+					out.newLine();
+				}
+			} finally {
+				out.close();
+			}
+			files.add(publishersFileName);
+
+			final String locationsFileName = prefix + "_leltár_helyszínek.csv";
+			out = open(reportDir, locationsFileName);
+			try {
+				out.write("\"Helyszín\"\t\"Beolvasások\"\t\"Talált db\"\t\"Ismeretlen termék db\"");
+				out.newLine();
+				for (Map.Entry<String, long[]> entry : locations.entrySet()) {
+					final long[] sums = entry.getValue();
+					out.write("\"" + entry.getKey() + "\"\t" + sums[0] + "\t" + sums[1] + "\t" + sums[2]);
+					out.newLine();
+				}
+			} finally {
+				out.close();
+			}
+			files.add(locationsFileName);
+			return files;
+		} finally {
+			byId.close();
+			byDifference.close();
+			byPublisher.close();
+		}
+	}
+
+	/**
+	 * Writes the breakdowns of the merged log by location, operator, publisher and hour
+	 * @param mergedLog   The merged log file
+	 * @param reportDir   Directory of the reports
+	 * @param prefix      Prefix of the file names (the date)
+	 * @param threadCount Number of worker threads
+	 * @return Names of the written files
+	 * @throws Exception If reading or writing fails
+	 */
+	public static List<String> writeBreakdowns(File mergedLog, File reportDir, String prefix, int threadCount) throws Exception {
+		final GroupByAggregator aggregator = new GroupByAggregator(threadCount, GroupByAggregator.Dimension.values());
+		aggregator.aggregate(mergedLog);
+		if (aggregator.getInvalidLines() > 0) {
+			System.err.println("Hibás naplósorok: " + aggregator.getInvalidLines());
+		}
+
+		final List<String> files = new ArrayList<String>();
+		String fileName = prefix + "_leltár_kezelők.csv";
+		aggregator.writeTable(new File(reportDir, fileName), GroupByAggregator.Dimension.OPERATOR, GroupByAggregator.Dimension.LOCATION);
+		files.add(fileName);
+		fileName = prefix + "_leltár_kezelők_óránként.csv";
+		aggregator.writePivot(new File(reportDir, fileName), GroupByAggregator.Dimension.OPERATOR, GroupByAggregator.Dimension.HOUR,
+				GroupByAggregator.Measure.SCANS);
+		files.add(fileName);
+		fileName = prefix + "_leltár_kiadók_helyszínenként.csv";
+		aggregator.writePivot(new File(reportDir, fileName), GroupByAggregator.Dimension.PUBLISHER, GroupByAggregator.Dimension.LOCATION,
+				GroupByAggregator.Measure.PIECES);
+		files.add(fileName);
+		return files;
+	}
+
+	/**
+	 * Receives the joined rows of the report
+	 */
+	private interface RowHandler {
+		void row(DatabaseEntry dbEntry, String barcode, String productId, int counted) throws IOException;
+	}
+
+	/**
+	 * Finds the product with the given (not normalized) barcode
+	 */
+	private DatabaseEntry findByOriginalBarcode(String barcode) {
+		final List<DatabaseEntry> items = db.getByOriginalBarcode(barcode);
+		return items != null ? items.get(items.size() - 1) : null;
+	}
+
+	private static BufferedWriter open(File reportDir, String fileName) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportDir.toString() + File.separator + fileName), "UTF-8"), 1 << 16);
+	}
+
+	private static String writeSorted(File reportDir, String fileName, ExternalSorter sorter) throws IOException {
+		final BufferedWriter out = open(reportDir, fileName);
+		try {
+			out.write(HEADER);
+			out.newLine();
+			sorter.writeTo(out);
+		} finally {
+			out.close();
+		}
+		return fileName;
+	}
+}
@@ -0,0 +1,388 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Live statistics of the stock-taking: scan throughput per station, and the progress against the stock
+ *
+ * It is fed by the commits of the loggers (see listenerFor()). The throughput is counted in ring buffers of
+ * per-second counters, with running sums of the last minute and of the whole window. The progress is the ratio
+ * of the stock units already counted (at most the stock of a product) and all stock units of the catalogue.
+ * The stock and the counted pieces are kept per normalized barcode in an open addressing table of primitive
+ * arrays, so a commit costs O(1), nothing is recomputed. The stock of the catalogue is summed once, by the loader
+ * thread (see summarize()), and taken over by setCatalogue(); the products changed by a delta file update only
+ * their own barcodes (see productChanged()).
+ *
+ * Not thread safe, it must be used on the JavaFX thread (where the loggers commit).
+ *
+ * @since 2026-10-19
+ */
+class ScanDashboard {
+	/** Length of the throughput window in seconds */
+	public static final int WINDOW_SECONDS = 600;
+
+	/**
+	 * Counts events per second, for the last WINDOW_SECONDS seconds
+	 */
+	static class RollingCounter {
+		private final int[] counts = new int[WINDOW_SECONDS];
+		/** The second of the newest slot */
+		private long currentSecond = Long.MIN_VALUE;
+		private long lastMinuteSum = 0;
+		private long windowSum = 0;
+
+		/**
+		 * Adds events at the given time
+		 */
+		void add(long nowMillis, int events) {
+			advance(nowMillis / 1000);
+			counts[(int) (currentSecond % WINDOW_SECONDS)] += events;
+			lastMinuteSum += events;
+			windowSum += events;
+		}
+
+		/**
+		 * Moves the window to the given second, clearing the expired slots (at most WINDOW_SECONDS of them)
+		 */
+		private void advance(long second) {
+			if (second <= currentSecond) {
+				return;
+			}
+			if (currentSecond == Long.MIN_VALUE || second - currentSecond >= WINDOW_SECONDS) {
+				Arrays.fill(counts, 0);
+				lastMinuteSum = 0;
+				windowSum = 0;
+				currentSecond = second;
+				return;
+			}
+			while (currentSecond < second) {
+				currentSecond++;
+				final int expired = counts[(int) (currentSecond % WINDOW_SECONDS)];
+				windowSum -= expired;
+				counts[(int) (currentSecond % WINDOW_SECONDS)] = 0;
+				/* The slot which leaves the last minute */
+				lastMinuteSum -= counts[(int) ((currentSecond - 60) % WINDOW_SECONDS)];
+			}
+		}
+
+		/**
+		 * Returns the number of events of the last minute
+		 */
+		long getLastMinute(long nowMillis) {
+			advance(nowMillis / 1000);
+			return lastMinuteSum;
+		}
+
+		/**
+		 * Returns the average number of events per minute in the window
+		 */
+		double getPerMinute(long nowMillis) {
+			advance(nowMillis / 1000);
+			return windowSum * 60.0 / WINDOW_SECONDS;
+		}
+	}
+
+	/**
+	 * The stock of a catalogue by barcode key, see summarize()
+	 */
+	static class CatalogueStock {
+		private final long[] keys;
+		private final int[] stock;
+		private final int size;
+		private final long totalStock;
+
+		private CatalogueStock(long[] keys, int[] stock, int size, long totalStock) {
+			this.keys = keys;
+			this.stock = stock;
+			this.size = size;
+			this.totalStock = totalStock;
+		}
+	}
+
+	/** Scans per station (operator and location) */
+	private final Map<String, RollingCounter> stations = new LinkedHashMap<String, RollingCounter>();
+	/** Stock units counted, for the estimated finishing time */
+	private final RollingCounter coveredUnits = new RollingCounter();
+
+	/* Open addressing table by the barcode key (see barcodeKey()) */
+	private long[] keys = new long[0];
+	private int[] stock = new int[0];
+	private int[] counted = new int[0];
+	private int mask = -1;
+	/** Number of the keys in the table */
+	private int size = 0;
+
+	private long totalStock = 0;
+	private long totalCovered = 0;
+	private long totalPieces = 0;
+	private long totalScans = 0;
+
+	/**
+	 * Returns a listener which counts the commits of a station
+	 * @param station Name of the station (eg. operator and location)
+	 */
+	public Logger.CommitListener listenerFor(String station) {
+		final RollingCounter counter = new RollingCounter();
+		stations.put(station, counter);
+		return new Logger.CommitListener() {
+			@Override
+			public void committed(LogEntry entry, String line) {
+				final long now = System.currentTimeMillis();
+				counter.add(now, 1);
+				totalScans++;
+				totalPieces += entry.getCount();
+				if (entry.isInDb()) {
+					coveredUnits.add(now, count(entry.getNormalizedBarcode(), entry.getCount()));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns a listener which counts the lines of a resumed session (see Logger.resume()), without throughput
+	 */
+	public Logger.ResumeListener resumeListener() {
+		return new Logger.ResumeListener() {
+			@Override
+			public void resumed(String normalizedBarcode, int count, boolean inDb) {
+				totalScans++;
+				totalPieces += count;
+				if (inDb) {
+					count(normalizedBarcode, count);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Sums the stock of the catalogue by barcode. It walks the whole catalogue, so it is called by the thread
+	 * loading the database, not on the JavaFX thread.
+	 * @param db The catalogue
+	 * @return The stock table, see setCatalogue()
+	 */
+	static CatalogueStock summarize(Database db) {
+		int capacity = 16;
+		while (capacity < db.size() * 2) {
+			capacity <<= 1;
+		}
+		final long[] keys = new long[capacity];
+		final int[] stock = new int[capacity];
+		int size = 0;
+		long totalStock = 0;
+		for (DatabaseEntry dbEntry : db) {
+			final long key = barcodeKey(dbEntry.getNormalizedBarcode());
+			final Integer stockCount = dbEntry.getStockCount();
+			if (key == 0 || stockCount == null || stockCount <= 0) {
+				continue;
+			}
+			final int slot = probe(keys, capacity - 1, key);
+			if (keys[slot] == 0) {
+				keys[slot] = key;
+				size++;
+			}
+			stock[slot] += stockCount;
+			totalStock += stockCount;
+		}
+		return new CatalogueStock(keys, stock, size, totalStock);
+	}
+
+	/**
+	 * Takes over the stock table of the catalogue (it must not be used afterwards).
+	 * The pieces counted so far are kept, only they are added to the table.
+	 * @param catalogue The stock of the catalogue, see summarize()
+	 */
+	public void setCatalogue(CatalogueStock catalogue) {
+		final long[] oldKeys = keys;
+		final int[] oldCounted = counted;
+
+		keys = catalogue.keys;
+		stock = catalogue.stock;
+		counted = new int[keys.length];
+		mask = keys.length - 1;
+		size = catalogue.size;
+		totalStock = catalogue.totalStock;
+		totalCovered = 0;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0 && oldCounted[i] != 0) {
+				if (size * 2 >= keys.length) {
+					grow();
+				}
+				final int slot = slot(oldKeys[i]);
+				counted[slot] += oldCounted[i];
+				totalCovered += Math.max(0, Math.min(counted[slot], stock[slot]));
+			}
+		}
+	}
+
+	/**
+	 * Updates the stock of a changed product of the catalogue (see Database.applyDelta())
+	 * @param removed The replaced or deleted product, or null
+	 * @param added   The new product, or null
+	 */
+	public void productChanged(DatabaseEntry removed, DatabaseEntry added) {
+		if (removed != null) {
+			addStock(removed, -1);
+		}
+		if (added != null) {
+			addStock(added, 1);
+		}
+	}
+
+	/**
+	 * Adds (sign 1) or subtracts (sign -1) the stock of a product
+	 */
+	private void addStock(DatabaseEntry dbEntry, int sign) {
+		final long key = barcodeKey(dbEntry.getNormalizedBarcode());
+		final Integer stockCount = dbEntry.getStockCount();
+		if (key == 0 || stockCount == null || stockCount <= 0) {
+			return;
+		}
+		if (size * 2 >= keys.length) {
+			grow();
+		}
+		final int slot = slot(key);
+		final int before = Math.max(0, Math.min(counted[slot], stock[slot]));
+		stock[slot] += sign * stockCount;
+		totalStock += sign * stockCount;
+		totalCovered += Math.max(0, Math.min(counted[slot], stock[slot])) - before;
+	}
+
+	/**
+	 * Adds counted pieces of a barcode
+	 * @return The increase of the covered stock units
+	 */
+	private int count(String normalizedBarcode, int pieces) {
+		final long key = barcodeKey(normalizedBarcode);
+		if (key == 0) {
+			return 0;
+		}
+		if (size * 2 >= keys.length) {
+			grow();
+		}
+		final int slot = slot(key);
+		final int before = Math.max(0, Math.min(counted[slot], stock[slot]));
+		counted[slot] += pieces;
+		final int covered = Math.max(0, Math.min(counted[slot], stock[slot])) - before;
+		totalCovered += covered;
+		return covered;
+	}
+
+	/**
+	 * Doubles the capacity of the table (pieces may be counted before the catalogue is loaded)
+	 */
+	private void grow() {
+		final long[] oldKeys = keys;
+		final int[] oldStock = stock;
+		final int[] oldCounted = counted;
+		final int capacity = Math.max(16, keys.length * 2);
+		keys = new long[capacity];
+		stock = new int[capacity];
+		counted = new int[capacity];
+		mask = capacity - 1;
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				final int slot = slot(oldKeys[i]);
+				stock[slot] = oldStock[i];
+				counted[slot] = oldCounted[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot of a key, adds the key if it is not in the table
+	 */
+	private int slot(long key) {
+		final int slot = probe(keys, mask, key);
+		if (keys[slot] == 0) {
+			keys[slot] = key;
+			size++;
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns the slot of a key in a table, or the empty slot where it belongs
+	 */
+	private static int probe(long[] keys, int mask, long key) {
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+		while (keys[slot] != key && keys[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Encodes a barcode of at most 17 digits as a non-zero number (the length is kept, so leading zeros count)
+	 * @return The key, or 0 if the barcode is not a number
+	 */
+	static long barcodeKey(String barcode) {
+		if (barcode == null || barcode.isEmpty() || barcode.length() > 17) {
+			return 0;
+		}
+		long value = 0;
+		for (int i = 0; i < barcode.length(); i++) {
+			final int digit = barcode.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return 0;
+			}
+			value = value * 10 + digit;
+		}
+		return value * 32 + barcode.length();
+	}
+
+	/**
+	 * Returns the scans of the last minute per station
+	 */
+	public Map<String, Long> getStationRates() {
+		final long now = System.currentTimeMillis();
+		final Map<String, Long> rates = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, RollingCounter> station : stations.entrySet()) {
+			rates.put(station.getKey(), station.getValue().getLastMinute(now));
+		}
+		return rates;
+	}
+
+	public long getTotalStock() {
+		return totalStock;
+	}
+
+	/**
+	 * Returns the stock units counted already (at most the stock of every product)
+	 */
+	public long getCoveredStock() {
+		return totalCovered;
+	}
+
+	public long getTotalPieces() {
+		return totalPieces;
+	}
+
+	public long getTotalScans() {
+		return totalScans;
+	}
+
+	/**
+	 * Returns the ratio of the counted stock units, between 0 and 1
+	 */
+	public double getProgress() {
+		return totalStock > 0 ? (double) totalCovered / totalStock : 0;
+	}
+
+	/**
+	 * Estimates the remaining time by the progress of the last WINDOW_SECONDS seconds
+	 * @return The remaining minutes, or -1 if there was no progress
+	 */
+	public long getRemainingMinutes() {
+		final double perMinute = coveredUnits.getPerMinute(System.currentTimeMillis());
+		if (perMinute <= 0) {
+			return -1;
+		}
+		return (long) Math.ceil((totalStock - totalCovered) / perMinute);
+	}
+}
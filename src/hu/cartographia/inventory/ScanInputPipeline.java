@@ -0,0 +1,216 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import javafx.animation.PauseTransition;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.event.EventHandler;
+import javafx.event.EventTarget;
+import javafx.scene.Node;
+import javafx.scene.control.TextField;
+import javafx.scene.control.TextInputControl;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.util.Duration;
+
+/**
+ * Decouples the keystroke capture of the input field from processing the entered codes
+ *
+ * USB barcode scanners "type" a whole code and ENTER within a few milliseconds. The pipeline detects these
+ * bursts by the time between the keystrokes (scanner.burstMillis setting), and reports them through
+ * burstActiveProperty(), so per-keystroke work (tooltip, autocomplete search) can be skipped during a burst.
+ *
+ * Entered codes are processed one by one, in order. A code submitted while another one is being processed
+ * (eg. the processor waits for a dialog) is queued. Scanner bursts typed into a guarded dialog are captured
+ * and queued too, so they do not close the dialog and do not get lost. A barcode character typed into a dialog is
+ * held back until the next keystroke (or a short timeout) shows whether it starts a burst; typed by hand, it is
+ * inserted into the text field it was typed into.
+ *
+ * @since 2026-10-19
+ */
+class ScanInputPipeline {
+	/**
+	 * Processes one entered code
+	 */
+	interface Processor {
+		void process(String input);
+	}
+
+	/** Shortest code which is taken from a guarded dialog */
+	private static final int MIN_CODE_LENGTH = 8;
+
+	private final Processor processor;
+	private final long burstNanos;
+	private final BooleanProperty burstActive = new SimpleBooleanProperty(false);
+	private final PauseTransition burstTimeout;
+	private long lastKeyTime = 0;
+
+	private final Deque<String> queue = new ArrayDeque<String>();
+	private boolean processing = false;
+
+	/** Code typed into a guarded dialog */
+	private final StringBuilder dialogBuffer = new StringBuilder();
+	private long lastDialogKeyTime = 0;
+	/** The node the held back characters were typed into */
+	private EventTarget dialogTarget = null;
+	/** Releases the held back characters if no further keystroke arrives */
+	private final PauseTransition dialogTimeout;
+
+	/**
+	 * @param processor   Processes the entered codes (on the JavaFX thread)
+	 * @param burstMillis Maximal time between two keystrokes of a scanner
+	 */
+	public ScanInputPipeline(Processor processor, long burstMillis) {
+		this.processor = processor;
+		this.burstNanos = burstMillis * 1000000;
+		burstTimeout = new PauseTransition(Duration.millis(burstMillis * 2));
+		burstTimeout.setOnFinished(event -> burstActive.set(false));
+		dialogTimeout = new PauseTransition(Duration.millis(burstMillis * 2));
+		dialogTimeout.setOnFinished(event -> releaseDialogBuffer());
+	}
+
+	/**
+	 * True while the keystrokes arrive at scanner speed
+	 */
+	public ReadOnlyBooleanProperty burstActiveProperty() {
+		return burstActive;
+	}
+
+	public boolean isBurstActive() {
+		return burstActive.get();
+	}
+
+	/**
+	 * Number of codes waiting for processing
+	 */
+	public int getQueueLength() {
+		return queue.size();
+	}
+
+	/**
+	 * Watches the keystroke timing of the input field. ENTER must be handled by the caller, see submit().
+	 * @param field The input field
+	 */
+	public void attach(TextField field) {
+		field.addEventFilter(KeyEvent.KEY_TYPED, new EventHandler<KeyEvent>() {
+			@Override
+			public void handle(KeyEvent event) {
+				final long now = System.nanoTime();
+				if (now - lastKeyTime < burstNanos) {
+					burstActive.set(true);
+				}
+				lastKeyTime = now;
+				burstTimeout.playFromStart();
+			}
+		});
+	}
+
+	/**
+	 * Adds an entered code to the queue and processes the queue, unless it is already being processed
+	 * @param input The entered text
+	 */
+	public void submit(String input) {
+		burstTimeout.stop();
+		burstActive.set(false);
+		queue.add(input);
+		drain();
+	}
+
+	/**
+	 * Runs a task which may open dialogs. Codes submitted meanwhile are processed after the task.
+	 * @param task The task to run
+	 */
+	public void runExclusive(Runnable task) {
+		if (processing) {
+			task.run();
+			return;
+		}
+		processing = true;
+		try {
+			task.run();
+		} finally {
+			processing = false;
+		}
+		drain();
+	}
+
+	private void drain() {
+		if (processing) {
+			return;
+		}
+		processing = true;
+		try {
+			while (!queue.isEmpty()) {
+				processor.process(queue.pollFirst());
+			}
+		} finally {
+			processing = false;
+		}
+	}
+
+	/**
+	 * Captures the scanner bursts typed into a dialog (instead of the input field) and queues them.
+	 * Barcode characters are held back until they turn out to be typed by hand (see releaseDialogBuffer()),
+	 * and an ENTER which ends a burst does not close the dialog.
+	 * @param root Root node of the dialog (eg. the dialog pane of an Alert)
+	 */
+	public void guard(Node root) {
+		root.addEventFilter(KeyEvent.KEY_TYPED, new EventHandler<KeyEvent>() {
+			@Override
+			public void handle(KeyEvent event) {
+				final String character = event.getCharacter();
+				final long now = System.nanoTime();
+				final boolean inBurst = dialogBuffer.length() > 0 && now - lastDialogKeyTime < burstNanos;
+				if (!inBurst) {
+					releaseDialogBuffer();
+				}
+				if (character.length() == 1 && "0123456789-_ö".indexOf(character.charAt(0)) >= 0) {
+					dialogBuffer.append(character);
+					dialogTarget = event.getTarget();
+					lastDialogKeyTime = now;
+					dialogTimeout.playFromStart();
+					event.consume();
+				} else {
+					releaseDialogBuffer();
+				}
+			}
+		});
+		root.addEventFilter(KeyEvent.KEY_PRESSED, new EventHandler<KeyEvent>() {
+			@Override
+			public void handle(KeyEvent event) {
+				if (event.getCode() == KeyCode.ENTER) {
+					final boolean scanned = dialogBuffer.length() >= MIN_CODE_LENGTH
+							&& System.nanoTime() - lastDialogKeyTime < burstNanos * 2;
+					if (scanned) {
+						final String code = dialogBuffer.toString();
+						dialogTimeout.stop();
+						dialogBuffer.setLength(0);
+						dialogTarget = null;
+						event.consume();
+						queue.add(code);
+						drain();
+					} else {
+						releaseDialogBuffer();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Passes the held back characters of a dialog to the text field they were typed into
+	 * (they were typed by hand, or they are too short for a code)
+	 */
+	private void releaseDialogBuffer() {
+		dialogTimeout.stop();
+		if (dialogBuffer.length() > 0 && dialogTarget instanceof TextInputControl) {
+			((TextInputControl) dialogTarget).replaceSelection(dialogBuffer.toString());
+		}
+		dialogBuffer.setLength(0);
+		dialogTarget = null;
+	}
+}
@@ -0,0 +1,155 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.util.List;
+
+/**
+ * Processes the entered texts of a session: a barcode, product id, count, publication year or comment
+ *
+ * This is the code path of the ENTER handler of the input field without the user interface: the database lookup,
+ * the choice between the products of a shared barcode, and the logger. What the operator has to see or decide is
+ * passed to the Listener. Used by InventoryApp, and by ScanReplay to replay scans headlessly.
+ *
+ * @since 2026-10-19
+ */
+class ScanProcessor {
+	/**
+	 * Receives the events which need the attention of the operator
+	 */
+	interface Listener {
+		/**
+		 * A barcode was scanned while the database is loading, the entry has to be resolved later
+		 */
+		void scannedWhileLoading(LogEntry entry);
+
+		/**
+		 * A new entry of a product in the database. It may have more candidate products (see LogEntry.getCandidates()).
+		 */
+		void scanned(LogEntry entry);
+
+		/**
+		 * A barcode or product id which is not in the database was entered
+		 * @param entry The new entry, or null if no entry was created (unknown product id)
+		 */
+		void unknown(LogEntry entry);
+	}
+
+	private final Database db;
+	private final Listener listener;
+	private BarcodePreferences barcodePreferences = null;
+	private boolean databaseReady = false;
+
+	/**
+	 * @param db       The database
+	 * @param listener Receives the events
+	 */
+	public ScanProcessor(Database db, Listener listener) {
+		this.db = db;
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets the earlier choices of the operator, which are applied to the shared barcodes (may be null)
+	 */
+	public void setBarcodePreferences(BarcodePreferences barcodePreferences) {
+		this.barcodePreferences = barcodePreferences;
+	}
+
+	/**
+	 * Sets whether the database has been loaded. Barcodes scanned before are not looked up.
+	 */
+	public void setDatabaseReady(boolean databaseReady) {
+		this.databaseReady = databaseReady;
+	}
+
+	/**
+	 * Processes an entered text
+	 * @param logger The log of the session
+	 * @param input  The entered text (without a scanner prefix)
+	 * @return The new or changed entry, or null
+	 * @throws Exception If writing the log fails
+	 */
+	public LogEntry process(Logger logger, String input) throws Exception {
+		final String normInput = input.replace("ö", "0").replace("-", "");
+		LogEntry loggedItem;
+		if (input.startsWith("#")) {
+			loggedItem = processProductId(logger, input.substring(1).trim());
+		} else if (!databaseReady && normInput.matches("[_\\d]{8,14}")) {
+			/* Resolved when the database is loaded */
+			loggedItem = logger.parseInput(input, null);
+			if (loggedItem != null) {
+				listener.scannedWhileLoading(loggedItem);
+			}
+		} else if (normInput.length() >= 8 && normInput.length() <= 14) {
+			/* A packaging (eg. a carton) is logged as its units */
+			final Database.Packaging packaging = db.getPackaging(normInput);
+			final String barcode = packaging != null ? packaging.unitBarcode : normInput;
+			final String code = packaging != null ? packaging.unitBarcode : input;
+			final List<DatabaseEntry> dbEntries = db.getByBarcode(barcode);
+			if (dbEntries == null) {
+				loggedItem = logger.parseInput(code, null);
+				setPackSize(loggedItem, packaging);
+				listener.unknown(loggedItem);
+			} else if (dbEntries.size() == 1) {
+				loggedItem = logger.parseInput(code, dbEntries.get(0));
+				if (loggedItem != null) {
+					setPackSize(loggedItem, packaging);
+					listener.scanned(loggedItem);
+				}
+			} else {
+				final DatabaseEntry autoChoice = barcodePreferences != null ? barcodePreferences.getAutoChoice(barcode, dbEntries) : null;
+				if (autoChoice != null) {
+					/* Chosen many times in a row at this location */
+					loggedItem = logger.parseInput(code, autoChoice);
+				} else {
+					/* The operator chooses later, in the "needs attention" list */
+					loggedItem = logger.parseInput(code, null);
+					if (loggedItem != null) {
+						loggedItem.setCandidates(dbEntries);
+					}
+				}
+				if (loggedItem != null) {
+					setPackSize(loggedItem, packaging);
+					listener.scanned(loggedItem);
+				}
+			}
+		} else {
+			loggedItem = logger.parseInput(input, null);
+		}
+		return loggedItem;
+	}
+
+	private static void setPackSize(LogEntry entry, Database.Packaging packaging) {
+		if (entry != null && packaging != null) {
+			entry.setPackSize(packaging.quantity);
+		}
+	}
+
+	/**
+	 * Starts an entry by a product id (cikkszám), eg. for products without a readable barcode
+	 * @param logger The log of the session
+	 * @param id     The product id, without the leading '#'
+	 * @return The new entry, or null if the product id is unknown
+	 */
+	private LogEntry processProductId(Logger logger, String id) throws Exception {
+		final List<DatabaseEntry> dbEntries = databaseReady && !id.isEmpty() ? db.getById(id) : null;
+		if (dbEntries == null) {
+			listener.unknown(null);
+			return null;
+		}
+		final String code = "#" + id;
+		final LogEntry loggedItem;
+		if (dbEntries.size() == 1) {
+			loggedItem = logger.parseProduct(code, dbEntries.get(0));
+		} else {
+			final DatabaseEntry autoChoice = barcodePreferences != null ? barcodePreferences.getAutoChoice(code, dbEntries) : null;
+			loggedItem = logger.parseProduct(code, autoChoice);
+			if (autoChoice == null) {
+				loggedItem.setCandidates(dbEntries);
+			}
+		}
+		listener.scanned(loggedItem);
+		return loggedItem;
+	}
+}
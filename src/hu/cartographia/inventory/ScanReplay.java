@@ -0,0 +1,442 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Replays a log file through the input processing of the application, without the user interface
+ *
+ * Every line of the input log is turned into the texts an operator would have entered: the barcode (or the
+ * product id, if the product has no barcode), the count if it is not 1, the publication year and the comment.
+ * The texts are processed by ScanProcessor, the same code which processes the ENTER of the input field, and
+ * written by a Logger per operator and location into the output directory. The clock of the loggers is set to the
+ * recorded time of the line, and a shared barcode is resolved to the logged product, so the output log has to be
+ * identical to the input log: the replay is a regression test of the parsing rules (eg. counts are below 1900,
+ * years are 1900-2099). The differing lines are listed.
+ *
+ * The inputs are processed at maximum speed, or at the recorded cadence (optionally accelerated). The throughput
+ * and the percentiles of the processing time of the inputs are reported.
+ *
+ * The products are read from a database file, or collected from the log itself. A scan stream can be generated
+ * from a database file too (random products, counts, years and comments, a few unknown barcodes); it is written
+ * as the input log (an existing file is never overwritten), then replayed.
+ *
+ * @since 2026-10-19
+ */
+class ScanReplay {
+	/** Number of differing lines listed */
+	private static final int MAX_LISTED_MISMATCHES = 20;
+
+	/**
+	 * Clock of the loggers, set to the recorded time of the replayed line
+	 */
+	private static class ReplayClock extends Clock {
+		long millis = 0;
+
+		@Override
+		public long millis() {
+			return millis;
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneId.systemDefault();
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+	}
+
+	private final ReplayClock clock = new ReplayClock();
+	/** Product id of the replayed line, the shared barcodes are resolved to it */
+	private String expectedProductId = "";
+	private final ScanProcessor processor;
+	/** Loggers by operator and location */
+	private final Map<String, Logger> loggers = new LinkedHashMap<String, Logger>();
+	private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+	private long[] latencies = new long[1 << 16];
+	private int inputCount = 0;
+	private long lineCount = 0;
+	private long invalidLines = 0;
+	private long mismatches = 0;
+
+	/**
+	 * @param db The products
+	 */
+	public ScanReplay(Database db) {
+		processor = new ScanProcessor(db, new ScanProcessor.Listener() {
+			@Override
+			public void scannedWhileLoading(LogEntry entry) {}
+
+			@Override
+			public void scanned(LogEntry entry) {
+				if (entry.getCandidates() != null) {
+					/* The operator chose the logged product */
+					DatabaseEntry chosen = null;
+					for (DatabaseEntry candidate : entry.getCandidates()) {
+						if (candidate.getId().equals(expectedProductId)) {
+							chosen = candidate;
+						}
+					}
+					entry.setCandidates(null);
+					if (chosen != null) {
+						entry.setBarcode(chosen.getBarcode());
+					}
+					entry.setDbEntry(chosen);
+				}
+			}
+
+			@Override
+			public void unknown(LogEntry entry) {}
+		});
+		processor.setDatabaseReady(true);
+	}
+
+	private static BufferedReader open(File file) throws IOException {
+		return new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 1 << 16);
+	}
+
+	private static String value(LogRecordParser parser, int field) {
+		final String value = parser.get(field);
+		return value != null ? value : "";
+	}
+
+	/**
+	 * Collects the products of a log into a database (without stock counts)
+	 * @param log The log file
+	 * @return The database
+	 * @throws IOException If reading fails
+	 */
+	public static Database collectProducts(File log) throws IOException {
+		final Database db = new Database();
+		final LogRecordParser parser = new LogRecordParser();
+		final Set<String> products = new HashSet<String>();
+		final BufferedReader in = open(log);
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!parser.parse(line)) {
+					continue;
+				}
+				final String id = value(parser, LogRecordParser.PRODUCT_ID);
+				final String name = value(parser, LogRecordParser.NAME);
+				final String barcode = value(parser, LogRecordParser.BARCODE);
+				if ((!id.isEmpty() || !name.isEmpty()) && products.add(barcode + '\u0000' + id)) {
+					db.addItem(barcode, name, value(parser, LogRecordParser.PUBLISHER), (Integer) null, id);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return db;
+	}
+
+	/**
+	 * Writes a random scan stream in the format of the log files
+	 * @param db                 The products
+	 * @param log                The output log file
+	 * @param scans              Number of scans
+	 * @param doubleScanSeconds  Double scan window of the replay (see Logger.setDoubleScanWindow())
+	 * @throws IOException If writing fails
+	 */
+	public static void generate(Database db, File log, int scans, int doubleScanSeconds) throws IOException {
+		final List<DatabaseEntry> products = new ArrayList<DatabaseEntry>();
+		for (DatabaseEntry product : db) {
+			if (product.getBarcode().matches("\\d{8,14}")) {
+				final List<DatabaseEntry> sameBarcode = db.getByBarcode(product.getBarcode());
+				if (sameBarcode != null && sameBarcode.contains(product)) {
+					products.add(product);
+				}
+			}
+		}
+		if (products.isEmpty()) {
+			throw new IOException("Nincs beolvasható vonalkódú termék az adatbázisban");
+		}
+		final String[] comments = {"sérült", "fóliázott", "kiállítási példány", "raktárban", "\"A\" polc"};
+		final Random random = new Random(scans);
+		final Map<String, Long> lastSeen = new HashMap<String, Long>();
+		long time = System.currentTimeMillis() / 1000 * 1000;
+		final BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(log), "UTF-8"), 1 << 16);
+		try {
+			for (int i = 0; i < scans; i++) {
+				time += 1000 * (1 + random.nextInt(4));
+				final DatabaseEntry product;
+				final String barcode;
+				if (random.nextInt(100) < 3) {
+					product = null;
+					barcode = "99" + String.format("%011d", random.nextInt(Integer.MAX_VALUE));
+				} else {
+					product = products.get(random.nextInt(products.size()));
+					barcode = product.getBarcode();
+				}
+				final int roll = random.nextInt(100);
+				final int count = roll < 80 ? 1 : roll < 95 ? random.nextInt(50) : random.nextInt(1900);
+				final String year = random.nextInt(10) == 0 ? Integer.toString(1900 + random.nextInt(200)) : null;
+				String comment = random.nextInt(20) == 0 ? comments[random.nextInt(comments.length)] : "";
+				if (doubleScanSeconds > 0) {
+					final String normalized = product != null ? product.getNormalizedBarcode() : DatabaseEntry.normalizeBarcode(barcode);
+					final Long previous = lastSeen.put(normalized, time);
+					if (ScanDashboard.barcodeKey(normalized) != 0 && previous != null && time - previous <= doubleScanSeconds * 1000L) {
+						comment = comment.isEmpty() ? Logger.DOUBLE_SCAN_TAG : Logger.DOUBLE_SCAN_TAG + " " + comment;
+					}
+				}
+				out.write(Logger.formatLine(new Date(time), barcode, count, comment, year, "teszt", "replay",
+						product != null ? product.getId() : "", product != null ? product.getName() : "",
+						product != null ? product.getPublisher() : "", product != null ? product.getNormalizedBarcode() : "",
+						db.getGeneration()));
+				out.write("\r\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Replays a log
+	 * @param log       The input log file
+	 * @param outputDir The directory of the output logs (created in its "log" subdirectory)
+	 * @param speedup   Acceleration of the recorded cadence, 0 for maximum speed
+	 * @throws Exception If reading or writing fails
+	 */
+	public void replay(File log, File outputDir, double speedup) throws Exception {
+		final LogRecordParser parser = new LogRecordParser();
+		final String path = outputDir.getPath() + File.separatorChar;
+		long firstTime = -1;
+		long startNanos = 0;
+		final BufferedReader in = open(log);
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!parser.parse(line)) {
+					invalidLines++;
+					continue;
+				}
+				final long time;
+				try {
+					time = timestampFormat.parse(parser.get(LogRecordParser.TIMESTAMP)).getTime();
+				} catch (ParseException | NullPointerException e) {
+					invalidLines++;
+					continue;
+				}
+				lineCount++;
+				final String operator = value(parser, LogRecordParser.OPERATOR);
+				final String location = value(parser, LogRecordParser.LOCATION);
+				Logger logger = loggers.get(operator + '\t' + location);
+				if (logger == null) {
+					logger = new Logger(path, operator, location);
+					logger.setClock(clock);
+					logger.setDoubleScanWindow(1000L * Settings.getIntForLocation("doubleScan.seconds", location, 2));
+					loggers.put(operator + '\t' + location, logger);
+				}
+				if (speedup > 0) {
+					if (firstTime < 0) {
+						firstTime = time;
+						startNanos = System.nanoTime();
+					}
+					final long wait = (long) ((time - firstTime) / speedup) - (System.nanoTime() - startNanos) / 1000000;
+					if (wait > 0) {
+						Thread.sleep(wait);
+					}
+				}
+				final String generation = parser.get(LogRecordParser.CATALOGUE_GENERATION);
+				logger.setCatalogueGeneration(generation != null && generation.matches("\\d{1,9}") ? Integer.parseInt(generation) : 0);
+				clock.millis = time;
+				expectedProductId = value(parser, LogRecordParser.PRODUCT_ID);
+
+				final String barcode = value(parser, LogRecordParser.BARCODE);
+				process(logger, barcode.isEmpty() && !expectedProductId.isEmpty() ? "#" + expectedProductId : barcode);
+				if (parser.getCount() != 1) {
+					process(logger, Integer.toString(parser.getCount()));
+				}
+				final String publicationDate = value(parser, LogRecordParser.PUBLICATION_DATE);
+				if (!publicationDate.isEmpty()) {
+					process(logger, publicationDate);
+				}
+				String comment = value(parser, LogRecordParser.COMMENT);
+				if (comment.startsWith(Logger.DOUBLE_SCAN_TAG)) {
+					comment = comment.substring(Logger.DOUBLE_SCAN_TAG.length()).trim();
+				}
+				if (!comment.isEmpty()) {
+					process(logger, comment);
+				}
+			}
+		} finally {
+			in.close();
+			for (Logger logger : loggers.values()) {
+				logger.close();
+			}
+		}
+	}
+
+	private void process(Logger logger, String input) throws Exception {
+		final long start = System.nanoTime();
+		processor.process(logger, input);
+		final long latency = System.nanoTime() - start;
+		if (inputCount == latencies.length) {
+			latencies = Arrays.copyOf(latencies, latencies.length * 2);
+		}
+		latencies[inputCount++] = latency;
+	}
+
+	/**
+	 * Compares the output logs to the input log, and lists the first differing lines
+	 * @param log The input log file
+	 * @throws IOException If reading fails
+	 */
+	public void compare(File log) throws IOException {
+		final LogRecordParser parser = new LogRecordParser();
+		final Map<String, BufferedReader> outputs = new HashMap<String, BufferedReader>();
+		final BufferedReader in = open(log);
+		try {
+			for (Map.Entry<String, Logger> session : loggers.entrySet()) {
+				outputs.put(session.getKey(), open(new File(session.getValue().getFileName())));
+			}
+			String line;
+			long lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				if (!parser.parse(line) || parser.get(LogRecordParser.TIMESTAMP) == null) {
+					continue;
+				}
+				final BufferedReader output = outputs.get(value(parser, LogRecordParser.OPERATOR) + '\t' + value(parser, LogRecordParser.LOCATION));
+				final String replayed = output != null ? output.readLine() : null;
+				if (!line.equals(replayed)) {
+					if (mismatches++ < MAX_LISTED_MISMATCHES) {
+						System.out.println("Eltérés a(z) " + lineNumber + ". sorban:\n  napló:       " + line + "\n  újrajátszás: " + replayed);
+					}
+				}
+			}
+			for (BufferedReader output : outputs.values()) {
+				while (output.readLine() != null) {
+					mismatches++;	// Lines which are not in the input
+				}
+			}
+		} finally {
+			in.close();
+			for (BufferedReader output : outputs.values()) {
+				output.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns a percentile of the processing times in microseconds
+	 * @param sorted The sorted processing times in nanoseconds
+	 */
+	private static double percentile(long[] sorted, double percentile) {
+		return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)] / 1000.0;
+	}
+
+	/**
+	 * Prints the throughput and the percentiles of the processing times
+	 * @param elapsedNanos Duration of the replay
+	 */
+	public void printStatistics(long elapsedNanos) {
+		final long[] sorted = Arrays.copyOf(latencies, inputCount);
+		Arrays.sort(sorted);
+		long total = 0;
+		for (long latency : sorted) {
+			total += latency;
+		}
+		final double seconds = elapsedNanos / 1e9;
+		System.out.println(String.format("Sorok: %d (hibás: %d), bevitelek: %d, munkamenetek: %d", lineCount, invalidLines, inputCount, loggers.size()));
+		System.out.println(String.format("Idő: %.2f s, %.0f sor/s, %.0f bevitel/s (feldolgozás: %.0f bevitel/s)",
+				seconds, lineCount / seconds, inputCount / seconds, total > 0 ? inputCount / (total / 1e9) : 0.0));
+		System.out.println(String.format("Feldolgozási idő (µs): p50 %.1f, p90 %.1f, p99 %.1f, max %.1f",
+				percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99), percentile(sorted, 1.0)));
+	}
+
+	public long getMismatches() {
+		return mismatches;
+	}
+
+	public static void main(String[] args) {
+		String dbFile = null;
+		int generate = 0;
+		double speedup = 0;
+		final List<String> files = new ArrayList<String>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("--db") && i + 1 < args.length) {
+					dbFile = args[++i];
+				} else if (args[i].equals("--generate") && i + 1 < args.length) {
+					generate = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("--cadence") && i + 1 < args.length) {
+					speedup = Double.parseDouble(args[++i]);
+				} else {
+					files.add(args[i]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			files.clear();
+		}
+		if (files.size() != 2 || (generate > 0 && dbFile == null)) {
+			System.err.println("Használat: ScanReplay [--db <adatbázis.csv>] [--generate <beolvasások>] [--cadence <gyorsítás>] <napló> <kimeneti könyvtár>");
+			System.exit(1);
+		}
+		Settings.load("settings.txt");
+		final File log = new File(files.get(0));
+		final File outputDir = new File(files.get(1));
+		try {
+			final File logDir = new File(outputDir, "log");
+			if (logDir.exists() && logDir.list().length > 0) {
+				throw new Exception("A kimeneti könyvtár már tartalmaz naplófájlokat: " + logDir.getPath());
+			}
+			if (generate > 0 && log.exists()) {
+				throw new Exception("A generált beolvasások fájlja már létezik, nem írható felül: " + log.getPath());
+			}
+			outputDir.mkdirs();
+			final Database db;
+			if (dbFile != null) {
+				db = new Database();
+				db.readFromFile(dbFile);
+			} else {
+				db = collectProducts(log);
+			}
+			if (generate > 0) {
+				generate(db, log, generate, Settings.getIntForLocation("doubleScan.seconds", "teszt", 2));
+			}
+			final ScanReplay replay = new ScanReplay(db);
+			final long start = System.nanoTime();
+			replay.replay(log, outputDir, speedup);
+			replay.printStatistics(System.nanoTime() - start);
+			replay.compare(log);
+			System.out.println(replay.getMismatches() == 0 ? "A kimenet azonos a naplóval." : "Eltérő sorok: " + replay.getMismatches());
+			System.exit(replay.getMismatches() == 0 ? 0 : 2);
+		} catch (Exception e) {
+			System.err.println("Újrajátszás sikertelen: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
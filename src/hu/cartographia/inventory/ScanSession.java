@@ -0,0 +1,186 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javafx.collections.FXCollections;
+import javafx.scene.control.TableView;
+
+/**
+ * One scanner of a station: its operator, log file, table and active entry
+ *
+ * More scanners may be attached to one station ("scanner.prefixes" setting). Every scanner sends a different
+ * prefix before the codes, the inputs are routed to the sessions by it (see route()). The sessions do not share
+ * any state on the commit path: each of them writes its own log file, and a pending entry (waiting for the
+ * database or for a decision) holds back only the entries of its own session. The database and the commit
+ * listeners (sync queue, dashboard) are shared.
+ *
+ * The keystrokes of every scanner arrive on the JavaFX thread, so the sessions are used on that thread.
+ * All scanners type into the same input field: the scanners must not be triggered at the same moment, because
+ * the characters of overlapping codes get mixed. A mixed code is rejected if a prefix is inside it (see
+ * isInterleaved()), or if it arrives at scanner speed without a prefix (the rest of a code cut by the ENTER of
+ * another scanner). Inputs without a prefix (eg. a typed count, year or comment) go to the selected session.
+ *
+ * @since 2026-10-19
+ */
+class ScanSession {
+	private final String prefix;
+	private final Logger logger;
+	/** Compact copy of the log, if it is enabled ("log.compact" setting) */
+	private CompactLogWriter compactLogWriter;
+	/** The table which displays the log entries of the session */
+	private final TableView<LogEntry> table = new TableView<LogEntry>();
+
+	/**
+	 * Opens the log file of an operator
+	 * @param prefix       Prefix of the codes sent by the scanner (empty if there is only one scanner)
+	 * @param path         Base path of the application
+	 * @param operatorName Name of the operator
+	 * @param location     Name of the location
+	 * @throws Exception If the log file can not be created
+	 */
+	public ScanSession(String prefix, String path, String operatorName, String location) throws Exception {
+		this.prefix = prefix;
+		this.logger = new Logger(path, operatorName, location);
+		table.setItems(logger.logEntries);
+	}
+
+	public String getPrefix() {
+		return prefix;
+	}
+
+	public String getOperatorName() {
+		return logger.getOperatorName();
+	}
+
+	public Logger getLogger() {
+		return logger;
+	}
+
+	public TableView<LogEntry> getTable() {
+		return table;
+	}
+
+	/**
+	 * Shows only the rows of a barcode in the table (see Logger.getIndex())
+	 * @param barcode The barcode
+	 * @return False if the barcode was not scanned in the session (the table is not changed)
+	 */
+	public boolean filter(String barcode) {
+		final SessionIndex.Slot slot = logger.getIndex().get(barcode);
+		if (slot == null || slot.getEntries().isEmpty()) {
+			return false;
+		}
+		final List<LogEntry> entries = new ArrayList<LogEntry>(slot.getEntries());
+		Collections.reverse(entries);	// Newest first, like the table
+		table.setItems(FXCollections.observableList(entries));
+		return true;
+	}
+
+	/**
+	 * Shows every row in the table again
+	 */
+	public void clearFilter() {
+		if (isFiltered()) {
+			table.setItems(logger.logEntries);
+		}
+	}
+
+	public boolean isFiltered() {
+		return table.getItems() != logger.logEntries;
+	}
+
+	/**
+	 * Selects the previous row of a barcode before the selected row (or the newest one, after the oldest one)
+	 * @param barcode The barcode
+	 * @return False if the barcode has no row in the table
+	 */
+	public boolean jumpToNext(String barcode) {
+		final SessionIndex.Slot slot = logger.getIndex().get(barcode);
+		if (slot == null || slot.getEntries().isEmpty()) {
+			return false;
+		}
+		clearFilter();
+		final List<LogEntry> entries = slot.getEntries();
+		final LogEntry selected = table.getSelectionModel().getSelectedItem();
+		LogEntry next = entries.get(entries.size() - 1);
+		if (selected != null) {
+			for (int i = entries.size() - 1; i >= 0; i--) {
+				if (entries.get(i).getSequence() < selected.getSequence()) {
+					next = entries.get(i);
+					break;
+				}
+			}
+		}
+		final int row = logger.indexOf(next);
+		table.getSelectionModel().clearAndSelect(row);
+		table.scrollTo(row);
+		return true;
+	}
+
+	/**
+	 * Writes a compact copy of the log too
+	 * @throws Exception If the compact log file can not be created
+	 */
+	public void enableCompactLog() throws Exception {
+		compactLogWriter = new CompactLogWriter(logger);
+		logger.addCommitListener(compactLogWriter);
+	}
+
+	/**
+	 * Returns the session of an entered text
+	 * @param sessions The sessions of the station
+	 * @param selected The session which receives the text without a known scanner prefix (eg. typed text)
+	 * @param input    The entered text
+	 * @return The session whose prefix the text starts with, or the selected session
+	 */
+	public static ScanSession route(List<ScanSession> sessions, ScanSession selected, String input) {
+		for (ScanSession session : sessions) {
+			if (!session.prefix.isEmpty() && input.startsWith(session.prefix)) {
+				return session;
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Returns true if the codes of more scanners got mixed in an entered text: a scanner prefix is inside the text
+	 * @param prefixes Prefixes of the scanners
+	 * @param input    The entered text
+	 */
+	public static boolean isInterleaved(String[] prefixes, String input) {
+		for (String prefix : prefixes) {
+			if (!prefix.isEmpty() && input.indexOf(prefix, 1) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the scanner prefix from an entered text
+	 * @param prefixes Prefixes of the scanners
+	 * @param input    The entered text
+	 * @return The text without the prefix
+	 */
+	public static String stripPrefix(String[] prefixes, String input) {
+		for (String prefix : prefixes) {
+			if (!prefix.isEmpty() && input.startsWith(prefix)) {
+				return input.substring(prefix.length());
+			}
+		}
+		return input;
+	}
+
+	/**
+	 * Writes the active entry and closes the log files
+	 */
+	public void close() {
+		logger.close();
+		if (compactLogWriter != null) {
+			compactLogWriter.close();
+		}
+	}
+}
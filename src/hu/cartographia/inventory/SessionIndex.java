@@ -0,0 +1,126 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The scans of a session by normalized barcode: the number of scans, the sum of the counts and the entries of the table
+ *
+ * Maintained by the Logger as the entries are created, so "was it counted already, and how many" is answered by one
+ * lookup, and the rows of a barcode are found without scanning the table. The counts and the barcodes of the
+ * entries may change after they have been added (a count is entered, a shared barcode is resolved, a product is
+ * named), the index follows them through the listeners of the properties. Lines of a resumed log which are not
+ * loaded into the table are counted without entries.
+ *
+ * Used on the JavaFX thread, like the Logger.
+ *
+ * @since 2026-10-19
+ */
+class SessionIndex {
+	/**
+	 * The scans of a barcode
+	 */
+	static class Slot {
+		private int scans = 0;
+		private long count = 0;
+		/** Entries of the table, in order of scanning */
+		private final List<LogEntry> entries = new ArrayList<LogEntry>(2);
+
+		public int getScans() {
+			return scans;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the entries of the table, in order of scanning (the last one is the newest)
+		 */
+		public List<LogEntry> getEntries() {
+			return Collections.unmodifiableList(entries);
+		}
+	}
+
+	private final Map<String, Slot> slots = new HashMap<String, Slot>();
+
+	/**
+	 * Returns the key of a barcode
+	 */
+	static String key(String barcode) {
+		return barcode != null ? DatabaseEntry.normalizeBarcode(barcode) : "";
+	}
+
+	private Slot slot(String key) {
+		Slot slot = slots.get(key);
+		if (slot == null) {
+			slot = new Slot();
+			slots.put(key, slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns the scans of a barcode
+	 * @param barcode A barcode (normalized or not)
+	 * @return The scans, or null if the barcode was not scanned in the session
+	 */
+	public Slot get(String barcode) {
+		final Slot slot = slots.get(key(barcode));
+		return slot != null && slot.scans > 0 ? slot : null;
+	}
+
+	/**
+	 * Adds a new entry of the table
+	 */
+	void add(LogEntry entry) {
+		final Slot slot = slot(key(entry.getBarcode()));
+		slot.scans++;
+		slot.count += entry.getCount();
+		slot.entries.add(entry);
+		entry.countProperty().addListener((observable, oldValue, newValue) ->
+				slot(key(entry.getBarcode())).count += newValue.intValue() - oldValue.intValue());
+		entry.barcodeProperty().addListener((observable, oldValue, newValue) -> move(entry, oldValue, newValue));
+	}
+
+	/**
+	 * Moves an entry to another slot when its barcode changes
+	 */
+	private void move(LogEntry entry, String oldBarcode, String newBarcode) {
+		final Slot oldSlot = slot(key(oldBarcode));
+		oldSlot.scans--;
+		oldSlot.count -= entry.getCount();
+		oldSlot.entries.remove(entry);
+		final Slot newSlot = slot(key(newBarcode));
+		newSlot.scans++;
+		newSlot.count += entry.getCount();
+		int position = newSlot.entries.size();
+		while (position > 0 && newSlot.entries.get(position - 1).getSequence() > entry.getSequence()) {
+			position--;	// A resolved entry is one of the latest ones, so this is short
+		}
+		newSlot.entries.add(position, entry);
+	}
+
+	/**
+	 * Adds an entry of the resumed log to the table, its line has been counted already (see addCount())
+	 */
+	void addCounted(LogEntry entry) {
+		slot(key(entry.getBarcode())).entries.add(entry);
+	}
+
+	/**
+	 * Counts a line of the resumed log
+	 * @param normalizedBarcode The normalized barcode
+	 * @param count             The count of the line
+	 */
+	void addCount(String normalizedBarcode, int count) {
+		final Slot slot = slot(normalizedBarcode);
+		slot.scans++;
+		slot.count += count;
+	}
+}
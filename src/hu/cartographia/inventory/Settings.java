@@ -0,0 +1,85 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Properties;
+
+/**
+ * Optional application settings
+ *
+ * Settings are read from a settings.txt file next to the jar file (java.util.Properties format, UTF-8 encoded).
+ * Every setting has a default value, so the file may be missing or incomplete.
+ * Some settings can be overridden per location by appending the location name to the key, eg. "key.raktár1=value"
+ *
+ * @since 2026-10-19
+ */
+class Settings {
+	private static final Properties properties = new Properties();
+
+	/**
+	 * Loads the settings file. A missing file is silently ignored.
+	 * @param fileName Name (with path) of the settings file
+	 */
+	public static void load(String fileName) {
+		Reader in = null;
+		try {
+			in = new InputStreamReader(new FileInputStream(fileName), "UTF-8");
+			properties.load(in);
+		} catch (IOException e) {
+		} finally {
+			try {
+				if (in != null) {
+					in.close();
+				}
+			} catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Returns the value of a setting
+	 * @param key          The key of the setting
+	 * @param defaultValue The value returned if the setting is missing or empty
+	 */
+	public static String get(String key, String defaultValue) {
+		final String value = properties.getProperty(key);
+		return value != null && !value.trim().isEmpty() ? value.trim() : defaultValue;
+	}
+
+	/** @see Settings#get(String, String) */
+	public static int getInt(String key, int defaultValue) {
+		try {
+			return Integer.parseInt(get(key, ""));
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/** @see Settings#get(String, String) */
+	public static boolean getBoolean(String key, boolean defaultValue) {
+		final String value = get(key, null);
+		return value != null ? value.equalsIgnoreCase("true") || value.equals("1") : defaultValue;
+	}
+
+	/**
+	 * Returns the location specific value of a setting ("key.location"), or the general one ("key")
+	 * @param key          The key of the setting
+	 * @param location     Name of the location
+	 * @param defaultValue The value returned if none of the settings are given
+	 */
+	public static String getForLocation(String key, String location, String defaultValue) {
+		return get(key + "." + location, get(key, defaultValue));
+	}
+
+	/** @see Settings#getForLocation(String, String, String) */
+	public static int getIntForLocation(String key, String location, int defaultValue) {
+		try {
+			return Integer.parseInt(getForLocation(key, location, ""));
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+}
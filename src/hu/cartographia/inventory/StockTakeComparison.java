@@ -0,0 +1,401 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares the counts of two stock-takings (eg. this year's and last year's)
+ *
+ * An input is either a result report (_leltár_eredmény.csv) or a merged log (_leltár_részletes_adatok.csv) of
+ * ReportCreator, or a bundle of log files (see LogArchive), which is read like a merged log. Products are keyed by
+ * product id and barcode, like in the report. Every input is turned into a stream of counts ordered by the key:
+ * a result report is usually ordered already, then it is read as it is; otherwise (and a merged log and a bundle
+ * always) it is sorted by ExternalSorter. Lines of the same key are summed on the fly.
+ * The two streams are joined by a merge join, so the memory usage does not depend on the size of the inputs.
+ * The output lists the products which appeared (not found before), disappeared (not found now), or changed by more
+ * than the threshold. The logs may be restricted to some locations (see setLocations()), only the blocks of a bundle
+ * which contain these locations are read then.
+ *
+ * @since 2026-10-19
+ */
+class StockTakeComparison {
+	private static final String HEADER = "\"Cikkszám\"\t\"Vonalkód\"\t\"Terméknév\"\t\"Kiadó\"\t\"Előző db\"\t\"Jelenlegi db\"\t\"Eltérés\"\t\"Változás\"";
+	/** First value of the header of the result report */
+	private static final String REPORT_HEADER_START = "\"Cikkszám\"";
+
+	/**
+	 * Summed counts of one input, in key order
+	 */
+	private static class Counts {
+		private final File file;
+		/** Locations of the log lines counted, or null for every location */
+		private final Set<String> locations;
+		private BufferedReader in = null;
+		private ExternalSorter.Cursor cursor = null;
+		private final LogRecordParser parser = new LogRecordParser();
+		/* The next line of the input, already read */
+		private boolean hasLine = false;
+		private String lineKey;
+		private String lineName;
+		private String linePublisher;
+		private long lineCount;
+
+		/* The current product */
+		String key = null;
+		String name;
+		String publisher;
+		long count;
+
+		/**
+		 * @param locations      Locations of the log lines counted, or null for every location
+		 * @param sortMemoryRows Number of lines sorted in memory
+		 * @param tmpDir         Directory of the temporary files of the sorting
+		 */
+		Counts(File file, Set<String> locations, int sortMemoryRows, File tmpDir) throws IOException {
+			this.file = file;
+			this.locations = locations;
+			if (LogArchive.isArchive(file)) {
+				cursor = sortArchive(sortMemoryRows, tmpDir);
+				hasLine = readLine();
+				return;
+			}
+			in = open(file);
+			final String header = in.readLine();
+			final boolean report = header != null && header.startsWith(REPORT_HEADER_START);
+			if (report && locations != null) {
+				in.close();
+				throw new IOException("A kimutatás nem szűrhető helyszín szerint: " + file);
+			}
+			if (!report || !isOrdered(file)) {
+				in.close();
+				in = null;
+				cursor = sort(report, sortMemoryRows, tmpDir);
+			}
+			hasLine = readLine();
+		}
+
+		private static BufferedReader open(File file) throws IOException {
+			return new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 1 << 16);
+		}
+
+		/**
+		 * Sorts the lines of the input by the key. Invalid lines are skipped.
+		 * @param report True if the input is a result report, false if it is a merged log
+		 */
+		private ExternalSorter.Cursor sort(boolean report, int sortMemoryRows, File tmpDir) throws IOException {
+			final ExternalSorter sorter = new ExternalSorter(sortMemoryRows, tmpDir);
+			final BufferedReader log = open(file);
+			try {
+				String line;
+				if (report) {
+					log.readLine();
+				}
+				while ((line = log.readLine()) != null) {
+					if (report) {
+						final List<String> values = reportValues(line);
+						if (values != null) {
+							sorter.add(key(values.get(0), values.get(1)), values.get(6).trim() + "\t" + values.get(3) + "\t" + values.get(4));
+						}
+						continue;
+					}
+					addLogLine(sorter, line);
+				}
+			} catch (IOException e) {
+				sorter.close();
+				throw e;
+			} finally {
+				log.close();
+			}
+			return sorter.open();
+		}
+
+		/**
+		 * Sorts the lines of a bundle by the key. The blocks are decompressed in parallel, the blocks without the
+		 * locations are skipped.
+		 */
+		private ExternalSorter.Cursor sortArchive(int sortMemoryRows, File tmpDir) throws IOException {
+			final ExternalSorter sorter = new ExternalSorter(sortMemoryRows, tmpDir);
+			final LogArchiveReader reader = new LogArchiveReader(file);
+			try {
+				reader.read(reader.selectBlocks(null, locations), Runtime.getRuntime().availableProcessors(),
+						(fileName, lineNumber, line) -> addLogLine(sorter, line));
+			} catch (IOException e) {
+				sorter.close();
+				throw e;
+			} finally {
+				reader.close();
+			}
+			return sorter.open();
+		}
+
+		/**
+		 * Passes a line of a log to the sorter. Invalid lines and lines of other locations are skipped.
+		 */
+		private void addLogLine(ExternalSorter sorter, String line) throws IOException {
+			if (line.trim().isEmpty() || !parser.parse(line.trim())) {
+				return;
+			}
+			if (locations != null && !locations.contains(parser.get(LogRecordParser.LOCATION))) {
+				return;
+			}
+			final String name = parser.get(LogRecordParser.NAME);
+			final String publisher = parser.get(LogRecordParser.PUBLISHER);
+			sorter.add(key(parser.get(LogRecordParser.PRODUCT_ID), parser.get(LogRecordParser.BARCODE)),
+					parser.getCount() + "\t" + (name != null ? name : "") + "\t" + (publisher != null ? publisher : ""));
+		}
+
+		/**
+		 * Reads the next line of the input
+		 * @return False at the end of the input
+		 */
+		private boolean readLine() throws IOException {
+			if (cursor != null) {
+				if (!cursor.next()) {
+					return false;
+				}
+				final String line = cursor.getLine();
+				final int nameStart = line.indexOf('\t') + 1;
+				final int publisherStart = line.indexOf('\t', nameStart) + 1;
+				lineKey = cursor.getKey();
+				lineCount = Long.parseLong(line.substring(0, nameStart - 1));
+				lineName = line.substring(nameStart, publisherStart - 1);
+				linePublisher = line.substring(publisherStart);
+				return true;
+			}
+			String line;
+			while ((line = in.readLine()) != null) {
+				final List<String> values = reportValues(line);
+				if (values != null) {
+					lineKey = key(values.get(0), values.get(1));
+					lineCount = Long.parseLong(values.get(6).trim());
+					lineName = values.get(3);
+					linePublisher = values.get(4);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Moves to the next product, summing the lines of the same key
+		 * @return False at the end of the input
+		 */
+		boolean next() throws IOException {
+			if (!hasLine) {
+				key = null;
+				return false;
+			}
+			key = lineKey;
+			name = lineName;
+			publisher = linePublisher;
+			count = lineCount;
+			while ((hasLine = readLine()) && lineKey.equals(key)) {
+				count += lineCount;
+				if (name.isEmpty()) {
+					name = lineName;
+					publisher = linePublisher;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns true if the rows of a result report are ordered by the key
+		 */
+		private static boolean isOrdered(File file) throws IOException {
+			final BufferedReader in = open(file);
+			try {
+				in.readLine();
+				String previousKey = null;
+				String line;
+				while ((line = in.readLine()) != null) {
+					final List<String> values = reportValues(line);
+					if (values == null) {
+						continue;
+					}
+					final String key = key(values.get(0), values.get(1));
+					if (previousKey != null && key.compareTo(previousKey) < 0) {
+						return false;
+					}
+					previousKey = key;
+				}
+				return true;
+			} finally {
+				in.close();
+			}
+		}
+
+		/**
+		 * Parses a row of a result report
+		 * @return The values, or null if the row is invalid
+		 */
+		private static List<String> reportValues(String line) {
+			final List<String> values = CSVUtils.parseLine(line, '\t');
+			if (values.size() < 7 || !values.get(6).trim().matches("-?\\d{1,18}")) {
+				return null;
+			}
+			return values;
+		}
+
+		void close() {
+			if (cursor != null) {
+				cursor.close();
+			}
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	private final int threshold;
+	private final int sortMemoryRows;
+	private Set<String> locations = null;
+	private long appeared = 0;
+	private long disappeared = 0;
+	private long changed = 0;
+
+	/**
+	 * @param threshold      Differences up to this number of pieces are not listed
+	 * @param sortMemoryRows Number of lines sorted in memory, larger inputs are sorted through temporary files
+	 */
+	public StockTakeComparison(int threshold, int sortMemoryRows) {
+		this.threshold = threshold;
+		this.sortMemoryRows = sortMemoryRows;
+	}
+
+	/**
+	 * Restricts the logs to some locations (the result reports can not be restricted)
+	 * @param locations The locations, or null for every location
+	 */
+	public void setLocations(Set<String> locations) {
+		this.locations = locations;
+	}
+
+	/**
+	 * Returns the join key of a product, ordered like the result report (see ReportCreator)
+	 */
+	static String key(String productId, String barcode) {
+		return (productId != null ? productId : "") + '\u0000' + (barcode != null ? barcode : "");
+	}
+
+	/**
+	 * Compares two inputs
+	 * @param previous The earlier result report, merged log or bundle
+	 * @param current  The later result report, merged log or bundle
+	 * @param output   The comparison, ordered by product id and barcode
+	 * @throws IOException If reading or writing fails
+	 */
+	public void compare(File previous, File current, File output) throws IOException {
+		final File tmpDir = output.getAbsoluteFile().getParentFile();
+		Counts before = null;
+		Counts after = null;
+		final BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"), 1 << 16);
+		try {
+			before = new Counts(previous, locations, sortMemoryRows, tmpDir);
+			after = new Counts(current, locations, sortMemoryRows, tmpDir);
+			out.write(HEADER);
+			out.newLine();
+			before.next();
+			after.next();
+			while (before.key != null || after.key != null) {
+				final int order = before.key == null ? 1 : after.key == null ? -1 : before.key.compareTo(after.key);
+				if (order < 0) {
+					row(out, before, before.count, 0);
+					before.next();
+				} else if (order > 0) {
+					row(out, after, 0, after.count);
+					after.next();
+				} else {
+					row(out, after.name.isEmpty() ? before : after, before.count, after.count);
+					before.next();
+					after.next();
+				}
+			}
+		} finally {
+			out.close();
+			if (before != null) {
+				before.close();
+			}
+			if (after != null) {
+				after.close();
+			}
+		}
+	}
+
+	private void row(BufferedWriter out, Counts product, long before, long after) throws IOException {
+		final String change;
+		if (before <= 0 && after > 0) {
+			change = "ÚJ";
+			appeared++;
+		} else if (before > 0 && after <= 0) {
+			change = "ELTŰNT";
+			disappeared++;
+		} else if (Math.abs(after - before) > threshold) {
+			change = "VÁLTOZOTT";
+			changed++;
+		} else {
+			return;
+		}
+		final int separator = product.key.indexOf('\u0000');
+		out.write(String.format("\"%1$s\"\t\"%2$s\"\t\"%3$s\"\t\"%4$s\"\t%5$d\t%6$d\t%7$d\t\"%8$s\"",
+				product.key.substring(0, separator),
+				product.key.substring(separator + 1),
+				product.name.replace("\"", "\"\""),
+				product.publisher,
+				before,
+				after,
+				after - before,
+				change));
+		out.newLine();
+	}
+
+	public long getAppeared() {
+		return appeared;
+	}
+
+	public long getDisappeared() {
+		return disappeared;
+	}
+
+	public long getChanged() {
+		return changed;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Használat: StockTakeComparison <előző kimutatás vagy napló> <mostani kimutatás vagy napló> <kimeneti .csv fájl> [küszöb] [helyszín]...");
+			System.exit(1);
+		}
+		Settings.load("settings.txt");
+		try {
+			final StockTakeComparison comparison = new StockTakeComparison(args.length >= 4 ? Integer.parseInt(args[3]) : 0,
+					Settings.getInt("report.sortMemoryRows", 200000));
+			if (args.length >= 5) {
+				final Set<String> locations = new HashSet<String>();
+				for (int i = 4; i < args.length; i++) {
+					locations.add(args[i]);
+				}
+				comparison.setLocations(locations);
+			}
+			comparison.compare(new File(args[0]), new File(args[1]), new File(args[2]));
+			System.out.println("Új: " + comparison.getAppeared() + ", eltűnt: " + comparison.getDisappeared()
+					+ ", változott: " + comparison.getChanged());
+		} catch (IOException | NumberFormatException e) {
+			System.err.println("Összehasonlítás sikertelen: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Load-time string pool for field values which repeat a lot (publishers, locations, operator names, years)
+ *
+ * Every distinct value is stored only once, so large databases and logs need much less memory,
+ * and pooled values can be compared by identity. Unlike String.intern() the pool is an ordinary object,
+ * and it is safe to use from several threads.
+ * Free text values (names, comments) should not be pooled, they would only grow the pool.
+ *
+ * @since 2026-10-19
+ */
+class StringPool {
+	/** The pool shared by the database loader, the log parsers and the log entries */
+	public static final StringPool SHARED = new StringPool();
+
+	private final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Returns the pooled instance of a value
+	 * @param value The value (may be null)
+	 * @return The pooled instance equal to the value, or null
+	 */
+	public String intern(String value) {
+		if (value == null) {
+			return null;
+		}
+		final String pooled = pool.putIfAbsent(value, value);
+		return pooled != null ? pooled : value;
+	}
+
+	/**
+	 * Returns the number of distinct values in the pool
+	 */
+	public int size() {
+		return pool.size();
+	}
+}
@@ -0,0 +1,456 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Durable outbound queue which forwards committed log lines to a central inbox directory (eg. a network share)
+ *
+ * Every committed line gets a sequence number and is appended to a segment file in the queue directory
+ * before the logger continues, so nothing is lost if the network or the application goes down.
+ * A background thread collects the unsent lines into batches, writes them gzip compressed into the inbox
+ * (<inbox>/<station>/<first seq>-<last seq>.gz, atomically via rename) and retries with exponential backoff
+ * while the inbox is unreachable. The receiving side (SyncReceiver) deduplicates by station and sequence number.
+ * Records which can not be delivered (segment files lost) are announced by a "#gap\t<first seq>\t<last seq>"
+ * marker record instead. The batch of sequence number 1 starts with a "#reset\t<epoch>" marker record, so the
+ * receiver notices when the queue of a station has been recreated and its sequence numbers restart.
+ *
+ * Queue directory layout:
+ *    <first seq>.seg  segment files, one "seq\tlog line" record per line
+ *    acked.txt        the last sequence number which has been delivered to the inbox
+ *    epoch.txt        identifier of the queue, created with the queue
+ *
+ * @since 2026-10-19
+ */
+class SyncQueue implements Logger.CommitListener {
+	/** Number of records in one segment file */
+	private static final int SEGMENT_SIZE = 10000;
+	/** Maximal number of records sent in one batch file */
+	private static final int BATCH_SIZE = 20000;
+	private static final long MIN_BACKOFF = 1000;
+	private static final long MAX_BACKOFF = 60000;
+	private static final String SEGMENT_EXTENSION = ".seg";
+	private static final String ACKED_FILE_NAME = "acked.txt";
+	private static final String EPOCH_FILE_NAME = "epoch.txt";
+	/** Marker record of lost records: GAP_RECORD \t first seq \t last seq */
+	static final String GAP_RECORD = "#gap";
+	/** Marker record of a new queue: RESET_RECORD \t epoch */
+	static final String RESET_RECORD = "#reset";
+
+	private final File queueDir;
+	private final File inboxDir;
+	private final String station;
+	/** Identifier of the queue (see RESET_RECORD) */
+	private final String epoch;
+
+	private final Object lock = new Object();
+	private BufferedWriter segmentWriter = null;
+	private int segmentRecords = 0;
+	/** The next sequence number to assign */
+	private long nextSeq = 1;
+	/** The last sequence number which is completely written to a segment file */
+	private volatile long appendedSeq = 0;
+	/** The last sequence number which has been delivered to the inbox */
+	private volatile long ackedSeq = 0;
+
+	private Thread sender = null;
+	private volatile boolean running = false;
+
+	/**
+	 * Opens (or creates) the queue directory and recovers the sequence numbers from it
+	 * @param queueDir Local directory of the segment files
+	 * @param inboxDir The central inbox directory
+	 * @param station  Unique name of this station
+	 * @throws Exception If the queue directory is not usable
+	 */
+	public SyncQueue(String queueDir, String inboxDir, String station) throws Exception {
+		this.queueDir = new File(queueDir);
+		this.inboxDir = new File(inboxDir);
+		this.station = station.replaceAll("[^A-Za-z0-9_.-]", "_");
+
+		if (!this.queueDir.exists() && !this.queueDir.mkdirs()) {
+			throw new Exception("A szinkronizálási sor könyvtára nem hozható létre: " + this.queueDir.getAbsolutePath());
+		}
+		ackedSeq = readAcked();
+		appendedSeq = Math.max(ackedSeq, recoverLastSeq());
+		nextSeq = appendedSeq + 1;
+		try {
+			epoch = readEpoch();
+		} catch (IOException e) {
+			throw new Exception("A szinkronizálási sor azonosítója nem menthető: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the station name: the "sync.station" setting or the host name of the computer
+	 */
+	public static String defaultStationName() {
+		String name = Settings.get("sync.station", null);
+		if (name == null) {
+			try {
+				name = InetAddress.getLocalHost().getHostName();
+			} catch (IOException e) {
+				name = "station";
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * Appends a committed log line to the queue. Called by the Logger.
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void committed(LogEntry entry, String line) throws Exception {
+		synchronized (lock) {
+			try {
+				if (segmentWriter == null || segmentRecords >= SEGMENT_SIZE) {
+					if (segmentWriter != null) {
+						segmentWriter.close();
+					}
+					segmentWriter = new BufferedWriter(new OutputStreamWriter(
+							new FileOutputStream(segmentFile(nextSeq), true), "UTF-8"));
+					segmentRecords = 0;
+				}
+				segmentWriter.write(nextSeq + "\t" + line + "\n");
+				segmentWriter.flush();
+				segmentRecords++;
+				appendedSeq = nextSeq++;
+			} catch (IOException e) {
+				throw new Exception("Szinkronizálási sor írása sikertelen: " + e.getMessage());
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the number of committed lines which are not delivered to the inbox yet
+	 */
+	public long getBacklog() {
+		return appendedSeq - ackedSeq;
+	}
+
+	/**
+	 * Starts the background sender thread
+	 */
+	public void start() {
+		if (sender != null) {
+			return;
+		}
+		running = true;
+		sender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				sendLoop();
+			}
+		}, "SyncQueue sender");
+		sender.setDaemon(true);
+		sender.start();
+	}
+
+	/**
+	 * Stops the sender thread and closes the current segment. Unsent lines stay in the queue for the next start.
+	 */
+	public void close() {
+		running = false;
+		synchronized (lock) {
+			lock.notifyAll();
+			try {
+				if (segmentWriter != null) {
+					segmentWriter.close();
+					segmentWriter = null;
+				}
+			} catch (IOException e) {
+				System.err.println("Szinkronizálási sor bezárása sikertelen: " + e.getMessage());
+			}
+		}
+		if (sender != null) {
+			try {
+				sender.join(5000);
+			} catch (InterruptedException e) {}
+			sender = null;
+		}
+	}
+
+	private void sendLoop() {
+		long backoff = MIN_BACKOFF;
+		while (running) {
+			try {
+				synchronized (lock) {
+					while (running && appendedSeq <= ackedSeq) {
+						lock.wait(5000);
+					}
+				}
+				if (!running) {
+					break;
+				}
+				while (running && appendedSeq > ackedSeq) {
+					sendBatch();
+				}
+				backoff = MIN_BACKOFF;
+			} catch (IOException e) {
+				System.err.println("Szinkronizálás sikertelen, újrapróbálás " + (backoff / 1000) + " mp múlva: " + e.getMessage());
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException ie) {
+					break;
+				}
+				backoff = Math.min(backoff * 2, MAX_BACKOFF);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Collects the next batch of unsent records and delivers them to the inbox
+	 * @throws IOException If the inbox is not writable
+	 */
+	private void sendBatch() throws IOException {
+		final long limit = appendedSeq;	// Every record up to this is completely written
+		final long firstSeq = ackedSeq + 1;
+		final List<String> records = new ArrayList<String>();
+		long firstAvailableSeq = Long.MAX_VALUE;
+
+		for (File segment : listSegments()) {
+			if (records.size() >= BATCH_SIZE) {
+				break;
+			}
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(segment), "UTF-8"));
+			try {
+				String record;
+				while ((record = in.readLine()) != null && records.size() < BATCH_SIZE) {
+					final long seq = parseSeq(record);
+					if (seq > limit) {
+						break;
+					}
+					if (seq == firstSeq + records.size()) {
+						records.add(record);
+					} else if (seq > firstSeq) {
+						firstAvailableSeq = Math.min(firstAvailableSeq, seq);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		}
+		if (records.isEmpty()) {
+			if (firstAvailableSeq == Long.MAX_VALUE) {
+				throw new IOException("A szinkronizálási sor nem olvasható: " + queueDir.getAbsolutePath());
+			}
+			// Segments were lost (eg. deleted by hand), announce the gap and continue with the first available record
+			System.err.println("Hiányzó bejegyzések a szinkronizálási sorban: " + firstSeq + "-" + (firstAvailableSeq - 1));
+			records.add(GAP_RECORD + "\t" + firstSeq + "\t" + (firstAvailableSeq - 1));
+			deliver(firstSeq, firstAvailableSeq - 1, records);
+			return;
+		}
+		deliver(firstSeq, firstSeq + records.size() - 1, records);
+	}
+
+	/**
+	 * Writes a batch file into the inbox, and marks its records delivered
+	 * @param firstSeq First sequence number of the batch
+	 * @param lastSeq  Last sequence number of the batch
+	 * @param records  The records (or the gap marker)
+	 * @throws IOException If the inbox is not writable
+	 */
+	private void deliver(long firstSeq, long lastSeq, List<String> records) throws IOException {
+		final File stationDir = new File(inboxDir, station);
+		if (!stationDir.isDirectory() && !stationDir.mkdirs()) {
+			throw new IOException("A központi könyvtár nem érhető el: " + stationDir.getAbsolutePath());
+		}
+		final String batchName = String.format("%1$020d-%2$020d", firstSeq, lastSeq);
+		final File tmpFile = new File(stationDir, batchName + ".tmp");
+		final File batchFile = new File(stationDir, batchName + ".gz");
+		Writer out = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmpFile)), "UTF-8"));
+		try {
+			if (firstSeq == 1) {
+				out.write(RESET_RECORD + "\t" + epoch + "\n");
+			}
+			for (String record : records) {
+				out.write(record);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+		if (!tmpFile.renameTo(batchFile)) {
+			tmpFile.delete();
+			throw new IOException("Nem sikerült átnevezni: " + tmpFile.getAbsolutePath());
+		}
+
+		writeAcked(lastSeq);
+		ackedSeq = lastSeq;
+		deleteAckedSegments();
+	}
+
+	/**
+	 * Deletes the segment files whose every record has been delivered. The last segment is always kept.
+	 */
+	private void deleteAckedSegments() {
+		synchronized (lock) {
+			final File[] segments = listSegments();
+			for (int i = 0; i < segments.length - 1; i++) {
+				if (segmentFirstSeq(segments[i + 1]) - 1 <= ackedSeq) {
+					segments[i].delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the last complete record of the last segment (a partial line left by a crash is ignored)
+	 */
+	private long recoverLastSeq() throws Exception {
+		final File[] segments = listSegments();
+		if (segments.length == 0) {
+			return 0;
+		}
+		long lastSeq = segmentFirstSeq(segments[segments.length - 1]) - 1;
+		try {
+			truncatePartialRecord(segments[segments.length - 1]);
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(segments[segments.length - 1]), "UTF-8"));
+			try {
+				String record;
+				while ((record = in.readLine()) != null) {
+					final long seq = parseSeq(record);
+					if (seq == lastSeq + 1) {
+						lastSeq = seq;
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new Exception("A szinkronizálási sor nem olvasható: " + e.getMessage());
+		}
+		return lastSeq;
+	}
+
+	/**
+	 * Cuts off an unterminated last line, which is left by a crash during writing
+	 */
+	private static void truncatePartialRecord(File segment) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		try {
+			long length = file.length();
+			while (length > 0) {
+				file.seek(length - 1);
+				if (file.read() == '\n') {
+					break;
+				}
+				length--;
+			}
+			if (length < file.length()) {
+				file.setLength(length);
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	private long readAcked() {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(new File(queueDir, ACKED_FILE_NAME)), "UTF-8"));
+			try {
+				return Long.parseLong(in.readLine().trim());
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+
+	private void writeAcked(long seq) throws IOException {
+		writeFile(ACKED_FILE_NAME, Long.toString(seq));
+	}
+
+	/**
+	 * Reads the identifier of the queue, or creates it with the queue
+	 */
+	private String readEpoch() throws IOException {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(new File(queueDir, EPOCH_FILE_NAME)), "UTF-8"));
+			try {
+				final String line = in.readLine();
+				if (line != null && !line.trim().isEmpty()) {
+					return line.trim();
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {}
+		final String newEpoch = Long.toString(System.currentTimeMillis());
+		writeFile(EPOCH_FILE_NAME, newEpoch);
+		return newEpoch;
+	}
+
+	/**
+	 * Replaces a file of the queue directory atomically
+	 */
+	private void writeFile(String name, String content) throws IOException {
+		final File tmpFile = new File(queueDir, name + ".tmp");
+		final File file = new File(queueDir, name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8");
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		if (!tmpFile.renameTo(file)) {
+			file.delete();
+			if (!tmpFile.renameTo(file)) {
+				throw new IOException("Nem sikerült menteni: " + file.getAbsolutePath());
+			}
+		}
+	}
+
+	private File segmentFile(long firstSeq) {
+		return new File(queueDir, String.format("%1$020d", firstSeq) + SEGMENT_EXTENSION);
+	}
+
+	private File[] listSegments() {
+		File[] segments = queueDir.listFiles((dir, name) -> name.endsWith(SEGMENT_EXTENSION));
+		if (segments == null) {
+			return new File[0];
+		}
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	private static long segmentFirstSeq(File segment) {
+		final String name = segment.getName();
+		return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+	}
+
+	/**
+	 * Returns the sequence number of a "seq\tline" record, or -1 if the record is malformed
+	 */
+	static long parseSeq(String record) {
+		final int tab = record.indexOf('\t');
+		if (tab <= 0) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(record.substring(0, tab));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
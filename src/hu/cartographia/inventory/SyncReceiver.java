@@ -0,0 +1,307 @@
+// License: GPL. For details, see LICENSE file
+
+package hu.cartographia.inventory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Central side of the station synchronization (see SyncQueue)
+ *
+ * Reads the batch files of every station from the inbox directory in sequence order and appends their lines
+ * to log files of the central log directory, so the report can be created from them.
+ * Lines are deduplicated by (station, sequence number): the last received sequence number of every station
+ * is stored in the inbox directory (received.txt), resent or overlapping batches are skipped.
+ * A batch which would leave a gap in the sequence is kept until the missing batch arrives, unless the station
+ * announces that the missing records are lost (gap marker), or that its queue has been recreated (reset marker,
+ * the sequence numbers restart). Both are reported on the standard error.
+ * The lines of a batch and the new sequence number are committed together: before the lines are appended, the
+ * lengths of the log files and the new state are written to a journal (receiving.txt). If the appending is
+ * interrupted, the log files are truncated to these lengths before the next run, and the batch is received again.
+ *
+ * Usage: SyncReceiver <inbox directory> <log directory> [-w]
+ *    -w  keep watching the inbox directory
+ *
+ * @since 2026-10-19
+ */
+class SyncReceiver {
+	private static final String STATE_FILE_NAME = "received.txt";
+	private static final String JOURNAL_FILE_NAME = "receiving.txt";
+
+	private final File inboxDir;
+	private final File logDir;
+	/** Last received sequence number of each station */
+	private final Map<String, Long> received = new TreeMap<String, Long>();
+	/** Queue identifier of each station (see SyncQueue.RESET_RECORD) */
+	private final Map<String, String> epochs = new TreeMap<String, String>();
+
+	public SyncReceiver(String inboxDir, String logDir) {
+		this.inboxDir = new File(inboxDir);
+		this.logDir = new File(logDir);
+		readState();
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Használat: SyncReceiver <beérkező könyvtár> <napló könyvtár> [-w]");
+			System.exit(1);
+		}
+		final SyncReceiver receiver = new SyncReceiver(args[0], args[1]);
+		final boolean watch = args.length >= 3 && args[2].equals("-w");
+		do {
+			try {
+				final int count = receiver.receive();
+				if (count > 0) {
+					System.out.println(count + " új naplósor érkezett");
+				}
+			} catch (Exception e) {
+				System.err.println(e.getMessage());
+			}
+			if (watch) {
+				try {
+					Thread.sleep(2000);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		} while (watch);
+	}
+
+	/**
+	 * Processes every new batch file of the inbox
+	 * @return Number of appended log lines
+	 * @throws Exception If reading or writing fails
+	 */
+	public int receive() throws Exception {
+		final File[] stationDirs = inboxDir.listFiles(File::isDirectory);
+		if (stationDirs == null) {
+			throw new Exception("A beérkező könyvtár nem található: " + inboxDir.getAbsolutePath());
+		}
+		if (!logDir.exists()) {
+			logDir.mkdirs();
+		}
+		recoverJournal();
+		int count = 0;
+		for (File stationDir : stationDirs) {
+			count += receiveStation(stationDir);
+		}
+		return count;
+	}
+
+	private int receiveStation(File stationDir) throws Exception {
+		final String station = stationDir.getName();
+		final File[] batches = stationDir.listFiles((dir, name) -> name.endsWith(".gz"));
+		if (batches == null || batches.length == 0) {
+			return 0;
+		}
+		Arrays.sort(batches);	// File names start with the zero padded first sequence number
+
+		int count = 0;
+		for (File batch : batches) {
+			long lastSeq = received.containsKey(station) ? received.get(station) : 0;
+			String epoch = epochs.containsKey(station) ? epochs.get(station) : "";
+			final long firstSeq = Long.parseLong(batch.getName().substring(0, 20));
+			if (firstSeq > lastSeq + 1 && firstSeq != 1) {
+				break;	// Wait for the missing batch (the first batch of a recreated queue starts with 1)
+			}
+
+			/* Lines of the batch by log file */
+			final Map<String, StringBuilder> output = new LinkedHashMap<String, StringBuilder>();
+			try {
+				BufferedReader in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(batch)), "UTF-8"));
+				try {
+					String record;
+					while ((record = in.readLine()) != null) {
+						if (record.startsWith(SyncQueue.RESET_RECORD + "\t")) {
+							final String newEpoch = record.substring(SyncQueue.RESET_RECORD.length() + 1);
+							if (!newEpoch.equals(epoch)) {
+								if (lastSeq > 0) {
+									System.err.println(station + ": a szinkronizálási sor újraindult (előző sorszám: " + lastSeq + ")");
+								}
+								epoch = newEpoch;
+								lastSeq = 0;
+							}
+							continue;
+						}
+						if (record.startsWith(SyncQueue.GAP_RECORD + "\t")) {
+							final String[] values = record.split("\t");
+							final long gapFirst = Long.parseLong(values[1]);
+							final long gapLast = Long.parseLong(values[2]);
+							if (gapFirst <= lastSeq + 1 && gapLast > lastSeq) {
+								System.err.println(station + ": elveszett naplósorok: " + (lastSeq + 1) + "-" + gapLast);
+								lastSeq = gapLast;
+							}
+							continue;
+						}
+						final long seq = SyncQueue.parseSeq(record);
+						if (seq != lastSeq + 1) {
+							continue;	// Already received (or malformed)
+						}
+						final String line = record.substring(record.indexOf('\t') + 1);
+						final String fileName = logFileName(station, line);
+						StringBuilder lines = output.get(fileName);
+						if (lines == null) {
+							lines = new StringBuilder();
+							output.put(fileName, lines);
+						}
+						lines.append(line).append("\r\n");
+						lastSeq = seq;
+						count++;
+					}
+				} finally {
+					in.close();
+				}
+				if (!output.isEmpty()) {
+					writeJournal(station, lastSeq, epoch, output.keySet());
+					for (Map.Entry<String, StringBuilder> entry : output.entrySet()) {
+						final Writer out = new OutputStreamWriter(new FileOutputStream(new File(logDir, entry.getKey()), true), "UTF-8");
+						try {
+							out.write(entry.getValue().toString());
+						} finally {
+							out.close();
+						}
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				throw new Exception("\"" + batch + "\" feldolgozása sikertelen: " + e.getMessage());
+			}
+
+			received.put(station, lastSeq);
+			epochs.put(station, epoch);
+			writeState();
+			new File(inboxDir, JOURNAL_FILE_NAME).delete();
+			batch.delete();
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the journal of a batch before its lines are appended: the new state of the station and the lengths
+	 * of the log files
+	 */
+	private void writeJournal(String station, long lastSeq, String epoch, Iterable<String> fileNames) throws IOException {
+		final StringBuilder journal = new StringBuilder();
+		journal.append(station).append('\t').append(lastSeq).append('\t').append(epoch).append('\n');
+		for (String fileName : fileNames) {
+			journal.append(fileName).append('\t').append(new File(logDir, fileName).length()).append('\n');
+		}
+		writeFile(JOURNAL_FILE_NAME, journal.toString());
+	}
+
+	/**
+	 * Finishes an interrupted batch: if its new state has not been saved, the lines appended to the log files are removed
+	 * @throws Exception If the log files can not be truncated
+	 */
+	private void recoverJournal() throws Exception {
+		final File journalFile = new File(inboxDir, JOURNAL_FILE_NAME);
+		if (!journalFile.exists()) {
+			return;
+		}
+		try {
+			final List<String> lines = Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8);
+			final String[] state = lines.isEmpty() ? new String[0] : lines.get(0).split("\t", -1);
+			if (state.length == 3 && Long.valueOf(Long.parseLong(state[1])).equals(received.get(state[0]))
+					&& state[2].equals(epochs.get(state[0]))) {
+				writeState();	// The batch has been received completely
+			} else {
+				for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+					final int tab = line.lastIndexOf('\t');
+					final File file = new File(logDir, line.substring(0, tab));
+					final long length = Long.parseLong(line.substring(tab + 1));
+					if (length == 0) {
+						file.delete();
+					} else if (file.length() > length) {
+						final RandomAccessFile out = new RandomAccessFile(file, "rw");
+						try {
+							out.setLength(length);
+						} finally {
+							out.close();
+						}
+					}
+				}
+				System.err.println("Félbeszakadt fogadás visszavonva: " + (state.length > 0 ? state[0] : ""));
+			}
+		} catch (IOException | RuntimeException e) {
+			throw new Exception("A félbeszakadt fogadás visszavonása sikertelen: " + e.getMessage());
+		}
+		journalFile.delete();
+	}
+
+	/**
+	 * Log file name of a received line: date_operator_location_station.csv, like the files of the stations
+	 */
+	private static String logFileName(String station, String line) {
+		final List<String> values = CSVUtils.parseLine(line, '\t');
+		final String date = values.get(0).length() >= 10 ? values.get(0).substring(0, 10) : "ismeretlen";
+		final String location = values.size() > 5 ? values.get(5) : "";
+		final String operator = values.size() > 6 ? values.get(6) : "";
+		return (date + "_" + operator + "_" + location + "_" + station).replaceAll("[\\\\/:*?\"<>|]", "_") + ".csv";
+	}
+
+	private void readState() {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(new File(inboxDir, STATE_FILE_NAME)), "UTF-8"));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					final String[] values = line.split("\t", -1);
+					if (values.length >= 2) {
+						received.put(values[0], Long.parseLong(values[1]));
+						epochs.put(values[0], values.length >= 3 ? values[2] : "");
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {}
+	}
+
+	private void writeState() throws Exception {
+		final StringBuilder state = new StringBuilder();
+		for (Map.Entry<String, Long> entry : received.entrySet()) {
+			final String epoch = epochs.get(entry.getKey());
+			state.append(entry.getKey() + "\t" + entry.getValue() + "\t" + (epoch != null ? epoch : "") + "\n");
+		}
+		try {
+			writeFile(STATE_FILE_NAME, state.toString());
+		} catch (IOException e) {
+			throw new Exception("A fogadási állapot mentése sikertelen: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Replaces a file of the inbox directory atomically
+	 */
+	private void writeFile(String name, String content) throws IOException {
+		final File tmpFile = new File(inboxDir, name + ".tmp");
+		final File file = new File(inboxDir, name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8");
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		if (!tmpFile.renameTo(file)) {
+			file.delete();
+			if (!tmpFile.renameTo(file)) {
+				throw new IOException(file.getAbsolutePath());
+			}
+		}
+	}
+}